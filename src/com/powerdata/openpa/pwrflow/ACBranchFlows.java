@@ -37,6 +37,20 @@ public interface ACBranchFlows extends
 	float getFromQpu(int ndx);
 	
 	void calc(float[] vmpu, float[] varad) throws PAModelException;
+
+	/**
+	 * Calculate flows and add them to the bus mismatch arrays in a single pass
+	 * @param vmpu voltage magnitude (p.u.) by bus
+	 * @param varad voltage angle (rad) by bus
+	 * @param pmm active power mismatches by bus
+	 * @param qmm reactive power mismatches by bus
+	 * @throws PAModelException
+	 */
+	void calcMismatches(float[] vmpu, float[] varad, float[] pmm, float[] qmm)
+			throws PAModelException;
+
+	void calcMismatches(float[] vmpu, float[] varad, float[] pmm, float[] qmm,
+			int[] subset) throws PAModelException;
 	
 	void applyMismatches(Mismatch pmm, Mismatch qmm) throws PAModelException;
 
@@ -1,6 +1,5 @@
 package com.powerdata.openpa.pwrflow;
 
-import java.util.Arrays;
 import com.powerdata.openpa.ACBranch;
 import com.powerdata.openpa.ACBranchListIfc;
 import com.powerdata.openpa.BusRefIndex;
@@ -20,6 +19,12 @@ public class ACBranchFlowsI extends ACBranchExtListI<ACBranchFlow> implements AC
 	float[] _ftap;
 	float[] _ttap;
 	float[] _lshift;
+	/** series conductance and susceptance */
+	float[] _g, _b;
+	/** from and to bus indexes */
+	int[] _fb, _tb;
+	/** count of tap and phase shift changes */
+	int _chg = 0;
 
 	
 	public ACBranchFlowsI(ACBranchListIfc<? extends ACBranch> branches, BusRefIndex bri)
@@ -49,6 +54,16 @@ public class ACBranchFlowsI extends ACBranchExtListI<ACBranchFlow> implements AC
 		_ftap = _list.getFromTap();
 		_ttap = _list.getToTap();
 		_lshift = _list.getShift();
+		_fb = _bus.getFromBus();
+		_tb = _bus.getToBus();
+		_g = new float[n];
+		_b = new float[n];
+		for(int i=0; i < n; ++i)
+		{
+			Complex y = _y.get(i);
+			_g[i] = y.re();
+			_b[i] = y.im();
+		}
 	}
 	
 	@Override
@@ -68,35 +83,61 @@ public class ACBranchFlowsI extends ACBranchExtListI<ACBranchFlow> implements AC
 	public void calc(float[] vm, float[] va) throws PAModelException
 	{
 		int n = size();
-		Arrays.fill(_fp,  0f);
-		Arrays.fill(_tp,  0f);
-		Arrays.fill(_fq,  0f);
-		Arrays.fill(_tq,  0f);
-		int[] fb = _bus.getFromBus(), tb = _bus.getToBus();
 		for(int i=0; i < n; ++i)
-		{
-			Complex y = _y.get(i);
-			int f = fb[i], t = tb[i];
-			float fvm = vm[f], tvm = vm[t], fva = va[f], tva = va[t];
-			float shift = fva - tva - _lshift[i];
+			calc(i, vm, va);
+	}
 
-			float ft = _ftap[i], tt = _ttap[i];
-			float tvmpq = fvm * tvm / (ft * tt);
-			float tvmp2 = fvm * fvm / (ft * ft);
-			float tvmq2 = tvm * tvm / (tt * tt);
-			float ctvmpq = tvmpq * (float) Math.cos(shift);
-			float stvmpq = tvmpq * (float) Math.sin(shift);
-			float yg = y.re(), yb = y.im();
-			float gcos = ctvmpq * yg;
-			float bcos = ctvmpq * yb;
-			float gsin = stvmpq * yg;
-			float bsin = stvmpq * yb;
-			float ybmag = yb + _brbmag[i];
-			_fp[i] = gcos + bsin - tvmp2 * yg;
-			_fq[i] = gsin - bcos + tvmp2 * (ybmag + _fbch[i]);
-			_tp[i] = gcos - bsin - tvmq2 * yg;
-			_tq[i] = -gsin - bcos + tvmq2 * (ybmag + _tbch[i]);
-		}
+	@Override
+	public void calcMismatches(float[] vm, float[] va, float[] pmm, float[] qmm)
+			throws PAModelException
+	{
+		int n = size();
+		for(int i=0; i < n; ++i)
+			calcMismatch(i, vm, va, pmm, qmm);
+	}
+
+	@Override
+	public void calcMismatches(float[] vm, float[] va, float[] pmm, float[] qmm,
+			int[] subset) throws PAModelException
+	{
+		for(int i : subset)
+			calcMismatch(i, vm, va, pmm, qmm);
+	}
+
+	/** Calculate flows on a single branch and add them to the bus mismatches */
+	void calcMismatch(int i, float[] vm, float[] va, float[] pmm, float[] qmm)
+	{
+		calc(i, vm, va);
+		int f = _fb[i], t = _tb[i];
+		pmm[f] += _fp[i];
+		pmm[t] += _tp[i];
+		qmm[f] += _fq[i];
+		qmm[t] += _tq[i];
+	}
+
+	/** Calculate flows on a single branch */
+	void calc(int i, float[] vm, float[] va)
+	{
+		int f = _fb[i], t = _tb[i];
+		float fvm = vm[f], tvm = vm[t], fva = va[f], tva = va[t];
+		float shift = fva - tva - _lshift[i];
+
+		float ft = _ftap[i], tt = _ttap[i];
+		float tvmpq = fvm * tvm / (ft * tt);
+		float tvmp2 = fvm * fvm / (ft * ft);
+		float tvmq2 = tvm * tvm / (tt * tt);
+		float ctvmpq = tvmpq * (float) Math.cos(shift);
+		float stvmpq = tvmpq * (float) Math.sin(shift);
+		float yg = _g[i], yb = _b[i];
+		float gcos = ctvmpq * yg;
+		float bcos = ctvmpq * yb;
+		float gsin = stvmpq * yg;
+		float bsin = stvmpq * yb;
+		float ybmag = yb + _brbmag[i];
+		_fp[i] = gcos + bsin - tvmp2 * yg;
+		_fq[i] = gsin - bcos + tvmp2 * (ybmag + _fbch[i]);
+		_tp[i] = gcos - bsin - tvmq2 * yg;
+		_tq[i] = -gsin - bcos + tvmq2 * (ybmag + _tbch[i]);
 	}
 	
 	@Override
@@ -125,27 +166,123 @@ public class ACBranchFlowsI extends ACBranchExtListI<ACBranchFlow> implements AC
 	
 	void _apply(float[] f, float[] t, Mismatch mm, int[] subset) throws PAModelException
 	{
-//		TwoTerm bx = mm.getBusRefIndex().get2TBus(_list);
-		int[] fndx = _bus.getFromBus(), tndx = _bus.getToBus();
+		float[] m = mm.get();
 		for(int i : subset)
 		{
-			mm.add(fndx[i], f[i]);
-			mm.add(tndx[i], t[i]);
+			m[_fb[i]] += f[i];
+			m[_tb[i]] += t[i];
 		}
 	}
 
 	void _apply(float[] f, float[] t, Mismatch mm) throws PAModelException
 	{
-//		TwoTerm bx = mm.getBusRefIndex().get2TBus(_list);
-		int[] fndx = _bus.getFromBus(), tndx = _bus.getToBus();
+		float[] m = mm.get();
 		int n = size();
 		for(int i=0; i < n; ++i)
 		{
-			mm.add(fndx[i], f[i]);
-			mm.add(tndx[i], t[i]);
+			m[_fb[i]] += f[i];
+			m[_tb[i]] += t[i];
+		}
+	}
+
+
+	/**
+	 * Derivatives of the reactive flows with respect to a tap ratio, at the
+	 * given voltages
+	 * 
+	 * @param i
+	 *            branch index
+	 * @param fromside
+	 *            true for the from-side tap, false for the to-side tap
+	 * @param vm
+	 *            bus voltage magnitudes (p.u.)
+	 * @param va
+	 *            bus voltage angles (rad)
+	 * @param d
+	 *            returns from-side and to-side derivatives (p.u.)
+	 */
+	void dQdTap(int i, boolean fromside, float[] vm, float[] va, float[] d)
+	{
+		int f = _fb[i], t = _tb[i];
+		float fvm = vm[f], tvm = vm[t];
+		float shift = va[f] - va[t] - _lshift[i];
+		float ft = _ftap[i], tt = _ttap[i];
+		float tvmpq = fvm * tvm / (ft * tt);
+		float gsin = tvmpq * (float) Math.sin(shift) * _g[i];
+		float bcos = tvmpq * (float) Math.cos(shift) * _b[i];
+		float ybmag = _b[i] + _brbmag[i];
+		if (fromside)
+		{
+			float tvmp2 = fvm * fvm / (ft * ft);
+			d[0] = (bcos - gsin - 2f * tvmp2 * (ybmag + _fbch[i])) / ft;
+			d[1] = (gsin + bcos) / ft;
+		}
+		else
+		{
+			float tvmq2 = tvm * tvm / (tt * tt);
+			d[0] = (bcos - gsin) / tt;
+			d[1] = (gsin + bcos - 2f * tvmq2 * (ybmag + _tbch[i])) / tt;
 		}
 	}
 
+	/**
+	 * Derivatives of the active flows with respect to the phase shift, at
+	 * the given voltages
+	 * 
+	 * @param i
+	 *            branch index
+	 * @param vm
+	 *            bus voltage magnitudes (p.u.)
+	 * @param va
+	 *            bus voltage angles (rad)
+	 * @param d
+	 *            returns from-side and to-side derivatives (p.u.)
+	 */
+	void dPdShift(int i, float[] vm, float[] va, float[] d)
+	{
+		int f = _fb[i], t = _tb[i];
+		float shift = va[f] - va[t] - _lshift[i];
+		float tvmpq = vm[f] * vm[t] / (_ftap[i] * _ttap[i]);
+		float gsin = tvmpq * (float) Math.sin(shift) * _g[i];
+		float bcos = tvmpq * (float) Math.cos(shift) * _b[i];
+		d[0] = gsin - bcos;
+		d[1] = gsin + bcos;
+	}
+
+	/**
+	 * Change the tap ratios used in the calculation and in the model
+	 * @param i branch index
+	 * @param ftap from-side tap (p.u.)
+	 * @param ttap to-side tap (p.u.)
+	 * @throws PAModelException
+	 */
+	void setTaps(int i, float ftap, float ttap) throws PAModelException
+	{
+		_ftap[i] = ftap;
+		_ttap[i] = ttap;
+		++_chg;
+		_list.setFromTap(i, ftap);
+		_list.setToTap(i, ttap);
+	}
+
+	/**
+	 * Change the phase shift used in the calculation and in the model
+	 * @param i branch index
+	 * @param shift phase shift, in the units used for flows
+	 * @throws PAModelException
+	 */
+	void setShift(int i, float shift) throws PAModelException
+	{
+		_lshift[i] = shift;
+		++_chg;
+		_list.setShift(i, shift);
+	}
+
+	float getFromTap(int i) {return _ftap[i];}
+	float getToTap(int i) {return _ttap[i];}
+	float getShift(int i) {return _lshift[i];}
+	int getFromBusIndex(int i) {return _fb[i];}
+	int getToBusIndex(int i) {return _tb[i];}
 
 	@Override
 	public void update() throws PAModelException
@@ -44,6 +44,20 @@ public class ACBranchFlowsSubList extends ACBranchExtSublist<ACBranchFlow>
 		_src.calc(vmpu, varad);
 	}
 
+	@Override
+	public void calcMismatches(float[] vmpu, float[] varad, float[] pmm,
+			float[] qmm) throws PAModelException
+	{
+		_src.calcMismatches(vmpu, varad, pmm, qmm, _ndx);
+	}
+
+	@Override
+	public void calcMismatches(float[] vmpu, float[] varad, float[] pmm,
+			float[] qmm, int[] subset) throws PAModelException
+	{
+		_src.calcMismatches(vmpu, varad, pmm, qmm, mapSubset(subset));
+	}
+
 	@Override
 	public void applyMismatches(Mismatch pmm, Mismatch qmm) throws PAModelException
 	{
@@ -77,7 +91,16 @@ public class ACBranchFlowsSubList extends ACBranchExtSublist<ACBranchFlow>
 	@Override
 	public void applyMismatches(Mismatch pmm, Mismatch qmm, int[] subset) throws PAModelException
 	{
-		throw new UnsupportedOperationException(
-				"Subset of a sublist not implemented (yet)");
+		_src.applyMismatches(pmm, qmm, mapSubset(subset));
+	}
+
+	/** translate offsets within this sublist to offsets in the source list */
+	int[] mapSubset(int[] subset)
+	{
+		int n = subset.length;
+		int[] rv = new int[n];
+		for(int i=0; i < n; ++i)
+			rv[i] = _ndx[subset[i]];
+		return rv;
 	}
 }
@@ -27,6 +27,8 @@ import com.powerdata.openpa.SVCList;
 import com.powerdata.openpa.SubLists;
 import com.powerdata.openpa.TwoTermDev;
 import com.powerdata.openpa.TwoTermDevList;
+import com.powerdata.openpa.impl.GroupMap;
+import com.powerdata.openpa.tools.LinkNet;
 import com.powerdata.openpa.tools.PAMath;
 
 /**
@@ -45,6 +47,10 @@ public class ACPowerCalc
 	float _sbase = 100f;
 	/** ac branch calculators for each type */
 	List<ACBranchFlows> _brcalc = new ArrayList<>();
+	/** full (including out-of-service) branch calculators for each type */
+	List<ACBranchFlowsI> _brfull = new ArrayList<>();
+	/** in-service branch indexes for each type */
+	List<int[]> _brinsvc = new ArrayList<>();
 	/** SVC calculator */
 	SVCCalcList _svc;
 	/** keep the partitioned SVC results around for a reasonable amount of time */
@@ -55,6 +61,12 @@ public class ACPowerCalc
 	List<FixedShuntCalcList> _fshcalc = new ArrayList<>();
 	/** active loads */
 	Active1TData _actvld, _actvgen;
+	/** buses in the calculation */
+	BusList _buses;
+	/** Y-bus used for branch and shunt injections, or null to calculate each branch */
+	YBusCSR _ybus;
+	/** voltages last used with the Y-bus, so that flows can be calculated for results */
+	float[] _ybvm, _ybva;
 
 	/**
 	 * Create a new calculator
@@ -71,9 +83,23 @@ public class ACPowerCalc
 			throws PAModelException
 	{
 		LoadList loadsub = SubLists.getLoadInsvc(model.getLoads());
-		return new Active1TData(bri, loadsub, () -> loadsub.getP(),
+		Active1TData rv = new Active1TData(bri, loadsub, () -> loadsub.getP(),
 				() -> loadsub.getQ(), sbase);
+		/* loads do not change during a run, so they are not read each iteration */
+		rv.refresh();
+		return rv;
 	}
+	/**
+	 * Read the active loads from the model again, for changes made since the
+	 * calculator was created
+	 * 
+	 * @throws PAModelException
+	 */
+	public void refreshLoads() throws PAModelException
+	{
+		_actvld.refresh();
+	}
+
 	public static Active1TData setupActiveGens(BusRefIndex bri, PAModel model, float sbase)
 			throws PAModelException
 	{
@@ -97,19 +123,23 @@ public class ACPowerCalc
 		shInSvc.add(SubLists.getShuntReacInsvc(model.getShuntReactors()));
 		return shInSvc;
 	}
-	
+
 	public ACPowerCalc(PAModel model, BusRefIndex bri,
 			Collection<FixedShuntListIfc<? extends FixedShunt>> shInSvc,
 			Active1TData actvLoads, Active1TData actvGens)
 			throws PAModelException
 	{
 		_model = model;
+		_buses = bri.getBuses();
 		
 		/* build AC branch calculators (one for each dev type) */
 		for(ACBranchList l : model.getACBranches())
 		{
-			_brcalc.add(new ACBranchFlowsSubList(new ACBranchFlowsI(l, bri),
-				SubLists.getInServiceIndexes(l)));
+			ACBranchFlowsI full = new ACBranchFlowsI(l, bri);
+			int[] insvc = SubLists.getInServiceIndexes(l);
+			_brfull.add(full);
+			_brinsvc.add(insvc);
+			_brcalc.add(new ACBranchFlowsSubList(full, insvc));
 		}
 
 		/* partition SVC's into 0 and non-0 slope (0-slope will become PV buses) */
@@ -132,6 +162,39 @@ public class ACPowerCalc
 	
 	/** return AC Branch calculator (one for each type of branch) */
 	public List<ACBranchFlows> getBranchFlows() {return _brcalc;}
+	/** return calculators over all branches of each type, parallel with getInServiceBranches() */
+	List<ACBranchFlowsI> getAllBranchFlows() {return _brfull;}
+	/** return in-service branch indexes for each type */
+	List<int[]> getInServiceBranches() {return _brinsvc;}
+
+	/**
+	 * Calculate the branch and fixed shunt injections in calcMismatches() from
+	 * a Y-bus in compressed row form rather than branch by branch. Branch
+	 * flows and shunt results are then only calculated by updateResults().
+	 * 
+	 * @param adj
+	 *            adjacencies of the in-service branches, in the same bus
+	 *            indexes as this calculator, or null to stop using the Y-bus
+	 */
+	public void setYBus(LinkNet adj)
+	{
+		_ybus = (adj == null) ? null : new YBusCSR(adj, _buses.size(), _brfull,
+			_brinsvc, _fshcalc);
+	}
+
+	/**
+	 * Enable or disable Y-bus injections, building adjacencies from the
+	 * in-service branches
+	 * @param enable true to use the Y-bus
+	 * @throws PAModelException
+	 */
+	public void setYBus(boolean enable) throws PAModelException
+	{
+		setYBus(enable ? new ACBranchAdjacencies(_brcalc, _buses) : null);
+	}
+
+	/** @return true if injections are calculated from the Y-bus */
+	public boolean usesYBus() {return _ybus != null;}
 
 	/** return SVC calculator for SVC's modeled with positive slope */
 	public SVCCalcList getSVCCalc() {return _svc;}
@@ -214,9 +277,176 @@ public class ACPowerCalc
 	
 	}
 	
-	/** Update results back into the OpenPA lists */
+	/**
+	 * Calculate flows and shunts, and apply them along with the bus
+	 * injections to the mismatches. This is equivalent to calling calc()
+	 * followed by applyMismatch(), but each branch is calculated and scattered
+	 * to its buses in the same pass.
+	 * 
+	 * @param vm
+	 * @param va
+	 * @param pmm
+	 * @param qmm
+	 * @throws PAModelException
+	 */
+	public void calcMismatches(float[] vm, float[] va, Mismatch pmm, Mismatch qmm)
+			throws PAModelException
+	{
+		float[] p = pmm.get(), q = qmm.get();
+		if (_ybus != null)
+		{
+			_ybus.calcMismatches(vm, va, p, q);
+			_ybvm = vm;
+			_ybva = va;
+		}
+		else
+		{
+			for(ACBranchFlows flows : _brcalc)
+				flows.calcMismatches(vm, va, p, q);
+
+			for(FixedShuntCalcList fs : _fshcalc)
+				fs.calcMismatches(vm, q);
+		}
+
+		_svc.calc(vm);
+		_svc.applyMismatches(qmm);
+
+		_actvld.applyMismatch(pmm, qmm);
+		_actvgen.applyMismatch(pmm, qmm);
+	}
+	
+	/**
+	 * Calculate mismatches for the devices within a single island.  Islands
+	 * share no buses, so separate islands can be calculated concurrently.
+	 * 
+	 * @author chris@powerdata.com
+	 *
+	 */
+	public class IslandCalc
+	{
+		/** in-service branch indexes (within the full list) for each branch type */
+		int[][] _br;
+		/** shunt indexes for each fixed shunt list */
+		int[][] _fsh;
+		/** SVC, load and generator indexes */
+		int[] _svcx, _ldx, _genx;
+		/** buses in the island */
+		int[] _bus;
+
+		IslandCalc(int[][] br, int[][] fsh, int[] svcx, int[] ldx, int[] genx,
+				int[] bus)
+		{
+			_bus = bus;
+			_br = br;
+			_fsh = fsh;
+			_svcx = svcx;
+			_ldx = ldx;
+			_genx = genx;
+		}
+
+		/**
+		 * Calculate flows and shunts in the island and apply them along
+		 * with the bus injections to the mismatches
+		 */
+		public void calcMismatches(float[] vm, float[] va, Mismatch pmm, Mismatch qmm)
+				throws PAModelException
+		{
+			float[] p = pmm.get(), q = qmm.get();
+			if (_ybus != null)
+			{
+				_ybus.calcMismatches(vm, va, p, q, _bus);
+				/* islands share the system voltage arrays */
+				_ybvm = vm;
+				_ybva = va;
+			}
+			else
+			{
+				int nbr = _br.length;
+				for(int i=0; i < nbr; ++i)
+					_brfull.get(i).calcMismatches(vm, va, p, q, _br[i]);
+
+				int nfsh = _fsh.length;
+				for(int i=0; i < nfsh; ++i)
+					_fshcalc.get(i).calcMismatches(vm, q, _fsh[i]);
+			}
+
+			_svc.calcMismatches(vm, q, _svcx);
+			_actvld.applyMismatch(pmm, qmm, _ldx);
+			_actvgen.applyMismatch(pmm, qmm, _genx);
+		}
+	}
+
+	/**
+	 * Partition the calculation by island. When the Y-bus is used, its values
+	 * must be current (calcMismatches() run over the whole system) and
+	 * unchanged while islands are calculated.
+	 * 
+	 * @param busisland
+	 *            island offset for each bus, or -1 if the bus is not included
+	 *            in any island
+	 * @param nisland
+	 *            number of islands
+	 * @return calculators for each island
+	 */
+	public IslandCalc[] partition(int[] busisland, int nisland)
+	{
+		int nbr = _brfull.size(), nfsh = _fshcalc.size();
+		List<List<int[]>> brmap = new ArrayList<>(nbr), fshmap = new ArrayList<>(nfsh);
+		for(int i=0; i < nbr; ++i)
+		{
+			ACBranchFlowsI full = _brfull.get(i);
+			int[] insvc = _brinsvc.get(i);
+			int[] map = new int[full.size()];
+			Arrays.fill(map, -1);
+			for(int b : insvc)
+				map[b] = busisland[full._fb[b]];
+			brmap.add(new GroupMap(map, nisland));
+		}
+		for(FixedShuntCalcList fs : _fshcalc)
+			fshmap.add(new GroupMap(mapDevices(fs._buslist, busisland), nisland));
+		List<int[]> svcmap = new GroupMap(mapDevices(_svc._busidx, busisland), nisland);
+		List<int[]> ldmap = new GroupMap(mapDevices(_actvld.getBus(), busisland), nisland);
+		List<int[]> genmap = new GroupMap(mapDevices(_actvgen.getBus(), busisland), nisland);
+		List<int[]> busmap = new GroupMap(busisland, nisland);
+
+		IslandCalc[] rv = new IslandCalc[nisland];
+		for(int isl=0; isl < nisland; ++isl)
+		{
+			int[][] br = new int[nbr][], fsh = new int[nfsh][];
+			for(int i=0; i < nbr; ++i)
+				br[i] = brmap.get(i).get(isl);
+			for(int i=0; i < nfsh; ++i)
+				fsh[i] = fshmap.get(i).get(isl);
+			rv[isl] = new IslandCalc(br, fsh, svcmap.get(isl), ldmap.get(isl),
+				genmap.get(isl), busmap.get(isl));
+		}
+		return rv;
+	}
+
+	static int[] mapDevices(int[] devbus, int[] busisland)
+	{
+		int n = devbus.length;
+		int[] rv = new int[n];
+		for(int i=0; i < n; ++i)
+			rv[i] = busisland[devbus[i]];
+		return rv;
+	}
+	
+	/**
+	 * Update results back into the OpenPA lists. When the Y-bus is used, flows
+	 * and shunts are first calculated at the voltages last passed to
+	 * calcMismatches().
+	 */
 	public void updateResults() throws PAModelException
 	{
+		if (_ybus != null && _ybvm != null)
+		{
+			for(ACBranchFlows flows : _brcalc)
+				flows.calc(_ybvm, _ybva);
+			for(FixedShuntCalcList fs : _fshcalc)
+				fs.calc(_ybvm);
+		}
+
 		for(ACBranchFlows flows : _brcalc)
 			flows.update();
 
@@ -18,6 +18,8 @@ public class Active1TData
 	int[] _bus;
 	ActiveDataAccess _qa, _pa;
 	float _sbase;
+	/** injections (p.u.) read by refresh(), null to read the model each time */
+	float[] _ppu, _qpu;
 	/** 
 	 * Create a new active data object
 	 * @param bri Bus reference object in use (either single-bus or connectivity bus)
@@ -62,11 +64,34 @@ public class Active1TData
 	{
 		return _bus;
 	}
-	
+
+	/**
+	 * Read the injections from the model and keep them in per-unit for the
+	 * mismatches, until refresh() is called again. Use for devices that do
+	 * not change during a power flow run, such as loads.
+	 * 
+	 * @throws PAModelException
+	 */
+	public void refresh() throws PAModelException
+	{
+		_ppu = PAMath.mva2pu(getP(), _sbase);
+		_qpu = PAMath.mva2pu(getQ(), _sbase);
+	}
+
 	public void applyMismatch(Mismatch pmm, Mismatch qmm) throws PAModelException
 	{
 		float[] p = pmm.get(), q = qmm.get();
 		int n = _bus.length;
+		if (_ppu != null)
+		{
+			for(int i=0; i < n; ++i)
+			{
+				int b = _bus[i];
+				p[b] += _ppu[i];
+				q[b] += _qpu[i];
+			}
+			return;
+		}
 		float[] lp = getP(), lq = getQ();
 		for(int i=0; i < n; ++i)
 		{
@@ -75,4 +100,33 @@ public class Active1TData
 			q[b] += PAMath.mva2pu(lq[i], _sbase);
 		}
 	}
+
+	/**
+	 * Apply injections for a subset of the devices
+	 * @param pmm active power mismatches
+	 * @param qmm reactive power mismatches
+	 * @param subset device indexes to apply
+	 * @throws PAModelException
+	 */
+	public void applyMismatch(Mismatch pmm, Mismatch qmm, int[] subset) throws PAModelException
+	{
+		float[] p = pmm.get(), q = qmm.get();
+		if (_ppu != null)
+		{
+			for(int i : subset)
+			{
+				int b = _bus[i];
+				p[b] += _ppu[i];
+				q[b] += _qpu[i];
+			}
+			return;
+		}
+		float[] lp = getP(), lq = getQ();
+		for(int i : subset)
+		{
+			int b = _bus[i];
+			p[b] += PAMath.mva2pu(lp[i], _sbase);
+			q[b] += PAMath.mva2pu(lq[i], _sbase);
+		}
+	}
 }
\ No newline at end of file
@@ -50,13 +50,11 @@ public class BDblPrime extends SpSymFltMatrix
 			throws PAModelException
 		{
 			ACBranch br = brx.getBranch();
-			float a = br.getFromTap();
-			float b = br.getToTap();
 			float bm = br.getBmag();
-			float y = -brx.getY().im();
-			_bdiag[frombus] += y/(b*b) - bm - br.getFromBchg();
-			_bdiag[tobus] += y/(a*a) - bm - br.getToBchg();
-			_boffdiag[branchIndex] -= y/(a*b);
+			float[] te = tapElements(-brx.getY().im(), br.getFromTap(), br.getToTap());
+			_bdiag[frombus] += te[0] - bm - br.getFromBchg();
+			_bdiag[tobus] += te[1] - bm - br.getToBchg();
+			_boffdiag[branchIndex] += te[2];
 		}
 		
 		/**
@@ -81,6 +79,24 @@ public class BDblPrime extends SpSymFltMatrix
 		}
 	}
 
+	/**
+	 * Calculate the contributions of a branch to B'' that depend on tap
+	 * ratios
+	 * 
+	 * @param y
+	 *            branch susceptance (negated imaginary part of admittance)
+	 * @param a
+	 *            from-side tap
+	 * @param b
+	 *            to-side tap
+	 * @return from-side diagonal, to-side diagonal and off-diagonal
+	 *         contributions
+	 */
+	public static float[] tapElements(float y, float a, float b)
+	{
+		return new float[] {y/(b*b), y/(a*a), -y/(a*b)};
+	}
+
 	/**
 	 * Constructor for sharing of adjacencies & external element building
 	 * 
@@ -32,6 +32,8 @@ public abstract class BasicContingencyManager extends ContingencyManager
 	private boolean _par = false;
 	BiFunction<PAModel, String, CAWorker> _cawrkr = _useratings;
 	ConvergenceList _startPFResults;
+	/** solutions shared between contingencies, null to start each from the case */
+	SolutionCache _solcache = null;
 
 	public BasicContingencyManager(PAModel m, ConvergenceList startPfResults)
 	{
@@ -45,6 +47,12 @@ public abstract class BasicContingencyManager extends ContingencyManager
 	public boolean getParallel() {return _par;}
 	public void setIgnoreRatings(boolean i) {_cawrkr = i ? _noratings : _useratings;}
 	public boolean getIgnoreRatings() {return _cawrkr == _noratings;}
+	/**
+	 * Warm-start each contingency from the closest solution already found
+	 * @param w true to share solutions between contingencies
+	 */
+	public void setWarmStart(boolean w) {_solcache = w ? new SolutionCache() : null;}
+	public boolean getWarmStart() {return _solcache != null;}
 	
 	@Override
 	public void runSet(ContingencySet set)
@@ -67,6 +75,7 @@ public abstract class BasicContingencyManager extends ContingencyManager
 			c.execute(clm);
 			clm.refreshTopology();
 			CAWorker w = _cawrkr.apply(clm, c.getName());
+			w.setSolutionCache(_solcache);
 			w.runContingency();
 			report(c, w.getResults(_startPFResults), clm);
 		}
@@ -106,6 +106,24 @@ public abstract class BusMonitor
 		}
 	}
 
+	/**
+	 * Monitor the buses of a single island.  Separate islands may be monitored
+	 * concurrently.
+	 * 
+	 * @param mm mismatches
+	 * @param rv convergence results
+	 * @param island island offset within the convergence results
+	 * @throws PAModelException
+	 */
+	public void monitor(float[] mm, ConvergenceList rv, int island) throws PAModelException
+	{
+		if (testIsland(rv.get(island)))
+		{
+			for(int i : _posbyisland.get(island))
+				_monitors[i].test(mm[_mbus[i]], i);
+		}
+	}
+
 	/**
 	 * Test if an island should be monitored
 	 * @param convergenceInfo
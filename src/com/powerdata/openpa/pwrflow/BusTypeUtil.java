@@ -36,6 +36,8 @@ public class BusTypeUtil
 	PAModel _model;
 	int[] _type, _itype;
 	int _nisland, _nigrp;
+	/** saved bus types */
+	int[] _savetype, _saveitype;
 	static private final int PV = BusType.PV.ordinal();
 	static private final int PQ = BusType.PQ.ordinal();
 	static private final int REF = BusType.Reference.ordinal();
@@ -284,7 +286,7 @@ public class BusTypeUtil
 		return ysum.abs();
 	}
 
-	int[] getBuses(BusType type)
+	synchronized int[] getBuses(BusType type)
 	{
 		GroupMap m = _tmap.get();
 		if (m == null)
@@ -295,7 +297,7 @@ public class BusTypeUtil
 		return m.get(type.ordinal());
 	}
 	
-	int[] getBuses(BusType type, ElectricalIsland island)
+	synchronized int[] getBuses(BusType type, ElectricalIsland island)
 	{
 		GroupMap m = _imap.get();
 		if (m == null)
@@ -326,7 +328,24 @@ public class BusTypeUtil
 		return _type;
 	}
 
-	public void changeType(BusType ntype, int bus, int busisland)
+	/** Save the current bus types to be restored later with restoreTypes() */
+	public synchronized void saveTypes()
+	{
+		_savetype = _type.clone();
+		_saveitype = _itype.clone();
+	}
+
+	/** Restore the bus types saved with saveTypes() */
+	public synchronized void restoreTypes()
+	{
+		if (_savetype == null) return;
+		System.arraycopy(_savetype, 0, _type, 0, _type.length);
+		System.arraycopy(_saveitype, 0, _itype, 0, _itype.length);
+		_imap = new WeakReference<>(null);
+		_tmap = new WeakReference<>(null);
+	}
+
+	public synchronized void changeType(BusType ntype, int bus, int busisland)
 	{
 		_imap = new WeakReference<>(null);
 		_tmap = new WeakReference<>(null);
@@ -146,16 +146,41 @@ public class CAWorker
 	ConvergenceList _pfres;
 	BusList _snglbus;
 	boolean _dbg = false;
+	/** use the Newton-Raphson power flow in place of fast-decoupled */
+	boolean _newton = false;
+	/** warm-start solutions, null to start from the case */
+	SolutionCache _solcache = null;
 	static float _minv = 0.948f, _maxv = 1.052f;
 	public CAWorker(PAModel model, String cname)
 	{
 		_m = model;
 	}
+	/**
+	 * Select the power flow engine
+	 * @param newton true to use Newton-Raphson, false (default) for fast-decoupled
+	 */
+	public void setNewtonRaphson(boolean newton) {_newton = newton;}
+	public boolean isNewtonRaphson() {return _newton;}
+	/**
+	 * Warm-start the power flow from a cache of solutions, typically shared
+	 * by all the workers of a contingency set
+	 * @param c solution cache, or null (default) to start from the case
+	 */
+	public void setSolutionCache(SolutionCache c) {_solcache = c;}
 	public void runContingency() throws PAModelException
 	{
 		BusRefIndex bri = BusRefIndex.CreateFromSingleBuses(_m);
-		FDPowerFlow pf = new FDPowerFlow(_m, bri);
-		pf.setMaxIterations(100);
+		FDPowerFlow pf;
+		if (_newton)
+		{
+			pf = new NRPowerFlow(_m, bri);
+		}
+		else
+		{
+			pf = new FDPowerFlow(_m, bri);
+			pf.setMaxIterations(100);
+		}
+		pf.setSolutionCache(_solcache);
 		_pfres = pf.runPF();
 		pf.updateResults();
 		_snglbus = bri.getBuses();
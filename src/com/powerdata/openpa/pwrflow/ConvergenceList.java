@@ -7,6 +7,7 @@ import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 import com.powerdata.openpa.Bus;
 import com.powerdata.openpa.ElectricalIsland;
 import com.powerdata.openpa.ElectricalIslandList;
@@ -26,7 +27,10 @@ public class ConvergenceList extends AbstractList<com.powerdata.openpa.pwrflow.C
 		/** reactive power mismatch */ 								Qmismatch,
 		/** Solution not stable */ 									BlowsUp,
 		/** Degenerate case, no real island */ 						ReferenceOnly,
-		/** active power converged, trying to distribute slack */ 	SlackDist; 
+		/** active power converged, trying to distribute slack */ 	SlackDist,
+		/** mismatches converged, adjusting remote regulated voltage */	RemoteVoltage,
+		/** mismatches converged, adjusting transformer taps */		TapAdjust,
+		/** mismatches converged, switching shunts */				ShuntAdjust; 
 	}
 
 	public interface WorstVoltage
@@ -45,6 +49,14 @@ public class ConvergenceList extends AbstractList<com.powerdata.openpa.pwrflow.C
 	float[] _vm;
 	int[] _niter;
 	BusTypeUtil _btu;
+	/** convergence acceleration applied, null if none */
+	CorrectionAccelerator _accel = null;
+	/** test remote regulated voltages before declaring convergence, null if none */
+	Predicate<ElectricalIsland> _rmttest = null;
+	/** test transformer tap and phase shifter controls before declaring convergence, null if none */
+	Predicate<ElectricalIsland> _taptest = null;
+	/** test switched shunt voltages before declaring convergence, null if none */
+	Predicate<ElectricalIsland> _shtest = null;
 	
 	public ConvergenceList(ElectricalIslandList hotislands, BusTypeUtil btu,
 			Mismatch pmm, Mismatch qmm, float ptol, float qtol, float[] vm)
@@ -90,6 +102,9 @@ public class ConvergenceList extends AbstractList<com.powerdata.openpa.pwrflow.C
 		_PrtMap.put(Status.Pmismatch, sball);
 		_PrtMap.put(Status.Qmismatch, sball);
 		_PrtMap.put(Status.SlackDist, sball);
+		_PrtMap.put(Status.RemoteVoltage, sball);
+		_PrtMap.put(Status.TapAdjust, sball);
+		_PrtMap.put(Status.ShuntAdjust, sball);
 		_PrtMap.put(Status.BlowsUp, sball);
 		_PrtMap.put(Status.ReferenceOnly, sbnd);
 	}
@@ -200,45 +215,72 @@ public class ConvergenceList extends AbstractList<com.powerdata.openpa.pwrflow.C
 		Arrays.fill(_worstv, 1f);
 		
 		for(int i=0; i < nislands; ++i)
+			testIsland(i);
+		return completed();
+	}
+
+	/**
+	 * Test for convergence in a single island. Islands may be tested
+	 * concurrently from separate threads.
+	 * 
+	 * @param i
+	 *            island offset within this list
+	 * @return true if we either converged or know we failed for the island
+	 */
+	public boolean test(int i)
+	{
+		_pw[i] = Mismatch.NullMM;
+		_qw[i] = Mismatch.NullMM;
+		_worstvbus[i] = 0;
+		_worstv[i] = 1f;
+		testIsland(i);
+		return completed(i);
+	}
+
+	/** test a single island, worst values are expected to be reset by the caller */
+	void testIsland(int i)
+	{
+		ElectricalIsland island = _islands.get(i);
+		if (_status[i] == Status.NoReferenceBus || _status[i] == Status.Converge)
+			return;
+		/* first check voltage problems */
+		++_niter[i];
+		if (goodVoltage(i))
 		{
-			ElectricalIsland island = _islands.get(i);
-			if (_status[i] == Status.NoReferenceBus || _status[i] == Status.Converge)
-				continue;
-			/* first check voltage problems */
-			++_niter[i];
-			if (goodVoltage(i))
+			WorstMM p = _pmm.test(island);
+			WorstMM q = _qmm.test(island);
+			if (p.getStatus() == Mismatch.Status.BlowsUp
+					|| q.getStatus() == Mismatch.Status.BlowsUp)
 			{
-				WorstMM p = _pmm.test(island);
-				WorstMM q = _qmm.test(island);
-				if (p.getStatus() == Mismatch.Status.BlowsUp
-						|| q.getStatus() == Mismatch.Status.BlowsUp)
-				{
-					_status[i] = Status.BlowsUp;
-				}
-				else if (p.getStatus() == Mismatch.Status.RefOnly ||
-						q.getStatus() == Mismatch.Status.RefOnly)
-				{
-					_status[i] = Status.ReferenceOnly;
-				}
+				_status[i] = Status.BlowsUp;
+			}
+			else if (p.getStatus() == Mismatch.Status.RefOnly ||
+					q.getStatus() == Mismatch.Status.RefOnly)
+			{
+				_status[i] = Status.ReferenceOnly;
+			}
+			else
+			{
+				if(Math.abs(q.getValue()) > _qtol)
+					_status[i] = Status.Qmismatch;
+				else if (Math.abs(p.getValue()) > _ptol)
+					_status[i] = Status.Pmismatch;
+				else if (Math.abs(_pmm.get(_btu.getBuses(BusType.Reference, island)[0])) > _ptol)
+					_status[i] = Status.SlackDist;
+				else if (_rmttest != null && !_rmttest.test(island))
+					_status[i] = Status.RemoteVoltage;
+				else if (_taptest != null && !_taptest.test(island))
+					_status[i] = Status.TapAdjust;
+				else if (_shtest != null && !_shtest.test(island))
+					_status[i] = Status.ShuntAdjust;
 				else
-				{
-					if(Math.abs(q.getValue()) > _qtol)
-						_status[i] = Status.Qmismatch;
-					else if (Math.abs(p.getValue()) > _ptol)
-						_status[i] = Status.Pmismatch;
-					else if (Math.abs(_pmm.get(_btu.getBuses(BusType.Reference, island)[0])) > _ptol)
-						_status[i] = Status.SlackDist;
-					else
-						_status[i] = Status.Converge;
-					
-				}			
+					_status[i] = Status.Converge;
 				
-				_pw[i] = p;
-				_qw[i] = q;
-			}
-//			System.out.println(get(i));
+			}			
+			
+			_pw[i] = p;
+			_qw[i] = q;
 		}
-		return completed();
 	}
 
 	/**
@@ -311,9 +353,64 @@ public class ConvergenceList extends AbstractList<com.powerdata.openpa.pwrflow.C
 		return _islands.size();
 	}
 
+	/**
+	 * Require remote regulated voltages to be met before an island converges
+	 * @param t test for an island, null to skip
+	 */
+	void setRemoteVoltageTest(Predicate<ElectricalIsland> t) {_rmttest = t;}
+
+	/**
+	 * Require tap and phase shifter controls to be satisfied before an island
+	 * converges
+	 * @param t test for an island, null to skip
+	 */
+	void setTapControlTest(Predicate<ElectricalIsland> t) {_taptest = t;}
+
+	/**
+	 * Require switched shunts to hold their bus voltages before an island
+	 * converges
+	 * @param t test for an island, null to skip
+	 */
+	void setShuntControlTest(Predicate<ElectricalIsland> t) {_shtest = t;}
+
+	/**
+	 * Record the convergence acceleration used for the run
+	 * @param a accelerator, or null if none
+	 */
+	void setAccelerator(CorrectionAccelerator a) {_accel = a;}
+
+	/** @return convergence acceleration strategy used for the run */
+	public CorrectionAccelerator.Strategy getAcceleration()
+	{
+		return (_accel == null) ? CorrectionAccelerator.Strategy.None : _accel.getStrategy();
+	}
+
+	/** @return number of iterations where the acceleration modified the corrections */
+	public int getAcceleratedCount()
+	{
+		return (_accel == null) ? 0 : _accel.getModifiedCount();
+	}
+
+	/** @return number of times the acceleration fell back to plain corrections */
+	public int getAccelerationRestarts()
+	{
+		return (_accel == null) ? 0 : _accel.getRestartCount();
+	}
+
 	static Set<Status> _Incomplete = EnumSet.of(Status.Untested,
-		Status.Pmismatch, Status.Qmismatch, Status.SlackDist);
+		Status.Pmismatch, Status.Qmismatch, Status.SlackDist, Status.RemoteVoltage, Status.TapAdjust,
+		Status.ShuntAdjust);
 	
+	/**
+	 * Check if a single island is complete
+	 * @param i island offset within this list
+	 * @return true if the island either converged or is known to have failed
+	 */
+	public boolean completed(int i)
+	{
+		return !_Incomplete.contains(_status[i]);
+	}
+
 	public boolean completed()
 	{
 		for(Status s : _status)
@@ -0,0 +1,272 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Modify the corrections made by each power flow iteration to damp
+ * oscillations or accelerate convergence.
+ *
+ * The B' and B'' corrections of an iteration are treated as a fixed-point
+ * map from the state (angles and magnitudes) before the corrections to the
+ * state after. Accelerators adjust the state after the corrections in place.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public abstract class CorrectionAccelerator
+{
+	/**
+	 * Available strategies
+	 *
+	 * @author chris@powerdata.com
+	 *
+	 */
+	public enum Strategy
+	{
+		/** apply the full correction each iteration */
+		None,
+		/** scale corrections down when the mismatch grows */
+		Damping,
+		/** Anderson acceleration over recent iterations */
+		Anderson
+	}
+
+	/** number of iterations with a modified correction */
+	int _nmod = 0;
+	/** number of times the strategy fell back to plain corrections */
+	int _nrestart = 0;
+
+	/**
+	 * Create an accelerator
+	 * @param s strategy
+	 * @param depth number of previous iterations kept by Anderson acceleration
+	 * @return new accelerator, or null for Strategy.None
+	 */
+	public static CorrectionAccelerator create(Strategy s, int depth)
+	{
+		switch(s)
+		{
+			case Damping: return new Damping();
+			case Anderson: return new Anderson(depth);
+			default: return null;
+		}
+	}
+
+	/** @return strategy implemented */
+	public abstract Strategy getStrategy();
+
+	/**
+	 * Adjust the corrections of an iteration
+	 *
+	 * @param mm
+	 *            largest absolute mismatch (p.u.) at the state before the
+	 *            corrections
+	 * @param va0
+	 *            angles before corrections
+	 * @param vm0
+	 *            magnitudes before corrections
+	 * @param va
+	 *            angles after corrections, modified in place
+	 * @param vm
+	 *            magnitudes after corrections, modified in place
+	 * @param restart
+	 *            true if bus types changed during the iteration
+	 */
+	public abstract void apply(float mm, float[] va0, float[] vm0, float[] va,
+			float[] vm, boolean restart);
+
+	/** @return number of iterations with a modified correction */
+	public int getModifiedCount() {return _nmod;}
+	/** @return number of times the strategy fell back to plain corrections */
+	public int getRestartCount() {return _nrestart;}
+
+	/**
+	 * Scale the correction by a step that is halved each time the mismatch
+	 * grows, and recovers toward a full step while the mismatch decreases.
+	 */
+	static class Damping extends CorrectionAccelerator
+	{
+		static final float MinStep = 0.1f;
+		float _step = 1f, _minused = 1f, _lastmm = Float.MAX_VALUE;
+
+		@Override
+		public Strategy getStrategy() {return Strategy.Damping;}
+
+		@Override
+		public void apply(float mm, float[] va0, float[] vm0, float[] va,
+				float[] vm, boolean restart)
+		{
+			if (mm > _lastmm)
+			{
+				_step = Math.max(MinStep, _step / 2f);
+				++_nrestart;
+			}
+			else
+			{
+				_step += (1f - _step) / 2f;
+			}
+			_lastmm = mm;
+			if (_step >= 0.999f) return;
+			++_nmod;
+			_minused = Math.min(_minused, _step);
+			int n = va.length;
+			for(int i=0; i < n; ++i)
+			{
+				va[i] = va0[i] + _step * (va[i] - va0[i]);
+				vm[i] = vm0[i] + _step * (vm[i] - vm0[i]);
+			}
+		}
+
+		/** @return smallest step applied */
+		public float getMinStep() {return _minused;}
+	}
+
+	/**
+	 * Anderson acceleration (type II). The new state combines the most
+	 * recent states and corrections to minimize the linearized correction.
+	 * History is dropped when bus types change or the mismatch grows.
+	 */
+	static class Anderson extends CorrectionAccelerator
+	{
+		/** regularization relative to the largest diagonal of the normal equations */
+		static final double Reg = 1e-10;
+		int _depth;
+		/** previous states and corrections, most recent last */
+		ArrayDeque<double[]> _x = new ArrayDeque<>(), _f = new ArrayDeque<>();
+		float _lastmm = Float.MAX_VALUE;
+
+		Anderson(int depth)
+		{
+			_depth = depth;
+		}
+
+		@Override
+		public Strategy getStrategy() {return Strategy.Anderson;}
+
+		@Override
+		public void apply(float mm, float[] va0, float[] vm0, float[] va,
+				float[] vm, boolean restart)
+		{
+			int nbus = va.length, n = 2 * nbus;
+			if (restart || mm > _lastmm)
+			{
+				if (!_x.isEmpty()) ++_nrestart;
+				_x.clear();
+				_f.clear();
+			}
+			_lastmm = mm;
+
+			double[] x = new double[n], f = new double[n];
+			for(int i=0; i < nbus; ++i)
+			{
+				x[i] = va0[i];
+				x[i+nbus] = vm0[i];
+				f[i] = va[i] - va0[i];
+				f[i+nbus] = vm[i] - vm0[i];
+			}
+
+			int m = _x.size();
+			if (m > 0)
+			{
+				/* differences between consecutive states and corrections */
+				double[][] dx = new double[m][], df = new double[m][];
+				Iterator<double[]> ix = _x.iterator(), iff = _f.iterator();
+				double[] px = ix.next(), pf = iff.next();
+				for(int k=0; k < m; ++k)
+				{
+					double[] cx = ix.hasNext() ? ix.next() : x;
+					double[] cf = iff.hasNext() ? iff.next() : f;
+					dx[k] = sub(cx, px);
+					df[k] = sub(cf, pf);
+					px = cx;
+					pf = cf;
+				}
+				double[] g = leastSquares(df, f);
+				if (g != null)
+				{
+					++_nmod;
+					/* the history keeps the unmodified correction */
+					double[] step = f.clone();
+					for(int k=0; k < m; ++k)
+					{
+						double gk = g[k];
+						double[] dxk = dx[k], dfk = df[k];
+						for(int i=0; i < n; ++i)
+							step[i] -= gk * (dxk[i] + dfk[i]);
+					}
+					for(int i=0; i < nbus; ++i)
+					{
+						va[i] = (float) (va0[i] + step[i]);
+						vm[i] = (float) (vm0[i] + step[i+nbus]);
+					}
+				}
+			}
+
+			_x.addLast(x);
+			_f.addLast(f);
+			if (_x.size() > _depth)
+			{
+				_x.removeFirst();
+				_f.removeFirst();
+			}
+		}
+
+		static double[] sub(double[] a, double[] b)
+		{
+			int n = a.length;
+			double[] rv = new double[n];
+			for(int i=0; i < n; ++i) rv[i] = a[i] - b[i];
+			return rv;
+		}
+
+		static double dot(double[] a, double[] b)
+		{
+			double rv = 0;
+			for(int i=0; i < a.length; ++i) rv += a[i] * b[i];
+			return rv;
+		}
+
+		/**
+		 * Solve min |f - df g| using regularized normal equations
+		 * @return coefficients, or null if the system is singular
+		 */
+		static double[] leastSquares(double[][] df, double[] f)
+		{
+			int m = df.length;
+			double[][] a = new double[m][m + 1];
+			double dmax = 0;
+			for(int i=0; i < m; ++i)
+			{
+				for(int j=i; j < m; ++j)
+					a[i][j] = a[j][i] = dot(df[i], df[j]);
+				a[i][m] = dot(df[i], f);
+				dmax = Math.max(dmax, a[i][i]);
+			}
+			if (dmax == 0) return null;
+			for(int i=0; i < m; ++i) a[i][i] += Reg * dmax;
+			/* Gaussian elimination with partial pivoting */
+			for(int c=0; c < m; ++c)
+			{
+				int piv = c;
+				for(int r=c+1; r < m; ++r)
+					if (Math.abs(a[r][c]) > Math.abs(a[piv][c])) piv = r;
+				double[] t = a[c]; a[c] = a[piv]; a[piv] = t;
+				if (a[c][c] == 0) return null;
+				for(int r=c+1; r < m; ++r)
+				{
+					double s = a[r][c] / a[c][c];
+					for(int k=c; k <= m; ++k) a[r][k] -= s * a[c][k];
+				}
+			}
+			double[] g = new double[m];
+			for(int r=m-1; r >= 0; --r)
+			{
+				double s = a[r][m];
+				for(int k=r+1; k < m; ++k) s -= a[r][k] * g[k];
+				g[r] = s / a[r][r];
+			}
+			return g;
+		}
+	}
+}
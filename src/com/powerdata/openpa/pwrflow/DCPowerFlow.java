@@ -21,6 +21,7 @@ import com.powerdata.openpa.SubLists;
 import com.powerdata.openpa.pwrflow.ACBranchExtList.ACBranchExt;
 import com.powerdata.openpa.tools.PAMath;
 import com.powerdata.openpa.tools.matrix.FactorizedFltMatrix;
+import com.powerdata.openpa.tools.matrix.PCGFltMatrix;
 
 public class DCPowerFlow
 {
@@ -31,6 +32,8 @@ public class DCPowerFlow
 	float _sbase = 100f;
 	float[] _ang;
 	Collection<ACBranchExtList<ACBranchExt>> _insvc;
+	/** solve B' by preconditioned conjugate gradients instead of factorizing */
+	boolean _iter = false;
 	
 	public DCPowerFlow(PAModel m, BusRefIndex bri, BusTypeUtil btu)
 	{
@@ -48,17 +51,37 @@ public class DCPowerFlow
 		BPrime.MatrixElementBuilder bldr = new BPrime.MatrixElementBuilder(_buses.size(),
 			_insvc.stream().mapToInt(i -> i.size()).sum());
 		ACBranchAdjacencies adj = new ACBranchAdjacencies(_insvc, _buses, bldr);
+		BPrime bp = new BPrime(adj, bldr);
+		int[] ref = _btu.getBuses(BusType.Reference);
+		if (_iter)
+		{
+			/*
+			 * Solve the angles iteratively, starting from the last run
+			 */
+			PCGFltMatrix pcg = new PCGFltMatrix(bp, ref);
+			if (_ang != null) pcg.setInitialSolution(_ang);
+			_ang = pcg.solve(setupMismatches());
+			return this;
+		}
 		/*
 		 * Generate and factorize the B' matrix
 		 */
-		FactorizedFltMatrix flm = new BPrime(adj, bldr).factorize(
-			_btu.getBuses(BusType.Reference));
+		FactorizedFltMatrix flm = bp.factorize(ref);
 		/*
 		 * Set up P mismatches for load & gen, and solve the angles
 		 */
 		_ang = flm.solve(setupMismatches());
 		return this;
 	}
+
+	/**
+	 * Solve B' by conjugate gradients, preconditioned with an incomplete
+	 * factorization, instead of factorizing it. Later runs start from the
+	 * angles of the previous run. Defaults to false.
+	 * @param iter true to solve iteratively
+	 */
+	public void setIterative(boolean iter) {_iter = iter;}
+	public boolean getIterative() {return _iter;}
 	
 	public void updateResults() throws PAModelException
 	{
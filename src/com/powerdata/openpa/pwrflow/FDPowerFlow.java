@@ -1,11 +1,16 @@
 package com.powerdata.openpa.pwrflow;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import gnu.trove.list.array.TIntArrayList;
 import com.powerdata.openpa.Bus;
 import com.powerdata.openpa.BusList;
 import com.powerdata.openpa.BusRefIndex;
@@ -22,10 +27,17 @@ import com.powerdata.openpa.PflowModelBuilder;
 import com.powerdata.openpa.SVC;
 import com.powerdata.openpa.SVCList;
 import com.powerdata.openpa.SubLists;
+import com.powerdata.openpa.impl.GroupMap;
 import com.powerdata.openpa.pwrflow.BusMonitor.Action;
 import com.powerdata.openpa.pwrflow.ConvergenceList.ConvergenceInfo;
+import com.powerdata.openpa.pwrflow.SlackDistributor.ParticipationFactors;
 import com.powerdata.openpa.tools.PAMath;
+import com.powerdata.openpa.tools.matrix.EliminationOrdering;
+import com.powerdata.openpa.tools.matrix.FactorizationFile;
+import com.powerdata.openpa.tools.matrix.FactorizedDblMatrix;
 import com.powerdata.openpa.tools.matrix.FactorizedFltMatrix;
+import com.powerdata.openpa.tools.matrix.MinDegreeOrdering;
+import com.powerdata.openpa.tools.matrix.PCGFltMatrix;
 import com.powerdata.openpa.tools.matrix.SpSymMtrxFactPattern;
 import com.powerdata.openpa.tools.psmfmt.PsmFmtExport;
 
@@ -40,6 +52,21 @@ import com.powerdata.openpa.tools.psmfmt.PsmFmtExport;
 
 public class FDPowerFlow
 {
+	/**
+	 * Numerical precision used to solve B' and B''
+	 * @author chris@powerdata.com
+	 *
+	 */
+	public enum SolvePrecision
+	{
+		/** single-precision factors and solution */
+		Single,
+		/** double-precision factors and solution */
+		Double,
+		/** single-precision factors, refined with double-precision residuals */
+		Mixed
+	}
+
 	/** Bus types used to compare active power mismatches */
 	static Collection<BusType> BT_ACTIVE = EnumSet.complementOf(EnumSet.of(BusType.Reference));
 	/** Bus types used to compare reactive power mismatches */
@@ -54,12 +81,54 @@ public class FDPowerFlow
 	BusTypeUtil _btu = null;
 	/** matrix elimination pattern for B'' bus type changes */
 	SpSymMtrxFactPattern _pat;
+	/** B' matrix */
+	BPrime _bprime_mtrx;
 	/** Factorized B' matrix */
 	FactorizedFltMatrix _bPrime;
+	/** B' solved by preconditioned conjugate gradients, created as needed */
+	PCGFltMatrix _bPrimeIter;
+	/** iterative B' for sensitivities, started from zero to keep the correction warm start */
+	PCGFltMatrix _bPrimeSens;
+	/** solve B' iteratively rather than factorizing it */
+	boolean _iterbp = false;
+	/** Double-precision factorized B' and B'', created as needed */
+	FactorizedDblMatrix _bPrimeDbl, _bDblPrimeDbl;
+	/** precision of B' and B'' solutions */
+	SolvePrecision _prec = SolvePrecision.Single;
+	/** maximum refinement steps for mixed-precision solutions */
+	int _maxref = 3;
+	/** convergence acceleration */
+	CorrectionAccelerator.Strategy _accel = CorrectionAccelerator.Strategy.None;
+	/** previous iterations used by Anderson acceleration */
+	int _accdepth = 5;
 	/** B'' matrix */
 	BDblPrime _bdblprime_mtrx;
+	/** B'' diagonal before changes for PV buses */
+	float[] _bppdiag;
 	/** factorized B' matrix */
 	volatile FactorizedFltMatrix _bDblPrime = null;
+	/** factorized B'' from an earlier run with the same pattern, refilled when B'' is next factorized */
+	FactorizedFltMatrix _bppfree = null;
+	/** B'' the current factors were built from, when replaced by rebuildValues() */
+	BDblPrime _bppprev = null;
+	/** file holding the elimination pattern and factorized B', null to always build them */
+	File _factfile = null;
+	/** elimination ordering used to build the factorization pattern */
+	EliminationOrdering _ordering = new MinDegreeOrdering();
+	/** substitute independent elimination subtrees concurrently */
+	boolean _parsubst = false;
+	/** calculate branch and shunt injections from the Y-bus */
+	boolean _ybusinj = false;
+	/** buses with B'' diagonal changes not yet applied to the factorized B'' */
+	TIntArrayList _bppchg = new TIntArrayList();
+	/** count of B'' changes queued, not reset when B'' is refactorized */
+	int _bppnchg = 0;
+	/** solve each island concurrently */
+	boolean _parislands = false;
+	/** hot island offset for each bus (-1 if not hot), only used to solve islands concurrently */
+	int[] _busisland;
+	/** B'' diagonal changes by hot island, only used to solve islands concurrently */
+	TIntArrayList[] _islbppchg;
 	/** Maximum number of iterations */
 	int _maxit = 40;
 	/** Convergence Tolerance */
@@ -88,116 +157,39 @@ public class FDPowerFlow
 	/** resulting voltage angles (rad) */
 	float[] _va;
 	/** AC power calculator to calculate flows and update mismatches */
-	private ACPowerCalc _accalc;
+	ACPowerCalc _accalc;
 	/** active generators (keep around so we can change AVR characteristics on bus type changes)*/
 	ActiveGenData _actvgen;
 	/** Keep the reactive mismatches around in order to update generators and SVC's */
 	Mismatch _qmm;
+	/** per-iteration telemetry, null if no listeners */
+	IterationTelemetry _telem = null;
+	/** converged solutions used to warm-start, null if not used */
+	SolutionCache _solcache = null;
+	/** B'' diagonal added at PV buses to hold their voltage */
+	static final float PvBppDiag = 1e+06f;
+	/** adjust PV setpoints to regulate remote buses */
+	boolean _rmtreg = true;
+	/** zeros used to solve B'' for remote regulation sensitivities */
+	float[] _rmtwork = new float[0];
+	/** transformer tap and phase shifter controls */
+	TapControl _taps;
+	/** adjust taps and phase shifters with regulation enabled */
+	boolean _tapctl = false;
+	/** shunt switching and SVC susceptances */
+	ShuntControl _shctl;
+	/** switch shunt capacitors and reactors to hold bus voltages */
+	boolean _shswitch = false;
+	/** shunts that can be switched, null for all in-service shunts */
+	Predicate<FixedShunt> _shsel = null;
+	/** return buses converted to PQ to PV when their voltage allows */
+	boolean _pvret = true;
+	/** voltage band (p.u.) beyond the setpoint before a bus returns to PV */
+	float _pvrethyst = 0.005f;
+	/** slack participation factors */
+	ParticipationFactors _slkpf = ParticipationFactors.OpMaxP;
 	/** track single-buses in order of hot island */
 	
-	/**
-	 * Track slack participation for each (hot) island.
-	 * @author chris@powerdata.com
-	 *
-	 */
-	class DistInfo
-	{
-		GenList _gens;
-		float _max;
-		DistInfo(GenList gens) throws PAModelException
-		{
-			_gens = gens;
-			_max = 0f;
-			for(Gen g : gens) _max += g.getOpMaxP();
-		}
-		GenList getGens() {return _gens;}
-		/**
-		 * Distribute slack
-		 * @param mm mismatch in MW
-		 * @throws PAModelException
-		 */
-		
-		
-		
-		abstract class Distributor
-		{
-			@Override
-			public String toString()
-			{
-				return String.format("mm=%f, rem=%f, dmax=%f, _max=%f, _reduced=%f\n",
-					_mm, _rem, _dmax, _max, _reduced);
-			}
-			float _rem, _dmax = _max, _reduced = 0f;
-			boolean[] _avail = new boolean[_gens.size()];
-			float _mm;
-			Distributor(float mm)
-			{
-				_rem = -mm;
-				_mm = -mm;
-				Arrays.fill(_avail, true);
-			}
-			
-			void distribute() throws PAModelException
-			{
-				int n = _gens.size();
-				while(testRemaining())
-				{
-					_dmax -= _reduced;
-					for(int i=0; i < n; ++i)
-					{
-						Gen g = _gens.get(i);
-						if (_avail[i])
-						{
-							float pmax = g.getOpMaxP();
-							float pemer = pmax * _pdisttol;
-							float prof = g.getOpMaxP() / _dmax;
-							float pdes = prof * _mm, ps = g.getPS();
-							float pavail = calcAvail(pdes, pemer, ps);
-							if(testAvail(pdes, pavail))
-							{
-								_avail[i] = false;
-								pdes = pavail;
-								_reduced += pmax;
-							}
-							g.setPS(ps+pdes);
-							_rem -= pdes;
-						}
-					}
-				}
-			}
-			abstract boolean testRemaining();
-			abstract boolean testAvail(float pdes, float pavail);
-			abstract float calcAvail(float pdes, float pemer, float ps);
-		}
-		
-		class PosMMDistributor extends Distributor
-		{
-			PosMMDistributor(float mm) {super(mm);}
-			@Override
-			boolean testRemaining() {return (_rem > _cnvtol);}
-			@Override
-			boolean testAvail(float pdes, float pavail) {return (pavail > pdes);}
-			@Override
-			float calcAvail(float pdes, float pemer, float ps) {return Math.min(pdes,  pemer - ps);}
-		}
-		
-		class NegMMDistributor extends Distributor
-		{
-			NegMMDistributor(float mm) {super(mm);}
-			@Override
-			boolean testRemaining() {return (_rem < -_cnvtol);}
-			@Override
-			boolean testAvail(float pdes, float pavail) {return (pdes > pavail);}
-			@Override
-			float calcAvail(float pdes, float pemer, float ps) {return Math.max(pdes,  -ps);}
-		}
-		
-		void distribute(float mm) throws PAModelException 
-		{
-			((mm > 0f) ?new NegMMDistributor(mm) : new PosMMDistributor(mm)).distribute(); 
-		}
-	}
-
 	/**
 	 * Monitor slack buses and take action to distribute
 	 * @author chris@powerdata.com
@@ -205,10 +197,14 @@ public class FDPowerFlow
 	 */
 	class DistributedSlackMonitor extends BusMonitor
 	{
-		List<DistInfo> _dilist;
+		List<SlackDistributor> _dilist;
 		Monitor _slkmon = (mm, i) -> 
 		{
-			_dilist.get(i).distribute(PAMath.pu2mva(mm, _sbase));
+			/* model lists are not thread-safe when islands are solved concurrently */
+			synchronized(_model)
+			{
+				_dilist.get(i).distribute(PAMath.pu2mva(mm, _sbase), _pdisttol, _cnvtol);
+			}
 			return false;
 		};
 
@@ -216,12 +212,19 @@ public class FDPowerFlow
 		DistributedSlackMonitor() throws PAModelException
 		{
 			super(_buses, FDPowerFlow.this._btu, EnumSet.of(BusType.Reference), _hotislands);
-			_dilist = new ArrayList<>(_hotislands.size());
-			for(ElectricalIsland h : _hotislands)
-				_dilist.add(new DistInfo(findOnlineGens(h.getGenerators())));
+			setupDistributors();
 			Arrays.fill(_monitors, _slkmon);
 
 		}
+		/** build a slack distributor for each island using the current participation factors */
+		void setupDistributors() throws PAModelException
+		{
+			List<SlackDistributor> dilist = new ArrayList<>(_hotislands.size());
+			GenList gens = _model.getGenerators();
+			for(ElectricalIsland h : _hotislands)
+				dilist.add(new SlackDistributor(gens, findOnlineGens(h.getGenerators()), _slkpf));
+			_dilist = dilist;
+		}
 		/** restrict down to generators that are actually generating MW */
 		GenList findOnlineGens(GenList generators) throws PAModelException
 		{
@@ -254,41 +257,161 @@ public class FDPowerFlow
 		_buses = _bri.getBuses();
 		
 		setupHotIslands();
-		
-		Collection<FixedShuntListIfc<? extends FixedShunt>> fsh = ACPowerCalc.setupFixedShunts(model);
-		_accalc = new ACPowerCalc(model, bri, fsh, ACPowerCalc.setupActiveLoads(bri, model, _sbase), _actvgen);
+		setupNetwork(true);
+		setupMonitors();
+	}
+	
+	/**
+	 * Build the AC calculations and the B' and B'' matrices
+	 * 
+	 * @param newpattern
+	 *            true to select bus types and create a new elimination
+	 *            pattern, false to keep the existing ones (valid only if the
+	 *            topology is unchanged)
+	 * @throws PAModelException
+	 */
+	void setupNetwork(boolean newpattern) throws PAModelException
+	{
+		Collection<FixedShuntListIfc<? extends FixedShunt>> fsh = ACPowerCalc.setupFixedShunts(_model);
+		_accalc = new ACPowerCalc(_model, _bri, fsh,
+			ACPowerCalc.setupActiveLoads(_bri, _model, _sbase), _actvgen);
 		
 		int nbranch = _accalc.getBranchFlows().stream().mapToInt(i -> i.size()).sum(); 
 		BPrime.MatrixElementBuilder bldrBp = new BPrime.MatrixElementBuilder(_buses.size(), nbranch);
 		BDblPrime.MatrixElementBuilder bldrBpp = new BDblPrime.MatrixElementBuilder(_buses.size(), nbranch);
-		bldrBpp.addFixedShunts(fsh, bri, _sbase);
+		bldrBpp.addFixedShunts(fsh, _bri, _sbase);
 
 		/* build adjacency matrix */
 		_adj = new ACBranchAdjacencies(_accalc.getBranchFlows(), _buses, bldrBp, bldrBpp);
+		if (_ybusinj) _accalc.setYBus(_adj);
 
-		/* organize the model into bus types and select reference buses for each island */
-		_btu = new BusTypeUtil(model, _bri, _accalc.getPvSvcList());		
-		/* build factorization pattern */
-		_pat = new SpSymMtrxFactPattern();
-		_pat.eliminate(_adj, _btu.getBuses(BusType.Reference));
+		BPrime oldbp = _bprime_mtrx;
+		_bprime_mtrx = new BPrime(_adj, bldrBp);
+		FactorizedFltMatrix bp = null;
+		if (newpattern)
+		{
+			/* organize the model into bus types and select reference buses for each island */
+			_btu = new BusTypeUtil(_model, _bri, _accalc.getPvSvcList());
+			_btu.saveTypes();
+			int[] ref = _btu.getBuses(BusType.Reference);
+			long fprint = (_factfile == null) ? 0L : FactorizationFile.fingerprint(
+				_adj, ref, _ordering, bldrBp.getBDiag(), bldrBp.getBOffDiag());
+			bp = readFactorization(fprint);
+			if (bp == null)
+			{
+				/* build factorization pattern */
+				_pat = new SpSymMtrxFactPattern();
+				_pat.setOrdering(_ordering);
+				_pat.eliminate(_adj, ref);
+				if (_factfile != null)
+				{
+					bp = _bprime_mtrx.factorize(_pat);
+					writeFactorization(fprint, bp);
+				}
+			}
+		}
 		
 		/* Build B' (store it already factorized) */
-		_bPrime = new BPrime(_adj, bldrBp).factorize(_pat);
+		if (newpattern)
+		{
+			/* an iterative B' is only factorized if later needed */
+			_bPrime = (bp == null && _iterbp) ? null
+				: setupSolve((bp != null) ? bp : _bprime_mtrx.factorize(_pat));
+			_bppfree = null;
+		}
+		else if (_bPrime != null)
+		{
+			/* same pattern, so update the existing factors where values changed */
+			_bprime_mtrx.refactorize(_pat, _bPrime, _bprime_mtrx.findChanges(
+				oldbp.getBDiag(), oldbp.getBOffDiag()));
+		}
+		_bPrimeDbl = null;
+		_bPrimeIter = null;
+		_bPrimeSens = null;
 		
 		/* Build B'' (keep the actual matrix object to allow for changes of element values) */
+		if (!newpattern && _bDblPrime != null) _bppprev = _bdblprime_mtrx;
 		_bdblprime_mtrx = new BDblPrime(_adj, bldrBpp);
-		
+		_bppdiag = _bdblprime_mtrx.getBDiag().clone();
+		/* shunt states and SVC susceptances in B'' carry across runs */
+		_shctl = new ShuntControl(_accalc, _buses, _model.getElectricalIslands().size());
+		if (_shsel != null) _shctl.setSwitchable(_shsel);
+	}
+
+	/**
+	 * Set up the PV bus monitoring and voltage setpoints, and return B'' to
+	 * its state before any bus type changes.
+	 * 
+	 * @throws PAModelException
+	 */
+	void setupMonitors() throws PAModelException
+	{
+		float[] bd = _bdblprime_mtrx.getBDiag();
+		/* values the current B'' factors were built from, so that only changes are refactorized */
+		float[] fbd = null, fbo = null;
+		if (_bppprev != null)
+		{
+			fbd = _bppprev.getBDiag();
+			fbo = _bppprev.getBOffDiag();
+		}
+		else if (_bDblPrime != null)
+		{
+			fbd = bd.clone();
+		}
+		_bppprev = null;
+		System.arraycopy(_bppdiag, 0, bd, 0, bd.length);
+		_bDblPrimeDbl = null;
+
 		/* Build a list of buses with type PV */
 		BusList pvbuses = SubLists.getBusSublist(_buses, 
 			_btu.getBuses(BusType.PV));
 		
-		_varmon = new GenVarMonitor(_hotislands, _btu, _buses, _bdblprime_mtrx, _cvtpvpq, null);
+		_varmon = new GenVarMonitor(_hotislands, _btu, _buses, _bdblprime_mtrx,
+			PvBppDiag, _cvtpvpq, _cvtpqpv);
+		_varmon.setReturn(_pvret);
+		_varmon.setReturnHysteresis(_pvrethyst);
 		_dsmon = new DistributedSlackMonitor();
 		for(Bus b : pvbuses)
-			_bdblprime_mtrx.incBdiag(b.getIndex(), 1e+06f);
-		
-		 _vsp = new VoltageSetPoint(pvbuses, _buses, _model.getElectricalIslands().size());
+			_bdblprime_mtrx.incBdiag(b.getIndex(), PvBppDiag);
+		/* changes not yet applied to the factors stay queued */
+		if (fbd != null)
+			_bppchg.addAll(_bdblprime_mtrx.findChanges(fbd, fbo));
+		else
+			_bppchg.clear();
 		
+		 _vsp = new VoltageSetPoint(pvbuses, _buses, _model.getElectricalIslands().size(),
+			 _btu, PvBppDiag);
+		 _taps = new TapControl(_accalc, _buses, _adj, _sbase, _cnvtol,
+			 _model.getElectricalIslands().size());
+	}
+
+	/**
+	 * Prepare to run again after changes to injections, limits or voltage
+	 * setpoints.  Bus types and generator AVR states changed during the last
+	 * run are restored.
+	 * 
+	 * @throws PAModelException
+	 */
+	public void resetRun() throws PAModelException
+	{
+		_btu.restoreTypes();
+		_actvgen.resetAVR();
+		setupMonitors();
+	}
+
+	/**
+	 * Prepare to run again after changes to branch, shunt or SVC parameters.
+	 * The bus types and elimination pattern are kept, so the topology and
+	 * set of in-service branches must not have changed.
+	 * 
+	 * @throws PAModelException
+	 */
+	public void rebuildValues() throws PAModelException
+	{
+		_btu.restoreTypes();
+		_actvgen.resetAVR();
+		setupNetwork(false);
+		setupMonitors();
 	}
 	
 	private void cleanupOldResults() throws PAModelException
@@ -304,18 +427,24 @@ public class FDPowerFlow
 	class ActiveGenData extends Active1TData
 	{
 		int[] revidx;
-		boolean[] inavr;
+		boolean[] inavr, _inavr0;
 		GenList _gens;
 		ActiveGenData(GenList actvgen, boolean[] inavr,
 				int[] revidx, float sbase) throws PAModelException
 		{
 			super(_bri, actvgen, () -> actvgen.getPS(), () -> actvgen.getQS(), sbase);
 			this.inavr = inavr;
+			_inavr0 = inavr.clone();
 			this.revidx = revidx;
 			_gens = actvgen;
 		}
 		
 		GenList getGens() {return _gens;}
+		/** Restore AVR states changed by stopAVR */
+		void resetAVR()
+		{
+			System.arraycopy(_inavr0, 0, inavr, 0, inavr.length);
+		}
 		/**
 		 * Toggle the AVR state of the given generator
 		 * 
@@ -328,6 +457,19 @@ public class FDPowerFlow
 			inavr[revidx[g.getIndex()]] = false;
 			return true;
 		}
+
+		/**
+		 * Restore AVR for a generator stopped by stopAVR
+		 * 
+		 * @return true if the generator was originally in AVR
+		 */
+		boolean startAVR(Gen g)
+		{
+			int rx = revidx[g.getIndex()];
+			if (rx == -1 || !_inavr0[rx]) return false;
+			inavr[rx] = true;
+			return true;
+		}
 		
 		@Override
 		public void applyMismatch(Mismatch pmm, Mismatch qmm) throws PAModelException
@@ -335,14 +477,28 @@ public class FDPowerFlow
 			float[] p = pmm.get(), q = qmm.get();
 			int[] bx = _actvgen.getBus();
 			int ngen = bx.length;
-			float[] pg = PAMath.mva2pu(getP(), _sbase);
-			float[] qg = PAMath.mva2pu(getQ(), _sbase);
+			float[] pg = getP(), qg = getQ();
 			for(int i=0; i < ngen; ++i)
 			{
 				int b = bx[i];
-				p[b] += pg[i];
+				p[b] += PAMath.mva2pu(pg[i], _sbase);
+				if(!inavr[i]) 
+					q[b] += PAMath.mva2pu(qg[i], _sbase);
+			}
+		}
+
+		@Override
+		public void applyMismatch(Mismatch pmm, Mismatch qmm, int[] subset) throws PAModelException
+		{
+			float[] p = pmm.get(), q = qmm.get();
+			int[] bx = _actvgen.getBus();
+			float[] pg = getP(), qg = getQ();
+			for(int i : subset)
+			{
+				int b = bx[i];
+				p[b] += PAMath.mva2pu(pg[i], _sbase);
 				if(!inavr[i]) 
-					q[b] += qg[i];
+					q[b] += PAMath.mva2pu(qg[i], _sbase);
 			}
 		}
 	}
@@ -400,11 +556,106 @@ public class FDPowerFlow
 	{
 		if (_bDblPrime == null)
 		{
-			_bDblPrime = _bdblprime_mtrx.factorize(_pat);
+			_bDblPrime = (_bppfree != null) ? _bdblprime_mtrx.factorize(_pat, _bppfree)
+				: setupSolve(_bdblprime_mtrx.factorize(_pat));
+			_bppfree = null;
+			_bppchg.clear();
+		}
+		else if (!_bppchg.isEmpty())
+		{
+			/* only update factors on the elimination paths of the changed buses */
+			_bdblprime_mtrx.refactorize(_pat, _bDblPrime, _bppchg.toArray());
+			_bppchg.clear();
 		}
 		return _bDblPrime;
 	}
 	
+	/**
+	 * Load the pattern and factorized B' from the factorization file if it
+	 * was written for the same network
+	 * 
+	 * @param fprint
+	 *            network fingerprint
+	 * @return factorized B', or null if they need to be built
+	 */
+	FactorizedFltMatrix readFactorization(long fprint)
+	{
+		if (_factfile == null || !_factfile.exists()) return null;
+		try
+		{
+			FactorizationFile ff = new FactorizationFile(_factfile);
+			if (!ff.matches(fprint)) return null;
+			FactorizedFltMatrix bp = ff.getFactors(fprint);
+			_pat = ff.getPattern(fprint);
+			return bp;
+		}
+		catch (IOException e)
+		{
+			/* unreadable files are rebuilt */
+			return null;
+		}
+	}
+
+	void writeFactorization(long fprint, FactorizedFltMatrix bp)
+		throws PAModelException
+	{
+		try
+		{
+			FactorizationFile.write(_factfile, fprint, _pat, bp);
+		}
+		catch (IOException e)
+		{
+			throw new PAModelException("Unable to write factorization file "
+				+ _factfile, e);
+		}
+	}
+
+	/** configure the substitution mode of a new factorization */
+	FactorizedFltMatrix setupSolve(FactorizedFltMatrix f)
+	{
+		if (_parsubst) f.setParallel(ForkJoinPool.commonPool());
+		return f;
+	}
+
+	/** @return factorized B', factorized now if it was solved iteratively */
+	FactorizedFltMatrix getBPrime()
+	{
+		if (_bPrime == null) _bPrime = setupSolve(_bprime_mtrx.factorize(_pat));
+		return _bPrime;
+	}
+
+	/** @return iterative B' solver, warm-started from its previous correction */
+	PCGFltMatrix getBPrimeIter()
+	{
+		if (_bPrimeIter == null) _bPrimeIter = new PCGFltMatrix(_bprime_mtrx,
+			_btu.getBuses(BusType.Reference));
+		return _bPrimeIter;
+	}
+
+	/** @return iterative B' solver for sensitivities, always started from zero */
+	PCGFltMatrix getBPrimeSens()
+	{
+		if (_bPrimeSens == null)
+		{
+			_bPrimeSens = new PCGFltMatrix(getBPrimeIter());
+			_bPrimeSens.setWarmStart(false);
+		}
+		return _bPrimeSens;
+	}
+
+	FactorizedDblMatrix getBDblPrimeDbl()
+	{
+		if (_bDblPrimeDbl == null || !_bppchg.isEmpty())
+		{
+			_bDblPrimeDbl = _bdblprime_mtrx.factorizeDbl(_pat);
+			/* the single-precision factors are rebuilt if used again */
+			if (_bDblPrime != null) _bppfree = _bDblPrime;
+			_bDblPrime = null;
+			_bppchg.clear();
+		}
+		return _bDblPrimeDbl;
+	}
+	
 	@FunctionalInterface
 	private interface GetFloat<T>
 	{
@@ -413,18 +664,47 @@ public class FDPowerFlow
 
 	Action _cvtpvpq = (b,q) ->
 	{
-		_bDblPrime = null;
-		_btu.changeType(BusType.PQ, b.getIndex(), b.getIsland().getIndex());
-		GetFloat<Gen> fv = (q > 0f) ? j -> j.getMaxQ() : j -> j.getMinQ();
-		for(Gen g : b.getGenerators())
+		int bx = b.getIndex();
+		if (_islbppchg != null)
+			_islbppchg[_busisland[bx]].add(bx);
+		else
 		{
-			if(_actvgen.stopAVR(g))
+			_bppchg.add(bx);
+			++_bppnchg;
+		}
+		/* model lists are not thread-safe when islands are solved concurrently */
+		synchronized(_model)
+		{
+			_btu.changeType(BusType.PQ, bx, b.getIsland().getIndex());
+			GetFloat<Gen> fv = (q > 0f) ? j -> j.getMaxQ() : j -> j.getMinQ();
+			for(Gen g : b.getGenerators())
 			{
-				g.setQS(fv.get(g));
+				if(_actvgen.stopAVR(g))
+				{
+					g.setQS(fv.get(g));
+				}
 			}
 		}
 	};
 	
+	Action _cvtpqpv = (b,q) ->
+	{
+		int bx = b.getIndex();
+		if (_islbppchg != null)
+			_islbppchg[_busisland[bx]].add(bx);
+		else
+		{
+			_bppchg.add(bx);
+			++_bppnchg;
+		}
+		synchronized(_model)
+		{
+			_btu.changeType(BusType.PV, bx, b.getIsland().getIndex());
+			for(Gen g : b.getGenerators())
+				_actvgen.startAVR(g);
+		}
+	};
+	
 	/** Bus types to compare for convergence. */
 
 	static Collection<BusType> _ActvMismatchTypes = EnumSet.of(BusType.PQ, BusType.PV);
@@ -447,15 +727,87 @@ public class FDPowerFlow
 		_qmm = new Mismatch(_bri, _btu, _ReacMismatchTypes);
 		/** Convergence information for each island */
 		ConvergenceList rv = new ConvergenceList(_hotislands, _btu, pmm, _qmm, _cnvtol, _cnvtol, _vm);
+		if (_rmtreg)
+			rv.setRemoteVoltageTest(i -> _vsp.remotesSatisfied(_vm, i));
+		if (useTapControl())
+		{
+			_taps.reset();
+			rv.setTapControlTest(i -> _taps.satisfied(_vm, i));
+		}
+		_shctl.reset();
+		_accalc.refreshLoads();
+		if (useShuntSwitching())
+			rv.setShuntControlTest(i -> _shctl.satisfied(_vm, i));
+		/** start from a previous solution if available */
+		SolutionCache.Topology topo = null;
+		if (_solcache != null)
+		{
+			topo = new SolutionCache.Topology(_model, _bri);
+			_solcache.seed(topo, _vm, _va);
+		}
 		/** apply voltage setpoints to vm */
 		_vsp.applyToVMag(_vm);
+		_varmon.setVoltages(_vm);
 		
 		for(MismatchReporter r : _mmreport)
 			r.reportBegin(_buses);
 		
+		long ts = System.nanoTime();
+		int niter;
+		if (useIslandSolve())
+		{
+			niter = runIslands(pmm, rv);
+		}
+		else
+		{
+			niter = runSystem(pmm, rv);
+		}
+		if (_telem != null)
+			_telem.postEnd(niter, System.nanoTime() - ts);
+		
+		/* reporters of the last iteration read flows and injections from the model */
+		for(MismatchReporter r : _mmreport)
+		{
+			if (r.reportLast())
+			{
+				updateResults();
+				break;
+			}
+		}
+		for(MismatchReporter r : _mmreport)
+		{
+			if (r.reportLast())
+			{
+				r.reportMismatch(PAMath.pu2mva(pmm.get(),  _sbase), 
+					PAMath.pu2mva(_qmm.get(), _sbase), _vm, PAMath.rad2deg(_va), _btu.getTypes());
+			}
+			r.reportEnd();
+		}
+		
+		if (_solcache != null)
+			_solcache.store(topo, _vm, _va, _buses, rv);
+		
+		return rv;
+	}
+
+	/**
+	 * Iterate all islands together
+	 * @param pmm Active power mismatches
+	 * @param rv Convergence results
+	 * @return number of iterations
+	 * @throws PAModelException
+	 */
+	int runSystem(Mismatch pmm, ConvergenceList rv) throws PAModelException
+	{
 		boolean incomplete = true;//, dump = true;
-		for(int it=0; incomplete && it < _maxit; ++it)
+		int[] allisl = (_telem == null) ? null : IntStream.range(0, rv.size()).toArray();
+		CorrectionAccelerator acc = CorrectionAccelerator.create(_accel, _accdepth);
+		rv.setAccelerator(acc);
+		int it = 0;
+		for(; incomplete && it < _maxit; ++it)
 		{
+			long ts = System.nanoTime(), tsolve = 0L;
+			int nchg = _bppchg.size(), bppnchg = _bppnchg;
 			/* apply mismatches to both P and Q */
 			applyMismatches(pmm, _qmm, _vm, _va);
 			
@@ -464,54 +816,493 @@ public class FDPowerFlow
 			/* distribute slack */
 			_dsmon.monitor(pmm.get(), rv);
 			
+			int[][] typechg = NOCHG;
 			/* solve a new set of voltages and angles */
 			if (incomplete)
 			{
 				/* check for limit violations */
 				_varmon.monitor(_qmm.get(), rv);
+				if (_telem != null)
+				{
+					typechg = typeChanges(_bppchg, nchg);
+					tsolve = System.nanoTime();
+				}
 				/* check remote-monitored buses and adjust any setpoints as needed */
-//				_vsp.applyRemotes(_vm, rv);
-				/* correct magnitudes */
-//				_bdblprime_mtrx.adjustSVC();
-//				_bDblPrime = null;
-				applyCorrections(_vm, _vm, getBDblPrime(), _qmm);
-//				if (dump)
-//				{
-////					dump = false;
-//					try
-//					{
-//						PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(String.format("/tmp/bpp-%d.csv", it))));
-//						getBDblPrime().dump(_buses.getName(), pw);
-//						pw.close();
-//					}
-//					catch(IOException ioex) {ioex.printStackTrace();}
-//				}
-				/* correct angles */
-				applyCorrections(_va, _vm, _bPrime, pmm);
+				if (_rmtreg && _vsp.hasRemotes())
+					_vsp.applyRemotes(_vm, rv, lazyBDblPrimeSolver(), _btu, remoteWork());
+				/* move taps and phase shifters, B'' is refactorized once for all tap moves */
+				if (useTapControl())
+					_taps.apply(_vm, _va, rv, getBPrimeSolver(), lazyBDblPrimeSolver(), _tapupd);
+				/* enter SVC susceptances and switch shunts, sharing the same B'' refactorization */
+				_shctl.applySVC(_bppupd);
+				if (useShuntSwitching())
+					_shctl.switchBlocks(_vm, rv, _bppupd);
+				/* correct magnitudes and angles */
+				if (acc == null)
+				{
+					correct(pmm, _qmm);
+				}
+				else
+				{
+					float[] va0 = _va.clone(), vm0 = _vm.clone();
+					boolean chg = _bppnchg != bppnchg;
+					correct(pmm, _qmm);
+					acc.apply(worstMismatch(rv), va0, vm0, _va, _vm, chg);
+				}
+				if (_telem != null) tsolve = System.nanoTime() - tsolve;
 			}
-			
+			if (_telem != null)
+				_telem.post(it, rv, allisl, typechg[0], typechg[1],
+					System.nanoTime() - ts, tsolve);
 		}
-		
+		return it;
+	}
+
+	static final int[] EMPTY = new int[0];
+
+	/** @return zeros for remote regulation solutions, sized to the buses */
+	float[] remoteWork()
+	{
+		if (_rmtwork.length != _vm.length) _rmtwork = new float[_vm.length];
+		return _rmtwork;
+	}
+	static final int[][] NOCHG = {EMPTY, EMPTY};
+
+	/**
+	 * Split the buses queued by the var monitor into those converted to PQ
+	 * and those returned to PV, using their current types
+	 * 
+	 * @param chg
+	 *            queue of B'' changes
+	 * @param from
+	 *            offset of the first change made by the var monitor
+	 * @return buses switched from PV to PQ, and buses returned from PQ to PV
+	 */
+	int[][] typeChanges(TIntArrayList chg, int from)
+	{
+		int n = chg.size();
+		if (from == n) return NOCHG;
+		int[] types = _btu.getTypesOrdinal();
+		int pv = BusType.PV.ordinal();
+		TIntArrayList pv2pq = new TIntArrayList(), pq2pv = new TIntArrayList();
+		for(int i=from; i < n; ++i)
+		{
+			int bus = chg.get(i);
+			if (types[bus] == pv)
+				pq2pv.add(bus);
+			else
+				pv2pq.add(bus);
+		}
+		return new int[][] {pv2pq.toArray(), pq2pv.toArray()};
+	}
+
+	/** largest absolute P or Q mismatch (p.u.) over incomplete islands */
+	static float worstMismatch(ConvergenceList rv)
+	{
+		float wmm = 0f;
+		int n = rv.size();
+		for(int i=0; i < n; ++i)
+		{
+			if (rv.completed(i)) continue;
+			ConvergenceInfo ci = rv.get(i);
+			wmm = Math.max(wmm, Math.max(Math.abs(ci.getWorstP().getValue()),
+				Math.abs(ci.getWorstQ().getValue())));
+		}
+		return wmm;
+	}
+
+	/**
+	 * Check if islands should be solved concurrently. Mismatch reporters
+	 * that report each iteration require the system to be iterated together.
+	 * 
+	 * @return true if each island should be solved on its own
+	 */
+	boolean useIslandSolve()
+	{
+		/*
+		 * island views are only available over the single-precision factors,
+		 * and acceleration works over the full system state
+		 */
+		if (!_parislands || _prec != SolvePrecision.Single || _iterbp
+				|| _accel != CorrectionAccelerator.Strategy.None || useTapControl()
+				|| useShuntSwitching()
+				|| _hotislands.size() < 2)
+			return false;
 		for(MismatchReporter r : _mmreport)
 		{
-			if (r.reportLast())
+			if (!r.reportLast()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Track the buses and calculations for a single island
+	 * @author chris@powerdata.com
+	 *
+	 */
+	class IslandSolver
+	{
+		/** offset of island within hot islands */
+		int _isl;
+		/** all buses in the island */
+		int[] _ibus;
+		/** elimination positions of island buses (same for B' and B'') */
+		int[] _pos;
+		/** mismatch and flow calculations */
+		ACPowerCalc.IslandCalc _calc;
+		/** B'' solutions for remote regulation, allocated on first use */
+		float[] _rmtx;
+		/** solve B'' over the island into _rmtx, leaving the right-hand side alone */
+		MatrixSolver _rmtsolver = mm ->
+		{
+			if (_rmtx == null) _rmtx = new float[mm.length];
+			for(int bus : _ibus)
+				_rmtx[bus] = mm[bus];
+			_bDblPrime.solve(_rmtx, _pos);
+			return _rmtx;
+		};
+
+		IslandSolver(int isl, int[] ibus, ACPowerCalc.IslandCalc calc)
+		{
+			_isl = isl;
+			_ibus = ibus;
+			_pos = getBPrime().getElimPositions(ibus);
+			_calc = calc;
+		}
+
+		/** iterate the island until complete, returning the iteration count */
+		int solve(Mismatch pmm, Mismatch qmm, ConvergenceList rv, float[] work)
+			throws PAModelException
+		{
+			int[] isl = {_isl};
+			TIntArrayList chg = _islbppchg[_isl];
+			for(int it=0; it < _maxit; ++it)
 			{
-				r.reportMismatch(PAMath.pu2mva(pmm.get(),  _sbase), 
-					PAMath.pu2mva(_qmm.get(), _sbase), _vm, PAMath.rad2deg(_va), _btu.getTypes());
+				long ts = System.nanoTime(), tsolve = 0L;
+				pmm.reset(_ibus);
+				qmm.reset(_ibus);
+				_calc.calcMismatches(_vm, _va, pmm, qmm);
+				boolean incomplete = !rv.test(_isl);
+				_dsmon.monitor(pmm.get(), rv, _isl);
+				int[][] typechg = NOCHG;
+				int nchg = chg.size();
+				if (incomplete)
+				{
+					_varmon.monitor(qmm.get(), rv, _isl);
+					if (_telem != null)
+					{
+						typechg = typeChanges(chg, nchg);
+						tsolve = System.nanoTime();
+					}
+					if (_rmtreg && _vsp.hasRemotes())
+					{
+						refactorIsland();
+						_vsp.applyRemotes(_vm, rv, _isl, _rmtsolver, _btu, _rmtwork);
+					}
+					/* enter SVC susceptances of the island */
+					_shctl.applySVC(_bppupd, _calc._svcx);
+					correct(pmm, qmm, work);
+					if (_telem != null) tsolve = System.nanoTime() - tsolve;
+				}
+				if (_telem != null)
+					_telem.post(it, rv, isl, typechg[0], typechg[1],
+						System.nanoTime() - ts, tsolve);
+				if (!incomplete) return it + 1;
 			}
-			r.reportEnd();
+			return _maxit;
+		}
+
+		/** apply bus type changes within the island to B'' */
+		void refactorIsland()
+		{
+			TIntArrayList chg = _islbppchg[_isl];
+			if (!chg.isEmpty())
+			{
+				_bdblprime_mtrx.refactorize(_bDblPrime, chg.toArray());
+				chg.clear();
+			}
+		}
+
+		/** correct magnitudes and then angles within the island */
+		void correct(Mismatch pmm, Mismatch qmm, float[] work)
+		{
+			refactorIsland();
+			applyCorrections(_vm, _vm, _bDblPrime, qmm.get(), work);
+			applyCorrections(_va, _vm, getBPrime(), pmm.get(), work);
+		}
+
+		void applyCorrections(float[] state, float[] vm, FactorizedFltMatrix b,
+				float[] mm, float[] work)
+		{
+			for(int bus : _ibus)
+				work[bus] = mm[bus] / vm[bus];
+			b.solve(work, _pos);
+			for(int p : _pos)
+			{
+				int bus = b.getElimBus(p);
+				state[bus] += work[bus];
+			}
+		}
+	}
+
+	/**
+	 * Iterate each island on its own, with islands solved concurrently
+	 * @param pmm Active power mismatches
+	 * @param rv Convergence results
+	 * @return largest number of iterations for any island
+	 * @throws PAModelException
+	 */
+	int runIslands(Mismatch pmm, ConvergenceList rv) throws PAModelException
+	{
+		int nhot = _hotislands.size(), nbus = _buses.size();
+		_busisland = new int[nbus];
+		Arrays.fill(_busisland, -1);
+		int[] hotx = new int[_model.getElectricalIslands().size()];
+		Arrays.fill(hotx, -1);
+		for(int i=0; i < nhot; ++i)
+			hotx[_hotislands.get(i).getIndex()] = i;
+		for(int i=0; i < nbus; ++i)
+			_busisland[i] = hotx[_buses.getIsland(i).getIndex()];
+
+		/*
+		 * Run a full calculation first, this loads any model columns needed
+		 * by the workers before they run concurrently
+		 */
+		applyMismatches(pmm, _qmm, _vm, _va);
+		getBDblPrime();
+		_islbppchg = new TIntArrayList[nhot];
+		for(int i=0; i < nhot; ++i)
+			_islbppchg[i] = new TIntArrayList();
+
+		List<int[]> ibus = new GroupMap(_busisland, nhot);
+		ACPowerCalc.IslandCalc[] calcs = _accalc.partition(_busisland, nhot);
+		IslandSolver[] solvers = new IslandSolver[nhot];
+		for(int i=0; i < nhot; ++i)
+			solvers[i] = new IslandSolver(i, ibus.get(i), calcs[i]);
+
+		/* islands share no buses, so the workers can share working arrays */
+		float[] work = new float[nbus];
+		if (_rmtreg) remoteWork();
+		PAModelException[] err = new PAModelException[nhot];
+		int[] niter = new int[nhot];
+		IntStream.range(0, nhot).parallel().forEach(i ->
+		{
+			try
+			{
+				niter[i] = solvers[i].solve(pmm, _qmm, rv, work);
+			}
+			catch (PAModelException e)
+			{
+				err[i] = e;
+			}
+		});
+		_islbppchg = null;
+		for(PAModelException e : err)
+		{
+			if (e != null) throw e;
+		}
+		return Arrays.stream(niter).max().orElse(0);
+	}
+
+	/**
+	 * Solve a new set of voltages and angles from the current mismatches
+	 * @param pmm Active power mismatches
+	 * @param qmm Reactive power mismatches
+	 * @throws PAModelException
+	 */
+	void correct(Mismatch pmm, Mismatch qmm) throws PAModelException
+	{
+		switch(_prec)
+		{
+			case Double:
+				/* correct magnitudes */
+				applyCorrections(_vm, _vm, getBDblPrimeDbl()::solve, qmm);
+				/* correct angles */
+				if (_iterbp)
+				{
+					applyCorrections(_va, _vm, getBPrimeIter()::solve, pmm);
+					break;
+				}
+				if (_bPrimeDbl == null) _bPrimeDbl = _bprime_mtrx.factorizeDbl(_pat);
+				applyCorrections(_va, _vm, _bPrimeDbl::solve, pmm);
+				break;
+			case Mixed:
+				FactorizedFltMatrix bpp = getBDblPrime();
+				applyCorrections(_vm, _vm, m -> _bdblprime_mtrx.solveRefined(bpp, m, _maxref), qmm);
+				if (_iterbp)
+				{
+					applyCorrections(_va, _vm, getBPrimeIter()::solve, pmm);
+					break;
+				}
+				FactorizedFltMatrix bp = getBPrime();
+				applyCorrections(_va, _vm, m -> _bprime_mtrx.solveRefined(bp, m, _maxref), pmm);
+				break;
+			default:
+				applyCorrections(_vm, _vm, getBDblPrime()::solve, qmm);
+				applyCorrections(_va, _vm, _iterbp ? getBPrimeIter()::solve
+					: getBPrime()::solve, pmm);
 		}
-		
-		return rv;
 	}
 
-	void applyCorrections(float[] state, float[] vm, FactorizedFltMatrix b, Mismatch mm)
+	/** true if there are taps or phase shifters to control */
+	boolean useTapControl()
+	{
+		return _tapctl && !_taps.isEmpty();
+	}
+
+	/** true if shunts are switched and there are shunts to switch */
+	boolean useShuntSwitching()
+	{
+		return _shswitch && _shctl.getBlockCount() > 0;
+	}
+
+	/**
+	 * Apply a lasting change to the B'' diagonal, and queue the bus for
+	 * refactorization
+	 */
+	ShuntControl.BppDiagUpdate _bppupd = (bus, db) ->
+	{
+		_bdblprime_mtrx.incBdiag(bus, db);
+		_bppdiag[bus] += db;
+		_varmon.incSavedBdiag(bus, db);
+		if (_islbppchg != null)
+		{
+			_islbppchg[_busisland[bus]].add(bus);
+		}
+		else
+		{
+			_bppchg.add(bus);
+			++_bppnchg;
+		}
+	};
+
+	/** Apply B'' changes from tap moves, and queue the buses for refactorization */
+	TapControl.BppUpdate _tapupd = (f, t, br, df, dt, doff) ->
+	{
+		_bdblprime_mtrx.incBoffdiag(br, doff);
+		_bppupd.update(f, df);
+		_bppupd.update(t, dt);
+	};
+
+	/**
+	 * Get a solver for the current B' at the configured precision
+	 * @return B' solver
+	 */
+	MatrixSolver getBPrimeSolver()
+	{
+		if (_iterbp) return getBPrimeSens()::solve;
+		if (_prec != SolvePrecision.Double) return sparseSolver(getBPrime());
+		if (_bPrimeDbl == null) _bPrimeDbl = _bprime_mtrx.factorizeDbl(_pat);
+		return _bPrimeDbl::solve;
+	}
+
+	/**
+	 * Get a solver for the current B'' at the configured precision
+	 * @return B'' solver
+	 */
+	MatrixSolver getBDblPrimeSolver()
+	{
+		return (_prec == SolvePrecision.Double) ? getBDblPrimeDbl()::solve
+			: sparseSolver(getBDblPrime());
+	}
+
+	/**
+	 * Get a B'' solver that builds the solver (refactorizing B'' for any
+	 * queued changes) only when first used
+	 * @return B'' solver
+	 */
+	MatrixSolver lazyBDblPrimeSolver()
+	{
+		return new MatrixSolver()
+		{
+			MatrixSolver _s;
+
+			MatrixSolver get()
+			{
+				if (_s == null) _s = getBDblPrimeSolver();
+				return _s;
+			}
+
+			@Override
+			public float[] solve(float[] mm) {return get().solve(mm);}
+
+			@Override
+			public float[] solve(int[] buses, float[] values, int[] outbuses,
+					float[] work)
+			{
+				return get().solve(buses, values, outbuses, work);
+			}
+		};
+	}
+
+	/** Solve a factorized matrix for corrections */
+	@FunctionalInterface
+	interface MatrixSolver
 	{
+		float[] solve(float[] mm);
+
+		/**
+		 * Solve for mismatches at only a few buses, and report corrections at
+		 * only a few buses.  By default this runs a full solution.
+		 * 
+		 * @param buses
+		 *            buses with non-zero mismatches
+		 * @param values
+		 *            mismatch values, parallel with buses
+		 * @param outbuses
+		 *            buses to report corrections for
+		 * @param work
+		 *            array of zeros with an entry for each bus, left as zeros
+		 * @return corrections, parallel with outbuses
+		 */
+		default float[] solve(int[] buses, float[] values, int[] outbuses,
+				float[] work)
+		{
+			int n = buses.length;
+			for(int i=0; i < n; ++i)
+				work[buses[i]] += values[i];
+			float[] x = solve(work);
+			for(int b : buses)
+				work[b] = 0f;
+			n = outbuses.length;
+			float[] rv = new float[n];
+			for(int i=0; i < n; ++i)
+				rv[i] = x[outbuses[i]];
+			return rv;
+		}
+	}
+
+	/**
+	 * Solve a single-precision factorization, following only the
+	 * factorization paths of the buses in sparse solutions
+	 */
+	static MatrixSolver sparseSolver(FactorizedFltMatrix f)
+	{
+		return new MatrixSolver()
+		{
+			@Override
+			public float[] solve(float[] mm)
+			{
+				return f.solve(mm);
+			}
+
+			@Override
+			public float[] solve(int[] buses, float[] values,
+					int[] outbuses, float[] work)
+			{
+				return f.solveSparse(buses, values, outbuses);
+			}
+		};
+	}
+
+	void applyCorrections(float[] state, float[] vm, MatrixSolver b, Mismatch mm)
+	{
+		int[] elim = _iterbp ? getBPrimeIter().getElimBus() : getBPrime().getElimBus();
 		float[] m = mm.get();
-		for(int bus : b.getElimBus())
+		for(int bus : elim)
 			m[bus] /= vm[bus];
 		float[] c = b.solve(m);
-		for(int bus : b.getElimBus())
+		for(int bus : elim)
 			state[bus] += c[bus];
 	}
 
@@ -528,20 +1319,24 @@ public class FDPowerFlow
 		pmm.reset();
 		qmm.reset();
 		
-		_accalc.calc(vm, va);
-		_accalc.applyMismatch(pmm, qmm);
+		_accalc.calcMismatches(vm, va, pmm, qmm);
+		/* phase shifter regulation needs flows that the Y-bus doesn't calculate */
+		if (_ybusinj && useTapControl()) _taps.calcFlows(vm, va);
 		
-		if (!_mmreport.isEmpty())
+		/* results are only written to the model for reporters that need each iteration */
+		boolean upd = true;
+		for (MismatchReporter r : _mmreport)
 		{
-			updateResults();
-			for (MismatchReporter r : _mmreport)
+			if (!r.reportLast())
 			{
-				if (!r.reportLast())
+				if (upd)
 				{
-					r.reportMismatch(PAMath.pu2mva(pmm.get(), _sbase),
-						PAMath.pu2mva(qmm.get(), _sbase), vm,
-						PAMath.rad2deg(va), _btu.getTypes());
+					updateResults();
+					upd = false;
 				}
+				r.reportMismatch(PAMath.pu2mva(pmm.get(), _sbase),
+					PAMath.pu2mva(qmm.get(), _sbase), vm,
+					PAMath.rad2deg(va), _btu.getTypes());
 			}
 		}
 	}
@@ -551,6 +1346,24 @@ public class FDPowerFlow
 		_mmreport.add(r);
 	}
 	
+	/**
+	 * Add a listener for per-iteration telemetry.  Listeners are called on a
+	 * background thread and nothing is written to the model.
+	 * @param l iteration listener
+	 */
+	public void addIterationListener(IterationListener l)
+	{
+		if (_telem == null) _telem = new IterationTelemetry(_sbase);
+		_telem.addListener(l);
+	}
+	
+	/**
+	 * Get the telemetry used to deliver iteration reports, for example to wait
+	 * for pending reports
+	 * @return telemetry, or null if no listeners were added
+	 */
+	public IterationTelemetry getIterationTelemetry() {return _telem;}
+	
 	/** update bus results to local model 
 	 * @throws PAModelException */
 	public void updateBusResults() throws PAModelException
@@ -584,6 +1397,153 @@ public class FDPowerFlow
 		
 	}
 
+	/**
+	 * Warm-start from a cache of previous solutions, and add the solution of
+	 * each run to the cache.  The cache may be shared between power flows
+	 * on models of the same network.
+	 * @param c solution cache, or null (default) to start from the case values
+	 */
+	public void setSolutionCache(SolutionCache c) {_solcache = c;}
+	/**
+	 * Get the solution cache
+	 * @return solution cache, or null if none is used
+	 */
+	public SolutionCache getSolutionCache() {return _solcache;}
+
+	/**
+	 * Select a strategy to damp or accelerate the corrections of each
+	 * iteration.  Defaults to None.
+	 * @param s acceleration strategy
+	 */
+	public void setAcceleration(CorrectionAccelerator.Strategy s) {_accel = s;}
+	public CorrectionAccelerator.Strategy getAcceleration() {return _accel;}
+	/**
+	 * Set the number of previous iterations used by Anderson acceleration.
+	 * Default is 5.
+	 * @param d number of iterations
+	 */
+	public void setAccelerationDepth(int d) {_accdepth = d;}
+	public int getAccelerationDepth() {return _accdepth;}
+
+	/**
+	 * Select the numerical precision used to solve B' and B''.  Mixed
+	 * precision keeps single-precision factors and refines each solution
+	 * with residuals calculated in double precision.  Defaults to Single.
+	 * @param p solution precision
+	 */
+	public void setSolvePrecision(SolvePrecision p) {_prec = p;}
+	/**
+	 * Get the numerical precision used to solve B' and B''.
+	 * @return solution precision
+	 */
+	public SolvePrecision getSolvePrecision() {return _prec;}
+	/**
+	 * Set the maximum number of refinement steps for mixed-precision
+	 * solutions.  Default is 3.
+	 * @param n maximum refinement steps
+	 */
+	public void setMaxRefinements(int n) {_maxref = n;}
+	public int getMaxRefinements() {return _maxref;}
+
+	/**
+	 * Keep the elimination pattern and factorized B' in a file shared between
+	 * runs and processes.  The file is used when it was written for the same
+	 * branches, reference buses, elimination ordering and B' values, and is
+	 * rewritten otherwise.
+	 * Defaults to null (always build them).
+	 * @param f factorization file, or null
+	 */
+	public void setFactorizationFile(File f) {_factfile = f;}
+	/**
+	 * Get the file holding the elimination pattern and factorized B'
+	 * @return factorization file, or null
+	 */
+	public File getFactorizationFile() {return _factfile;}
+
+	/**
+	 * Set the elimination ordering used to factorize B' and B''.  The
+	 * network is set up again with the new ordering.  Defaults to
+	 * MinDegreeOrdering.
+	 * @param o elimination ordering
+	 * @throws PAModelException
+	 */
+	public void setEliminationOrdering(EliminationOrdering o) throws PAModelException
+	{
+		_ordering = o;
+		_actvgen.resetAVR();
+		setupNetwork(true);
+		setupMonitors();
+	}
+	/**
+	 * Get the elimination ordering used to factorize B' and B''
+	 * @return elimination ordering
+	 */
+	public EliminationOrdering getEliminationOrdering() {return _ordering;}
+
+	/**
+	 * Solve each energized island on its own thread with its own convergence
+	 * loop.  Defaults to false.
+	 * @param p true to solve islands concurrently
+	 */
+	public void setParallelIslands(boolean p) {_parislands = p;}
+	/**
+	 * Check if islands are solved concurrently.  Defaults to false.
+	 * @return true if islands are solved concurrently
+	 */
+	public boolean getParallelIslands() {return _parislands;}
+
+	/**
+	 * Run the forward reduction and backward substitution of large B' and B''
+	 * matrices over independent subtrees of the elimination tree concurrently.
+	 * Smaller matrices are still solved sequentially.  Defaults to false.
+	 * @param p true to substitute in parallel
+	 */
+	public void setParallelSubstitution(boolean p)
+	{
+		_parsubst = p;
+		ForkJoinPool pool = p ? ForkJoinPool.commonPool() : null;
+		if (_bPrime != null) _bPrime.setParallel(pool);
+		if (_bDblPrime != null) _bDblPrime.setParallel(pool);
+	}
+	/**
+	 * Check if B' and B'' are substituted in parallel.  Defaults to false.
+	 * @return true if large matrices are substituted in parallel
+	 */
+	public boolean getParallelSubstitution() {return _parsubst;}
+
+	/**
+	 * Solve B' by conjugate gradients, preconditioned with an incomplete
+	 * factorization, instead of factorizing it. Intended for very large
+	 * networks, where the full factors of B' are expensive to build and hold.
+	 * B'' is still factorized. Each solve starts from the previous correction.
+	 * Parallel islands are not used while this is set. May be changed between
+	 * runs, and defaults to false.
+	 * @param iter true to solve B' iteratively
+	 */
+	public void setIterativeBPrime(boolean iter) {_iterbp = iter;}
+	/**
+	 * Check if B' is solved iteratively.  Defaults to false.
+	 * @return true if B' is solved by preconditioned conjugate gradients
+	 */
+	public boolean getIterativeBPrime() {return _iterbp;}
+
+	/**
+	 * Calculate the branch and fixed shunt injections for the mismatches from
+	 * a Y-bus in a single pass over the buses, rather than branch by branch.
+	 * Defaults to false.
+	 * @param y true to use the Y-bus
+	 */
+	public void setYBusInjections(boolean y)
+	{
+		_ybusinj = y;
+		if (_accalc != null) _accalc.setYBus(y ? _adj : null);
+	}
+	/**
+	 * Check if injections are calculated from the Y-bus.  Defaults to false.
+	 * @return true if the Y-bus is used
+	 */
+	public boolean getYBusInjections() {return _ybusinj;}
+
 	/**
 	 * Set maximum iterations (both active and reactive).  Default is 40.
 	 * @param i max iteration count.
@@ -641,6 +1601,117 @@ public class FDPowerFlow
 	 */
 	public float getUnitActiveLimitTolerance() {return _pdisttol*100f;}
 	
+	/**
+	 * Enable or disable remote voltage regulation. When enabled, PV bus
+	 * setpoints are adjusted during the solution to hold the voltage of
+	 * remote regulated buses. Defaults to enabled.
+	 * 
+	 * @param enable
+	 *            true to regulate remote buses
+	 */
+	public void setRemoteRegulation(boolean enable) {_rmtreg = enable;}
+	/** @return true if remote voltage regulation is enabled */
+	public boolean getRemoteRegulation() {return _rmtreg;}
+	/**
+	 * Enable or disable transformer tap and phase shifter control. When
+	 * enabled, transformers and phase shifters with regulation enabled in the
+	 * model are adjusted during the solution, and the new taps and angles are
+	 * written to the model. Parallel islands are not used while taps are
+	 * controlled. Defaults to disabled.
+	 * 
+	 * @param enable
+	 *            true to control taps and phase shifters
+	 */
+	public void setTapControl(boolean enable) {_tapctl = enable;}
+	/** @return true if tap and phase shifter control is enabled */
+	public boolean getTapControl() {return _tapctl;}
+	/** @return tap and phase shifter controls */
+	public TapControl getTapControls() {return _taps;}
+	/**
+	 * Enable or disable shunt switching. When enabled, in-service shunt
+	 * capacitors and reactors selected by setSwitchableShunts() are switched
+	 * in or out to hold their bus voltages within the band set on the shunt
+	 * controls, and the new in-service states are written to the model.
+	 * Defaults to disabled.
+	 * 
+	 * @param enable
+	 *            true to switch shunts
+	 */
+	public void setShuntSwitching(boolean enable) {_shswitch = enable;}
+	/**
+	 * Select the shunts that can be switched, for example those known to be
+	 * switched or regulating. By default every in-service shunt can be
+	 * switched.
+	 * 
+	 * @param sel
+	 *            true for switchable shunts, null to switch all in-service
+	 *            shunts
+	 * @throws PAModelException
+	 */
+	public void setSwitchableShunts(Predicate<FixedShunt> sel) throws PAModelException
+	{
+		_shsel = sel;
+		_shctl.setSwitchable(sel);
+	}
+	/** @return switchable shunt selection, null if all in-service shunts */
+	public Predicate<FixedShunt> getSwitchableShunts() {return _shsel;}
+	/** @return true if shunt switching is enabled */
+	public boolean getShuntSwitching() {return _shswitch;}
+	/** @return shunt controls, used to set the voltage band */
+	public ShuntControl getShuntControls() {return _shctl;}
+	/**
+	 * Enable or disable returning buses to PV. When enabled, a PV bus
+	 * converted to PQ at a var limit is returned to PV once its voltage moves
+	 * past its setpoint in the direction that relieves the limit. Defaults to
+	 * enabled.
+	 * 
+	 * @param enable
+	 *            true to return buses to PV
+	 */
+	public void setPVReturn(boolean enable)
+	{
+		_pvret = enable;
+		_varmon.setReturn(enable);
+	}
+	/** @return true if buses converted to PQ can return to PV */
+	public boolean getPVReturn() {return _pvret;}
+	/**
+	 * Set the voltage band beyond the setpoint before a bus converted to PQ
+	 * returns to PV. Defaults to 0.005 p.u.
+	 * 
+	 * @param vhyst
+	 *            band (p.u.)
+	 */
+	public void setPVReturnHysteresis(float vhyst)
+	{
+		_pvrethyst = vhyst;
+		_varmon.setReturnHysteresis(vhyst);
+	}
+	/** @return voltage band beyond the setpoint before a bus returns to PV (p.u.) */
+	public float getPVReturnHysteresis() {return _pvrethyst;}
+	/** @return voltage setpoints, used to adjust remote regulation tolerances and limits */
+	public VoltageSetPoint getVoltageSetPoints() {return _vsp;}
+
+	/**
+	 * Set the participation factors used to distribute slack. Defaults to
+	 * operating maximum MW.
+	 * 
+	 * @param pf
+	 *            participation factors, see SlackDistributor.ParticipationFactors
+	 * @throws PAModelException
+	 */
+	public void setSlackParticipation(ParticipationFactors pf) throws PAModelException
+	{
+		_slkpf = pf;
+		if (_dsmon != null) _dsmon.setupDistributors();
+	}
+	/**
+	 * Get the participation factors used to distribute slack
+	 * 
+	 * @return participation factors
+	 */
+	public ParticipationFactors getSlackParticipation() {return _slkpf;}
+	
 	@Deprecated
 	public BusTypeUtil getBusTypes() {return _btu;}
 	
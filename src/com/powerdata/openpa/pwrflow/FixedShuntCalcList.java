@@ -42,6 +42,12 @@ public class FixedShuntCalcList extends AbstractList<com.powerdata.openpa.pwrflo
 	BusList _buses;
 	int[] _buslist;
 	float[] _q, _b;
+	/** nominal susceptance (p.u.) whether or not the shunt is switched in */
+	float[] _bnom;
+	/** shunts switched in */
+	boolean[] _on;
+	/** count of switching changes */
+	int _chg = 0;
 	//TODO: handle SBASE more intelligently
 	float _sbase = 100f;
 	
@@ -51,7 +57,13 @@ public class FixedShuntCalcList extends AbstractList<com.powerdata.openpa.pwrflo
 		_src = src;
 		_buses = bri.getBuses();
 		_buslist = bri.get1TBus(src);
-		_b = PAMath.mva2pu(src.getB(), _sbase);
+		_bnom = PAMath.mva2pu(src.getB(), _sbase);
+		_on = src.isInService().clone();
+		int n = _bnom.length;
+		_b = new float[n];
+		for(int i=0; i < n; ++i)
+			_b[i] = _on[i] ? _bnom[i] : 0f;
+		_q = new float[n];
 	}
 	
 	public FixedShunt getShunt(int ndx)
@@ -69,10 +81,42 @@ public class FixedShuntCalcList extends AbstractList<com.powerdata.openpa.pwrflo
 		return _q[ndx];
 	}
 
+	/**
+	 * Get the nominal susceptance of a shunt, whether or not it is switched in
+	 * @param ndx shunt offset
+	 * @return susceptance (p.u.), positive for capacitors
+	 */
+	public float getBnom(int ndx)
+	{
+		return _bnom[ndx];
+	}
+
+	/**
+	 * Check if a shunt is switched in
+	 * @param ndx shunt offset
+	 * @return true if the shunt contributes to the injections
+	 */
+	public boolean isOn(int ndx)
+	{
+		return _on[ndx];
+	}
+
+	/**
+	 * Switch a shunt in or out. Switching only changes the injection written
+	 * by update(), the in-service state of the model is left alone.
+	 * @param ndx shunt offset
+	 * @param on true to switch the shunt in
+	 */
+	public void setOn(int ndx, boolean on)
+	{
+		_on[ndx] = on;
+		_b[ndx] = on ? _bnom[ndx] : 0f;
+		++_chg;
+	}
+
 	public void calc(float[] vmpu) throws PAModelException
 	{
 		int n = size();
-		_q = new float[n];
 		for(int i=0; i < n; ++i)
 		{
 			float vm = vmpu[_buslist[i]];
@@ -80,6 +124,42 @@ public class FixedShuntCalcList extends AbstractList<com.powerdata.openpa.pwrflo
 		}
 	}
 
+	/**
+	 * Calculate shunt injections and add them to the reactive mismatches
+	 * @param vmpu per-unit voltage magnitude by bus
+	 * @param qmm reactive power mismatches by bus
+	 */
+	public void calcMismatches(float[] vmpu, float[] qmm)
+	{
+		int n = _q.length;
+		for(int i=0; i < n; ++i)
+		{
+			int bus = _buslist[i];
+			float vm = vmpu[bus];
+			float q = _b[i] * vm * vm;
+			_q[i] = q;
+			qmm[bus] += q;
+		}
+	}
+
+	/**
+	 * Calculate injections for a subset of shunts and add them to the reactive mismatches
+	 * @param vmpu per-unit voltage magnitude by bus
+	 * @param qmm reactive power mismatches by bus
+	 * @param subset shunt indexes to calculate
+	 */
+	public void calcMismatches(float[] vmpu, float[] qmm, int[] subset)
+	{
+		for(int i : subset)
+		{
+			int bus = _buslist[i];
+			float vm = vmpu[bus];
+			float q = _b[i] * vm * vm;
+			_q[i] = q;
+			qmm[bus] += q;
+		}
+	}
+
 	public void applyMismatches(Mismatch qmm) throws PAModelException
 	{
 		int n = size();
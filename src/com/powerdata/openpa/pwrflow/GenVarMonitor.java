@@ -15,9 +15,14 @@ import com.powerdata.openpa.tools.matrix.SpSymFltMatrix;
 /**
  * Monitor generator vars and convert bus type if needed
  * 
+ * A PV bus that reaches a var limit is converted to PQ. If a return action is
+ * given, the bus is then watched and returned to PV once its voltage moves
+ * past the setpoint it held, by more than a hysteresis band, in the direction
+ * that relieves the limit. Returns are limited for each bus to stop buses
+ * from cycling between types.
+ * 
  * @author chris@powerdata.com
  *
- *  TODO:  Implement PQ -> PV return when appropriate
  *  TODO:  Move the bus conversion logic to BDblPrime so multiple classes can make use of it
  */
 public class GenVarMonitor extends BusMonitor
@@ -26,10 +31,30 @@ public class GenVarMonitor extends BusMonitor
 	SpSymFltMatrix _bpp;
 	
 	float[] _savebdiag;
+	/** monitor offset by bus, -1 for buses not monitored */
+	int[] _busmon;
 	float[] _minq, _maxq;
 	boolean[] _viol;
 	/** Action to take to convert pv to pq */
 	Action _pv2pq;
+	/** Action to take to return pq to pv, null if buses are not returned */
+	Action _pq2pv;
+	/** value added to the B'' diagonal of PV buses */
+	float _pvdiag;
+	/** working voltages (p.u.) */
+	float[] _vm;
+	/** setpoint held by each bus when it was converted to PQ */
+	float[] _vsp;
+	/** true if the bus was converted at its maximum var limit */
+	boolean[] _atmax;
+	/** number of times each bus has returned to PV */
+	int[] _nret;
+	/** voltage band (p.u.) beyond the setpoint before a bus returns to PV */
+	float _vhyst = 0.005f;
+	/** returns allowed for each bus */
+	int _maxret = 2;
+	/** return buses to PV (only if a return action is given) */
+	boolean _return = true;
 	
 	/** Monitor low pv bus limits and convert if needed */
 	Monitor _pvmon = (mm,i) -> 
@@ -39,24 +64,104 @@ public class GenVarMonitor extends BusMonitor
 		
 		if(mm < _minq[i] || mm > _maxq[i])
 		{
+			_atmax[i] = mm > _maxq[i];
 			cvtPV2PQ(i);
 			_pv2pq.take(_sbus.get(_mbus[i]), mm);
 			rv = true;
 		}
 		return rv;
 	};
+
+	/** Monitor converted buses and return them to PV if the voltage allows */
+	Monitor _pqmon = (mm,i) ->
+	{
+		int bus = _mbus[i];
+		float v = _vm[bus], vs = _vsp[i];
+		/*
+		 * at the maximum, a voltage over the setpoint means less vars are
+		 * needed, and the reverse at the minimum
+		 */
+		if (_atmax[i] ? v > vs + _vhyst : v < vs - _vhyst)
+		{
+			cvtPQ2PV(i);
+			_pq2pv.take(_sbus.get(bus), mm);
+			return true;
+		}
+		return false;
+	};
 	
+	/**
+	 * Create a monitor for the PV buses
+	 * 
+	 * @param hotislands
+	 *            energized islands
+	 * @param btu
+	 *            bus types
+	 * @param buses
+	 *            system buses
+	 * @param bpp
+	 *            B'' matrix, with pvdiag already added to PV buses
+	 * @param pvdiag
+	 *            value added to the B'' diagonal of PV buses
+	 * @param pv2pq
+	 *            action taken when a bus is converted to PQ
+	 * @param pq2pv
+	 *            action taken when a bus is returned to PV, null to leave
+	 *            converted buses as PQ
+	 * @throws PAModelException
+	 */
 	public GenVarMonitor(ElectricalIslandList hotislands, BusTypeUtil btu, BusList buses,
-			SpSymFltMatrix bpp, Action pv2pq, Action pq2pv)
+			SpSymFltMatrix bpp, float pvdiag, Action pv2pq, Action pq2pv)
 			throws PAModelException
 	{
 		super(buses, btu, EnumSet.of(BusType.PV), hotislands);
 		_bpp = bpp;
+		_pvdiag = pvdiag;
 		_pv2pq = pv2pq;
+		_pq2pv = pq2pv;
 		Arrays.fill(_monitors, _pvmon);
+		int n = _mbus.length;
+		_vsp = new float[n];
+		_atmax = new boolean[n];
+		_nret = new int[n];
 		saveOriginalB();
 		configureLimits();
 	}
+
+	/**
+	 * Set the working voltages used to return buses to PV. Must be called
+	 * before each run if buses are returned.
+	 * @param vm working voltages (p.u.)
+	 */
+	void setVoltages(float[] vm) {_vm = vm;}
+
+	/**
+	 * Enable or disable returning converted buses to PV
+	 * @param enable true to return buses (requires a return action)
+	 */
+	public void setReturn(boolean enable) {_return = enable;}
+
+	/** @return true if converted buses are returned to PV */
+	public boolean getReturn() {return _pq2pv != null && _return;}
+
+	/**
+	 * Set the voltage band beyond the setpoint before a converted bus
+	 * returns to PV
+	 * @param vhyst band (p.u.)
+	 */
+	public void setReturnHysteresis(float vhyst) {_vhyst = vhyst;}
+
+	/** @return voltage band beyond the setpoint before a converted bus returns to PV (p.u.) */
+	public float getReturnHysteresis() {return _vhyst;}
+
+	/**
+	 * Set the number of times a bus may return to PV during a run
+	 * @param n returns allowed for each bus
+	 */
+	public void setMaxReturns(int n) {_maxret = n;}
+
+	/** @return number of times a bus may return to PV during a run */
+	public int getMaxReturns() {return _maxret;}
 	
 	void cvtPV2PQ(int i)
 	{
@@ -64,9 +169,28 @@ public class GenVarMonitor extends BusMonitor
 		 * restore B without the artifically large admittance, making it a PQ
 		 * bus once again
 		 */
-		_bpp.getBDiag()[_mbus[i]] = _savebdiag[i];
-		/* turn off monitoring for now */
-		_monitors[i] = _Nomon;
+		int bus = _mbus[i];
+		_bpp.getBDiag()[bus] = _savebdiag[i];
+		if (_pq2pv != null && _return && _nret[i] < _maxret)
+		{
+			/* remember the setpoint and watch for a return to PV */
+			_vsp[i] = _vm[bus];
+			_monitors[i] = _pqmon;
+		}
+		else
+		{
+			_monitors[i] = _Nomon;
+		}
+	}
+
+	void cvtPQ2PV(int i)
+	{
+		int bus = _mbus[i];
+		/* hold the voltage at the setpoint again with the large admittance */
+		_bpp.incBdiag(bus, _pvdiag);
+		_vm[bus] = _vsp[i];
+		++_nret[i];
+		_monitors[i] = _pvmon;
 	}
 	
 	void saveOriginalB()
@@ -74,9 +198,30 @@ public class GenVarMonitor extends BusMonitor
 		int n = _mbus.length;
 		_savebdiag = new float[n];
 		float[] bd = _bpp.getBDiag();
+		_busmon = new int[bd.length];
+		Arrays.fill(_busmon, -1);
 
 		for(int i=0; i < n; ++i)
+		{
 			_savebdiag[i] = bd[_mbus[i]];
+			_busmon[_mbus[i]] = i;
+		}
+	}
+	
+	/**
+	 * Adjust the saved B'' diagonal of a PV bus after a change to the
+	 * network (for example, a tap change), so that the change is kept if the
+	 * bus is converted to PQ.
+	 * 
+	 * @param bus
+	 *            bus index
+	 * @param b
+	 *            change in susceptance
+	 */
+	void incSavedBdiag(int bus, float b)
+	{
+		int i = _busmon[bus];
+		if (i != -1) _savebdiag[i] += b;
 	}
 	
 	private void configureLimits() throws PAModelException
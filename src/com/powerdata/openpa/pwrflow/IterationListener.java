@@ -0,0 +1,28 @@
+package com.powerdata.openpa.pwrflow;
+
+/**
+ * Receive power flow telemetry for each iteration.
+ * 
+ * Listeners are called on a background thread, never on the thread running
+ * the power flow, and receive copies of the values so that nothing is read
+ * from or written to the model.
+ * 
+ * @author chris@powerdata.com
+ *
+ */
+@FunctionalInterface
+public interface IterationListener
+{
+	/**
+	 * Report a completed iteration
+	 * @param stats values recorded for the iteration
+	 */
+	void iteration(IterationStats stats);
+
+	/**
+	 * Report the end of a power flow run
+	 * @param niter number of iterations reported for the run
+	 * @param nanos elapsed time of the run in nanoseconds
+	 */
+	default void runEnd(int niter, long nanos) {}
+}
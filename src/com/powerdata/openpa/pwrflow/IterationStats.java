@@ -0,0 +1,70 @@
+package com.powerdata.openpa.pwrflow;
+
+/**
+ * Values recorded for a single power flow iteration. When islands are solved
+ * concurrently, each island reports its own iterations.
+ * 
+ * @author chris@powerdata.com
+ *
+ */
+public class IterationStats
+{
+	int _iter;
+	int[] _island, _wpbus, _wqbus, _pv2pq, _pq2pv;
+	float[] _wp, _wq;
+	long _itnanos, _solvenanos;
+
+	IterationStats(int iter, int[] island, float[] wp, int[] wpbus, float[] wq,
+			int[] wqbus, int[] pv2pq, int[] pq2pv, long itnanos, long solvenanos)
+	{
+		_iter = iter;
+		_island = island;
+		_wp = wp;
+		_wpbus = wpbus;
+		_wq = wq;
+		_wqbus = wqbus;
+		_pv2pq = pv2pq;
+		_pq2pv = pq2pv;
+		_itnanos = itnanos;
+		_solvenanos = solvenanos;
+	}
+
+	/** iteration number, starting at 0 */
+	public int getIteration() {return _iter;}
+	/** hot island offsets reported, parallel with the worst mismatch arrays */
+	public int[] getIslands() {return _island;}
+	/** worst active power mismatch (MW) for each island */
+	public float[] getWorstP() {return _wp;}
+	/** bus index of the worst active power mismatch for each island, -1 if none */
+	public int[] getWorstPBus() {return _wpbus;}
+	/** worst reactive power mismatch (MVAr) for each island */
+	public float[] getWorstQ() {return _wq;}
+	/** bus index of the worst reactive power mismatch for each island, -1 if none */
+	public int[] getWorstQBus() {return _wqbus;}
+	/** buses switched from PV to PQ during the iteration */
+	public int[] getPVtoPQ() {return _pv2pq;}
+	/** buses returned from PQ to PV during the iteration */
+	public int[] getPQtoPV() {return _pq2pv;}
+	/** elapsed time of the iteration in nanoseconds */
+	public long getIterationNanos() {return _itnanos;}
+	/** time spent solving corrections in nanoseconds, 0 if no corrections were made */
+	public long getSolveNanos() {return _solvenanos;}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("iter=%d time=%.3fms solve=%.3fms", _iter,
+			_itnanos / 1e6, _solvenanos / 1e6));
+		for(int i=0; i < _island.length; ++i)
+		{
+			sb.append(String.format(" [island %d P %f MW @%d Q %f MVAr @%d]",
+				_island[i], _wp[i], _wpbus[i], _wq[i], _wqbus[i]));
+		}
+		if (_pv2pq.length > 0)
+			sb.append(String.format(" pv2pq=%d", _pv2pq.length));
+		if (_pq2pv.length > 0)
+			sb.append(String.format(" pq2pv=%d", _pq2pv.length));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,135 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import com.powerdata.openpa.Bus;
+import com.powerdata.openpa.pwrflow.ConvergenceList.ConvergenceInfo;
+import com.powerdata.openpa.pwrflow.Mismatch.WorstMM;
+import com.powerdata.openpa.tools.PAMath;
+
+/**
+ * Collect iteration telemetry from a power flow and deliver it to listeners
+ * on a single background thread. The thread exits once reports have been
+ * idle for a few seconds, and is started again by the next report, so power
+ * flows kept around between runs do not hold threads.
+ * 
+ * @author chris@powerdata.com
+ *
+ */
+public class IterationTelemetry
+{
+	/** seconds the reporting thread waits for more reports before it exits */
+	static final long IdleSeconds = 5L;
+
+	List<IterationListener> _listeners = new CopyOnWriteArrayList<>();
+	ThreadPoolExecutor _exec = new ThreadPoolExecutor(1, 1, IdleSeconds,
+		TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r ->
+		{
+			Thread t = new Thread(r, "pf-telemetry");
+			t.setDaemon(true);
+			return t;
+		});
+	float _sbase;
+
+	public IterationTelemetry(float sbase)
+	{
+		_sbase = sbase;
+		_exec.allowCoreThreadTimeOut(true);
+	}
+
+	public void addListener(IterationListener l) {_listeners.add(l);}
+	public void removeListener(IterationListener l) {_listeners.remove(l);}
+	public boolean isEmpty() {return _listeners.isEmpty();}
+
+	/**
+	 * Record an iteration for a set of islands
+	 * 
+	 * @param iter
+	 *            iteration number
+	 * @param rv
+	 *            convergence results, already tested for this iteration
+	 * @param islands
+	 *            offsets of islands within the convergence results
+	 * @param pv2pq
+	 *            buses switched from PV to PQ
+	 * @param pq2pv
+	 *            buses returned from PQ to PV
+	 * @param itnanos
+	 *            elapsed time of the iteration
+	 * @param solvenanos
+	 *            time spent solving corrections
+	 */
+	public void post(int iter, ConvergenceList rv, int[] islands, int[] pv2pq,
+			int[] pq2pv, long itnanos, long solvenanos)
+	{
+		int n = islands.length;
+		float[] wp = new float[n], wq = new float[n];
+		int[] wpbus = new int[n], wqbus = new int[n];
+		for(int i=0; i < n; ++i)
+		{
+			ConvergenceInfo ci = rv.get(islands[i]);
+			WorstMM p = ci.getWorstP(), q = ci.getWorstQ();
+			wp[i] = PAMath.pu2mva(p.getValue(), _sbase);
+			wq[i] = PAMath.pu2mva(q.getValue(), _sbase);
+			wpbus[i] = busIndex(p);
+			wqbus[i] = busIndex(q);
+		}
+		IterationStats s = new IterationStats(iter, islands.clone(), wp, wpbus,
+			wq, wqbus, pv2pq, pq2pv, itnanos, solvenanos);
+		_exec.execute(() ->
+		{
+			for(IterationListener l : _listeners)
+				l.iteration(s);
+		});
+	}
+
+	static int busIndex(WorstMM w)
+	{
+		Bus b = w.getBus();
+		return (b == null) ? -1 : b.getIndex();
+	}
+
+	/**
+	 * Record the end of a run
+	 * @param niter number of iterations
+	 * @param nanos elapsed time of the run
+	 */
+	public void postEnd(int niter, long nanos)
+	{
+		_exec.execute(() ->
+		{
+			for(IterationListener l : _listeners)
+				l.runEnd(niter, nanos);
+		});
+	}
+
+	/**
+	 * Wait for pending reports to be delivered
+	 * @param timeout maximum time to wait in milliseconds
+	 * @return true if all reports were delivered
+	 * @throws InterruptedException
+	 */
+	public boolean flush(long timeout) throws InterruptedException
+	{
+		try
+		{
+			_exec.submit(() -> {}).get(timeout, TimeUnit.MILLISECONDS);
+			return true;
+		}
+		catch (ExecutionException | TimeoutException e)
+		{
+			return false;
+		}
+	}
+
+	/** Stop the reporting thread after delivering pending reports */
+	public void shutdown()
+	{
+		_exec.shutdown();
+	}
+}
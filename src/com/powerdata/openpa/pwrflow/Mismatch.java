@@ -226,6 +226,16 @@ public class Mismatch
 	{
 		Arrays.fill(_mm, 0f);
 	}
+
+	/**
+	 * Reset (set to 0) the mismatches for a set of buses
+	 * @param buses bus indexes to reset
+	 */
+	public void reset(int[] buses)
+	{
+		for(int b : buses)
+			_mm[b] = 0f;
+	}
 	
 	
 }
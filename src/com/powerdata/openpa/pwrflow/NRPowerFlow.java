@@ -0,0 +1,188 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import com.powerdata.openpa.ACBranchList;
+import com.powerdata.openpa.BusRefIndex;
+import com.powerdata.openpa.PAModel;
+import com.powerdata.openpa.PAModelException;
+import com.powerdata.openpa.PflowModelBuilder;
+import com.powerdata.openpa.SVC.SVCState;
+import com.powerdata.openpa.SubLists;
+import com.powerdata.openpa.tools.matrix.FactorizedJacobianMatrix;
+import com.powerdata.openpa.tools.matrix.SpSymJacobianMatrix;
+
+/**
+ * Newton-Raphson AC Power Flow.
+ *
+ * Shares the setup, bus type, limit and slack handling of the fast-decoupled
+ * power flow, and replaces the B' / B'' corrections with a solution of the
+ * full Jacobian. The Jacobian is factorized using the same elimination
+ * pattern as B' and B''.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class NRPowerFlow extends FDPowerFlow
+{
+	/** Jacobian calculators for each type of in-service AC branch */
+	List<ACBranchJacobianList> _brjac = new ArrayList<>();
+	/** Jacobian matrix */
+	SpSymJacobianMatrix _jac;
+
+	public NRPowerFlow(PAModel model, BusRefIndex bri) throws PAModelException
+	{
+		super(model, bri);
+		setupJacobian();
+		_maxit = 20;
+	}
+
+	void setupJacobian() throws PAModelException
+	{
+		_brjac.clear();
+		for(ACBranchList l : SubLists.getBranchInsvc(_model.getACBranches()))
+		{
+			if (!l.isEmpty())
+				_brjac.add(new ACBranchJacobianList(l, _bri));
+		}
+		_jac = new SpSymJacobianMatrix(_adj);
+	}
+
+	@Override
+	public void rebuildValues() throws PAModelException
+	{
+		super.rebuildValues();
+		setupJacobian();
+	}
+
+	/**
+	 * Island solutions apply fast-decoupled corrections, so the Newton-Raphson
+	 * solution always iterates the system together
+	 */
+	@Override
+	boolean useIslandSolve() {return false;}
+
+	@Override
+	void correct(Mismatch pmm, Mismatch qmm) throws PAModelException
+	{
+		dropBppChanges();
+		buildJacobian();
+		int nbus = _vm.length;
+		float[] da = new float[nbus], dv = new float[nbus];
+		System.arraycopy(pmm.get(), 0, da, 0, nbus);
+		System.arraycopy(qmm.get(), 0, dv, 0, nbus);
+		for(int bus : _btu.getBuses(BusType.PV))
+			dv[bus] = 0f;
+
+		FactorizedJacobianMatrix j = _jac.factorize(_pat);
+		j.solve(da, dv);
+
+		for(int bus : j.getElimBus())
+		{
+			_va[bus] += da[bus];
+			_vm[bus] += dv[bus];
+		}
+	}
+
+	/**
+	 * B'' is not factorized for the corrections, so changes queued for it
+	 * would grow over the run. Drop them, and release the B'' factors so
+	 * that anything still using B'' (remote regulation, for example)
+	 * factorizes it again.
+	 */
+	void dropBppChanges()
+	{
+		if (_bppchg.isEmpty()) return;
+		_bppchg.clear();
+		if (_bDblPrime != null)
+		{
+			_bppfree = _bDblPrime;
+			_bDblPrime = null;
+		}
+		_bDblPrimeDbl = null;
+	}
+
+	/**
+	 * Build the Jacobian at the current voltages and angles.
+	 *
+	 * Values are partial derivatives of the power leaving each bus, so that
+	 * the corrections are solved directly from the mismatches.
+	 *
+	 * @throws PAModelException
+	 */
+	void buildJacobian() throws PAModelException
+	{
+		_jac.reset();
+		for(ACBranchJacobianList l : _brjac)
+			l.calc(_vm, _va).apply(_jac);
+
+		/* fixed shunts are treated as constant susceptance */
+		for(FixedShuntCalcList fs : _accalc.getFixedShuntCalc())
+		{
+			int n = fs.size();
+			for(int i=0; i < n; ++i)
+			{
+				int bus = fs._buslist[i];
+				_jac.decDqdv(bus, bus, 2f * fs._b[i] * _vm[bus]);
+			}
+		}
+
+		/* SVC's follow either their slope or a constant susceptance at a limit */
+		SVCCalcList svc = _accalc.getSVCCalc();
+		int nsvc = svc.size();
+		for(int i=0; i < nsvc; ++i)
+		{
+			int bus = svc._busidx[i];
+			SVCState st = svc.getState(i);
+			if (st == SVCState.Normal)
+				_jac.incDqdv(bus, bus, 1f / (_sbase * svc._slope[i]));
+			else if (st != SVCState.FixedMVAr)
+				_jac.decDqdv(bus, bus, 2f * svc.getBpp(i) * _vm[bus]);
+		}
+
+		/* hold voltage magnitude on PV buses */
+		for(int bus : _btu.getBuses(BusType.PV))
+			_jac.fixVoltage(bus);
+	}
+
+	public static void main(String...args) throws Exception
+	{
+		String uri = null;
+		File poutdir = new File(System.getProperty("user.dir"));
+		for(int i=0; i < args.length;)
+		{
+			String s = args[i++].toLowerCase();
+			int ssx = 1;
+			if (s.startsWith("--")) ++ssx;
+			switch(s.substring(ssx))
+			{
+				case "uri":
+					uri = args[i++];
+					break;
+				case "outdir":
+					poutdir = new File(args[i++]);
+					break;
+			}
+		}
+		if (uri == null)
+		{
+			System.err.format("Usage: -uri model_uri "
+					+ "[ --outdir output_directory (deft to $CWD ]\n");
+			System.exit(1);
+		}
+		final File outdir = poutdir;
+		if (!outdir.exists()) outdir.mkdirs();
+		PflowModelBuilder bldr = PflowModelBuilder.Create(uri);
+		bldr.enableFlatVoltage(true);
+		bldr.setLeastX(0.0001f);
+		bldr.setUnitRegOverride(false);
+		PAModel m = bldr.load();
+
+		NRPowerFlow pf = new NRPowerFlow(m, BusRefIndex.CreateFromSingleBuses(m));
+		pf.addMismatchReporter(new SummaryMismatchReporter(outdir));
+		ConvergenceList results = pf.runPF();
+		pf.updateResults();
+		results.forEach(l -> System.out.println(l));
+	}
+}
@@ -0,0 +1,236 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.EnumMap;
+import com.powerdata.openpa.AreaList;
+import com.powerdata.openpa.BusRefIndex;
+import com.powerdata.openpa.ColumnMeta;
+import com.powerdata.openpa.ElectricalIslandList;
+import com.powerdata.openpa.Gen;
+import com.powerdata.openpa.GenList;
+import com.powerdata.openpa.LineList;
+import com.powerdata.openpa.ListMetaType;
+import com.powerdata.openpa.LoadList;
+import com.powerdata.openpa.OwnerList;
+import com.powerdata.openpa.PAModel;
+import com.powerdata.openpa.PAModelException;
+import com.powerdata.openpa.PflowModelBuilder;
+import com.powerdata.openpa.PhaseShifter;
+import com.powerdata.openpa.PhaseShifterList;
+import com.powerdata.openpa.SVCList;
+import com.powerdata.openpa.SeriesCapList;
+import com.powerdata.openpa.SeriesReacList;
+import com.powerdata.openpa.ShuntCapList;
+import com.powerdata.openpa.ShuntReacList;
+import com.powerdata.openpa.StationList;
+import com.powerdata.openpa.SteamTurbineList;
+import com.powerdata.openpa.SwitchList;
+import com.powerdata.openpa.SwitchedShuntList;
+import com.powerdata.openpa.TransformerList;
+import com.powerdata.openpa.TwoTermDCLineList;
+import com.powerdata.openpa.VoltageLevelList;
+import com.powerdata.openpa.impl.AreaListI;
+import com.powerdata.openpa.impl.BusListI;
+import com.powerdata.openpa.impl.ElectricalIslandListI;
+import com.powerdata.openpa.impl.GenListI;
+import com.powerdata.openpa.impl.LineListI;
+import com.powerdata.openpa.impl.LoadListI;
+import com.powerdata.openpa.impl.OwnerListI;
+import com.powerdata.openpa.impl.PhaseShifterListI;
+import com.powerdata.openpa.impl.StationListI;
+import com.powerdata.openpa.impl.SteamTurbineListI;
+import com.powerdata.openpa.impl.VoltageLevelListI;
+import com.powerdata.openpa.tools.PAMath;
+
+/**
+ * Check phase shifter regulation on a two-bus case.
+ *
+ * A line and a phase shifter connect a generator bus to a 200 MW load. With
+ * equal reactances each carries 100 MW, and the phase shifter is set to
+ * regulate its flow to 170 - 180 MW. That needs a shift of about 0.3, well
+ * over 1 degree. The angle limits of +/-10 are in the units of the shift, so
+ * the shift is only within them if the limits are not converted to radians.
+ * 
+ * Run with no arguments, exits with status 1 on failure.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class PhaseShiftTest
+{
+	/** build the two-bus case in memory */
+	static class CaseBuilder extends PflowModelBuilder
+	{
+		EnumMap<ColumnMeta, Object> _cols = new EnumMap<>(ColumnMeta.class);
+		int[] _zero = new int[2];
+
+		CaseBuilder()
+		{
+			String[] busid = {"GEN", "LOAD"};
+			put(ColumnMeta.BusID, busid);
+			put(ColumnMeta.BusNAME, busid);
+			put(ColumnMeta.BusVM, new float[] {100f, 100f});
+			put(ColumnMeta.BusVA, new float[2]);
+			put(ColumnMeta.BusFREQSRCPRI, new int[2]);
+			put(ColumnMeta.BusAREA, _zero);
+			put(ColumnMeta.BusOWNER, _zero);
+			put(ColumnMeta.BusSTATION, _zero);
+			put(ColumnMeta.BusVLEV, _zero);
+			put(ColumnMeta.VlevID, new String[] {"100"});
+			put(ColumnMeta.VlevNAME, new String[] {"100"});
+			put(ColumnMeta.VlevBASKV, new float[] {100f});
+			put(ColumnMeta.AreaID, new String[] {"A"});
+			put(ColumnMeta.AreaNAME, new String[] {"A"});
+			put(ColumnMeta.OwnerID, new String[] {"O"});
+			put(ColumnMeta.OwnerNAME, new String[] {"O"});
+			put(ColumnMeta.StationID, new String[] {"S"});
+			put(ColumnMeta.StationNAME, new String[] {"S"});
+
+			put(ColumnMeta.GenID, new String[] {"G"});
+			put(ColumnMeta.GenNAME, new String[] {"G"});
+			put(ColumnMeta.GenBUS, new int[] {0});
+			put(ColumnMeta.GenP, new float[] {200f});
+			put(ColumnMeta.GenQ, new float[1]);
+			put(ColumnMeta.GenINSVC, new boolean[] {true});
+			put(ColumnMeta.GenTYPE, new Gen.Type[] {Gen.Type.Thermal});
+			put(ColumnMeta.GenMODE, new Gen.Mode[] {Gen.Mode.ON});
+			put(ColumnMeta.GenOPMINP, new float[] {0f});
+			put(ColumnMeta.GenOPMAXP, new float[] {500f});
+			put(ColumnMeta.GenMINQ, new float[] {-500f});
+			put(ColumnMeta.GenMAXQ, new float[] {500f});
+			put(ColumnMeta.GenPS, new float[] {200f});
+			put(ColumnMeta.GenQS, new float[1]);
+			put(ColumnMeta.GenAVR, new boolean[] {true});
+			put(ColumnMeta.GenVS, new float[] {100f});
+			put(ColumnMeta.GenREGBUS, new int[] {0});
+
+			put(ColumnMeta.LoadID, new String[] {"L"});
+			put(ColumnMeta.LoadNAME, new String[] {"L"});
+			put(ColumnMeta.LoadBUS, new int[] {1});
+			put(ColumnMeta.LoadP, new float[] {-200f});
+			put(ColumnMeta.LoadQ, new float[] {0f});
+			put(ColumnMeta.LoadINSVC, new boolean[] {true});
+			put(ColumnMeta.LoadPMAX, new float[] {-200f});
+			put(ColumnMeta.LoadQMAX, new float[] {0f});
+
+			put(ColumnMeta.LineID, new String[] {"LN"});
+			put(ColumnMeta.LineNAME, new String[] {"LN"});
+			put(ColumnMeta.LineBUSFROM, new int[] {0});
+			put(ColumnMeta.LineBUSTO, new int[] {1});
+			put(ColumnMeta.LineINSVC, new boolean[] {true});
+			put(ColumnMeta.LinePFROM, new float[1]);
+			put(ColumnMeta.LineQFROM, new float[1]);
+			put(ColumnMeta.LinePTO, new float[1]);
+			put(ColumnMeta.LineQTO, new float[1]);
+			put(ColumnMeta.LineR, new float[] {0f});
+			put(ColumnMeta.LineX, new float[] {0.2f});
+			put(ColumnMeta.LineBFROM, new float[1]);
+			put(ColumnMeta.LineBTO, new float[1]);
+			put(ColumnMeta.LineRATLT, new float[] {1000f});
+
+			put(ColumnMeta.PhashID, new String[] {"PS"});
+			put(ColumnMeta.PhashNAME, new String[] {"PS"});
+			put(ColumnMeta.PhashBUSFROM, new int[] {0});
+			put(ColumnMeta.PhashBUSTO, new int[] {1});
+			put(ColumnMeta.PhashINSVC, new boolean[] {true});
+			put(ColumnMeta.PhashPFROM, new float[1]);
+			put(ColumnMeta.PhashQFROM, new float[1]);
+			put(ColumnMeta.PhashPTO, new float[1]);
+			put(ColumnMeta.PhashQTO, new float[1]);
+			put(ColumnMeta.PhashR, new float[] {0f});
+			put(ColumnMeta.PhashX, new float[] {0.2f});
+			put(ColumnMeta.PhashGMAG, new float[1]);
+			put(ColumnMeta.PhashBMAG, new float[1]);
+			put(ColumnMeta.PhashANG, new float[1]);
+			put(ColumnMeta.PhashTAPFROM, new float[] {1f});
+			put(ColumnMeta.PhashTAPTO, new float[] {1f});
+			put(ColumnMeta.PhashCTRLMODE, new PhaseShifter.ControlMode[] {PhaseShifter.ControlMode.FixedMW});
+			put(ColumnMeta.PhashRATLT, new float[] {1000f});
+			put(ColumnMeta.PhashHASREG, new boolean[] {true});
+			put(ColumnMeta.PhashMXANG, new float[] {10f});
+			put(ColumnMeta.PhashMNANG, new float[] {-10f});
+			/* from-side MW is negative for flow leaving the from bus */
+			put(ColumnMeta.PhashMXMW, new float[] {-170f});
+			put(ColumnMeta.PhashMNMW, new float[] {-180f});
+		}
+
+		void put(ColumnMeta c, Object v) {_cols.put(c, v);}
+
+		@Override
+		protected void loadPrep() {}
+		@Override
+		protected BusListI loadBuses() throws PAModelException {return new BusListI(_m, 2);}
+		@Override
+		protected SwitchList loadSwitches() {return SwitchList.emptyList();}
+		@Override
+		protected LineList loadLines() throws PAModelException {return new LineListI(_m, 1);}
+		@Override
+		protected AreaList loadAreas() {return new AreaListI(_m, _zero, 1);}
+		@Override
+		protected OwnerList loadOwners() {return new OwnerListI(_m, _zero, 1);}
+		@Override
+		protected StationList loadStations() {return new StationListI(_m, _zero, 1);}
+		@Override
+		protected VoltageLevelList loadVoltageLevels() {return new VoltageLevelListI(_m, _zero, 1);}
+		@Override
+		protected ElectricalIslandList loadIslands() throws PAModelException
+		{
+			return new ElectricalIslandListI(_m);
+		}
+		@Override
+		protected SVCList loadSVCs() {return SVCList.emptyList();}
+		@Override
+		protected SwitchedShuntList loadSwitchedShunts() {return SwitchedShuntList.emptyList();}
+		@Override
+		protected TwoTermDCLineList loadTwoTermDCLines() {return TwoTermDCLineList.emptyList();}
+		@Override
+		protected ShuntCapList loadShuntCapacitors() {return ShuntCapList.emptyList();}
+		@Override
+		protected ShuntReacList loadShuntReactors() {return ShuntReacList.emptyList();}
+		@Override
+		protected LoadList loadLoads() throws PAModelException {return new LoadListI(_m, 1);}
+		@Override
+		protected SteamTurbineList loadSteamTurbines() throws PAModelException
+		{
+			return new SteamTurbineListI(_m, 0);
+		}
+		@Override
+		protected GenList loadGens() throws PAModelException {return new GenListI(_m, 1);}
+		@Override
+		protected SeriesCapList loadSeriesCapacitors() {return SeriesCapList.emptyList();}
+		@Override
+		protected SeriesReacList loadSeriesReactors() {return SeriesReacList.emptyList();}
+		@Override
+		protected PhaseShifterList loadPhaseShifters() throws PAModelException
+		{
+			return new PhaseShifterListI(_m, 1);
+		}
+		@Override
+		protected TransformerList loadTransformers() {return TransformerList.emptyList();}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected <R> R load(ListMetaType ltype, ColumnMeta ctype, int[] keys)
+		{
+			return (R) _cols.get(ctype);
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		PAModel m = new CaseBuilder().load();
+		FDPowerFlow pf = new FDPowerFlow(m, BusRefIndex.CreateFromSingleBuses(m));
+		pf.setTapControl(true);
+		ConvergenceList results = pf.runPF();
+		pf.updateResults();
+		results.forEach(l -> System.out.println(l));
+
+		PhaseShifter ps = m.getPhaseShifters().get(0);
+		float p = ps.getFromP(), shift = ps.getShift();
+		System.out.format("phase shifter %f MW, shift %f, line %f MW\n", p, shift,
+			m.getLines().get(0).getFromP());
+		/* within the band (1 MW tolerance), at a shift past 10 degrees in radians */
+		boolean ok = p >= -181f && p <= -169f && Math.abs(shift) > PAMath.deg2rad(10f);
+		System.out.println(ok ? "PASS" : "FAIL");
+		if (!ok) System.exit(1);
+	}
+}
@@ -0,0 +1,204 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import com.powerdata.openpa.BusRefIndex;
+import com.powerdata.openpa.ColChange;
+import com.powerdata.openpa.ColumnMeta;
+import com.powerdata.openpa.PAModel;
+import com.powerdata.openpa.PAModelException;
+
+/**
+ * Long-lived power flow on a single model.
+ *
+ * Before each run, the model changes (PAModel.getChanges()) are inspected and
+ * only the parts of the power flow invalidated by the changed columns are
+ * rebuilt. Changes are cleared after each run, including those made by the
+ * power flow when results are updated.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class PowerFlowSession
+{
+	/**
+	 * Work needed to bring the power flow up to date with the model, in order
+	 * of increasing cost.
+	 *
+	 * @author chris@powerdata.com
+	 *
+	 */
+	public enum Rebind
+	{
+		/** no changes that affect the power flow */
+		None,
+		/** injections, limits or voltage setpoints changed */
+		Injections,
+		/** branch, shunt or SVC parameters changed */
+		Values,
+		/** topology, in-service state or bus types may have changed */
+		Topology
+	}
+
+	/**
+	 * Create the power flow for a model
+	 *
+	 * @author chris@powerdata.com
+	 *
+	 */
+	@FunctionalInterface
+	public interface PowerFlowFactory
+	{
+		FDPowerFlow create(PAModel model, BusRefIndex bri) throws PAModelException;
+	}
+
+	/** results and identifiers, not read by the power flow */
+	static final EnumSet<ColumnMeta> IgnoreCols = EnumSet.of(
+		ColumnMeta.BusID, ColumnMeta.BusNAME, ColumnMeta.BusVM, ColumnMeta.BusVA,
+		ColumnMeta.GenID, ColumnMeta.GenNAME, ColumnMeta.GenP, ColumnMeta.GenQ,
+		ColumnMeta.GenRAMP,
+		ColumnMeta.LoadID, ColumnMeta.LoadNAME,
+		ColumnMeta.ShcapID, ColumnMeta.ShcapNAME, ColumnMeta.ShcapP, ColumnMeta.ShcapQ,
+		ColumnMeta.ShreacID, ColumnMeta.ShreacNAME, ColumnMeta.ShreacP, ColumnMeta.ShreacQ,
+		ColumnMeta.SvcID, ColumnMeta.SvcNAME, ColumnMeta.SvcP, ColumnMeta.SvcQ,
+		ColumnMeta.LineID, ColumnMeta.LineNAME, ColumnMeta.LinePFROM, ColumnMeta.LineQFROM,
+		ColumnMeta.LinePTO, ColumnMeta.LineQTO, ColumnMeta.LineRATLT,
+		ColumnMeta.SercapID, ColumnMeta.SercapNAME, ColumnMeta.SercapPFROM,
+		ColumnMeta.SercapQFROM, ColumnMeta.SercapPTO, ColumnMeta.SercapQTO,
+		ColumnMeta.SercapRATLT,
+		ColumnMeta.SerreacID, ColumnMeta.SerreacNAME, ColumnMeta.SerreacPFROM,
+		ColumnMeta.SerreacQFROM, ColumnMeta.SerreacPTO, ColumnMeta.SerreacQTO,
+		ColumnMeta.SerreacRATLT,
+		ColumnMeta.PhashID, ColumnMeta.PhashNAME, ColumnMeta.PhashPFROM,
+		ColumnMeta.PhashQFROM, ColumnMeta.PhashPTO, ColumnMeta.PhashQTO,
+		ColumnMeta.PhashRATLT,
+		ColumnMeta.TfmrID, ColumnMeta.TfmrNAME, ColumnMeta.TfmrPFROM,
+		ColumnMeta.TfmrQFROM, ColumnMeta.TfmrPTO, ColumnMeta.TfmrQTO,
+		ColumnMeta.TfmrRATLT,
+		ColumnMeta.SwID, ColumnMeta.SwNAME, ColumnMeta.SwPFROM, ColumnMeta.SwQFROM,
+		ColumnMeta.SwPTO, ColumnMeta.SwQTO, ColumnMeta.SwOPLD, ColumnMeta.SwENAB,
+		ColumnMeta.SwTRTIME,
+		ColumnMeta.AreaID, ColumnMeta.AreaNAME, ColumnMeta.OwnerID,
+		ColumnMeta.OwnerNAME, ColumnMeta.StationID, ColumnMeta.StationNAME,
+		ColumnMeta.VlevID, ColumnMeta.VlevNAME);
+
+	/** columns read directly from the model each iteration, or used to set up monitors */
+	static final EnumSet<ColumnMeta> InjectionCols = EnumSet.of(
+		ColumnMeta.GenPS, ColumnMeta.GenQS, ColumnMeta.GenVS, ColumnMeta.GenMINQ,
+		ColumnMeta.GenMAXQ, ColumnMeta.GenOPMINP, ColumnMeta.GenOPMAXP,
+		ColumnMeta.LoadP, ColumnMeta.LoadQ, ColumnMeta.LoadPMAX, ColumnMeta.LoadQMAX);
+
+	/** columns cached in branch, shunt and SVC calculations and in B' and B'' */
+	static final EnumSet<ColumnMeta> ValueCols = EnumSet.of(
+		ColumnMeta.LoadINSVC,
+		ColumnMeta.ShcapB, ColumnMeta.ShcapINSVC,
+		ColumnMeta.ShreacB, ColumnMeta.ShreacINSVC,
+		ColumnMeta.SvcQS, ColumnMeta.SvcQMIN, ColumnMeta.SvcQMAX, ColumnMeta.SvcVS,
+		ColumnMeta.SvcOMODE,
+		ColumnMeta.LineR, ColumnMeta.LineX, ColumnMeta.LineBFROM, ColumnMeta.LineBTO,
+		ColumnMeta.SercapR, ColumnMeta.SercapX,
+		ColumnMeta.SerreacR, ColumnMeta.SerreacX,
+		ColumnMeta.PhashR, ColumnMeta.PhashX, ColumnMeta.PhashGMAG, ColumnMeta.PhashBMAG,
+		ColumnMeta.PhashANG, ColumnMeta.PhashTAPFROM, ColumnMeta.PhashTAPTO,
+		ColumnMeta.PhashCTRLMODE, ColumnMeta.PhashHASREG, ColumnMeta.PhashMXANG,
+		ColumnMeta.PhashMNANG, ColumnMeta.PhashMXMW, ColumnMeta.PhashMNMW,
+		ColumnMeta.TfmrR, ColumnMeta.TfmrX, ColumnMeta.TfmrGMAG, ColumnMeta.TfmrBMAG,
+		ColumnMeta.TfmrANG, ColumnMeta.TfmrTAPFROM, ColumnMeta.TfmrTAPTO,
+		ColumnMeta.TfmrMINREGKV, ColumnMeta.TfmrMAXREGKV, ColumnMeta.TfmrREGBUS,
+		ColumnMeta.TfmrTAPBUS, ColumnMeta.TfmrREGENAB, ColumnMeta.TfmrHASREG,
+		ColumnMeta.TfmrMNTPFROM, ColumnMeta.TfmrMXTPFROM, ColumnMeta.TfmrMNTPTO,
+		ColumnMeta.TfmrMXTPTO, ColumnMeta.TfmrSTEPFROM, ColumnMeta.TfmrSTEPTO);
+
+	PAModel _model;
+	PowerFlowFactory _factory;
+	FDPowerFlow _pf = null;
+	BusRefIndex _bri;
+	Rebind _last = Rebind.Topology;
+
+	/**
+	 * Create a session using the fast-decoupled power flow
+	 * @param model model to solve
+	 */
+	public PowerFlowSession(PAModel model)
+	{
+		this(model, FDPowerFlow::new);
+	}
+
+	/**
+	 * Create a session
+	 * @param model model to solve
+	 * @param factory create and configure the power flow after topology changes
+	 */
+	public PowerFlowSession(PAModel model, PowerFlowFactory factory)
+	{
+		_model = model;
+		_factory = factory;
+	}
+
+	/**
+	 * Determine the work needed for a set of model changes
+	 * @param changes changed columns
+	 * @return most costly rebind needed by any changed column
+	 */
+	public static Rebind classify(Collection<ColChange> changes)
+	{
+		Rebind rv = Rebind.None;
+		for(ColChange c : changes)
+		{
+			if (c.size() == 0) continue;
+			ColumnMeta m = c.getColMeta();
+			Rebind r;
+			if (IgnoreCols.contains(m))
+				r = Rebind.None;
+			else if (InjectionCols.contains(m))
+				r = Rebind.Injections;
+			else if (ValueCols.contains(m))
+				r = Rebind.Values;
+			else
+				r = Rebind.Topology;
+			if (r.compareTo(rv) > 0) rv = r;
+		}
+		return rv;
+	}
+
+	/**
+	 * Bring the power flow up to date with the model and solve it
+	 * @return convergence results
+	 * @throws PAModelException
+	 */
+	public ConvergenceList runPF() throws PAModelException
+	{
+		_last = (_pf == null) ? Rebind.Topology : classify(_model.getChanges());
+		switch(_last)
+		{
+			case Topology:
+				if (_pf != null) _model.refreshTopology();
+				_bri = BusRefIndex.CreateFromSingleBuses(_model);
+				_pf = _factory.create(_model, _bri);
+				break;
+			case Values:
+				_pf.rebuildValues();
+				break;
+			case Injections:
+			case None:
+				_pf.resetRun();
+				break;
+		}
+		ConvergenceList rv = _pf.runPF();
+		_pf.updateResults();
+		_model.clearChanges();
+		return rv;
+	}
+
+	/**
+	 * Get the current power flow
+	 * @return power flow, or null if not yet run
+	 */
+	public FDPowerFlow getPowerFlow() {return _pf;}
+
+	/**
+	 * Get the rebind performed for the most recent run
+	 * @return work done to bring the power flow up to date
+	 */
+	public Rebind getLastRebind() {return _last;}
+}
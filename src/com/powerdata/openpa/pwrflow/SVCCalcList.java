@@ -1,5 +1,6 @@
 package com.powerdata.openpa.pwrflow;
 import java.util.AbstractList;
+import java.util.Arrays;
 import com.powerdata.openpa.Bus;
 import com.powerdata.openpa.BusList;
 import com.powerdata.openpa.BusRefIndex;
@@ -13,7 +14,10 @@ import com.powerdata.openpa.SVCList;
 
 /**
  * Calculate SVC injections (and B'' entry) based on bus voltage mag.
- * TODO:  SVC logic not working, review OTS algorithm
+ * 
+ * Within the control range the SVC follows its slope, and B'' gets the
+ * susceptance equivalent to the slope. At either limit the SVC is a fixed
+ * susceptance, which is also entered in B''.
  * @author chris@powerdata.com
  *
  */
@@ -93,6 +97,13 @@ public class SVCCalcList extends AbstractList<com.powerdata.openpa.pwrflow.SVCCa
 	int[] _busidx, _regidx;
 	float[] _b, _q;
 	SVCState[] _state;
+	/** limit each SVC is held at (null to follow its characteristic), and the last limit reached */
+	SVCState[] _hold, _lastlim;
+	/** SVC parameters, read from the model once at construction */
+	float[] _qmax, _qmin, _slope, _vmsc, _vmin, _vmax, _qs;
+	boolean[] _regkv;
+	/** susceptance (p.u.) at the capacitive and reactive limits */
+	float[] _bcap, _breac;
 	float _sbase = 100f;
 
 	/**
@@ -111,6 +122,37 @@ public class SVCCalcList extends AbstractList<com.powerdata.openpa.pwrflow.SVCCa
 		_buses = bri.getBuses();
 		_busidx = bri.get1TBus(svcs);
 		_regidx = bri.mapBusFcn(svcs, i -> svcs.getRegBus(i));
+		int n = svcs.size();
+		_b = new float[n];
+		_q = new float[n];
+		_state = new SVCState[n];
+		_hold = new SVCState[n];
+		_lastlim = new SVCState[n];
+		_qmax = svcs.getMaxQ();
+		_qmin = svcs.getMinQ();
+		_slope = svcs.getSlope();
+		_qs = svcs.getQS();
+		_vmsc = new float[n];
+		_vmin = new float[n];
+		_vmax = new float[n];
+		_regkv = new boolean[n];
+		_bcap = new float[n];
+		_breac = new float[n];
+		for(int i=0; i < n; ++i)
+		{
+			SVC svc = svcs.get(i);
+			float s = _slope[i];
+			float vmsc = svc.getVS() / svc.getBus().getVoltageLevel().getBaseKV();
+			float vmin = vmsc - s * _qmax[i];
+			float vmax = vmsc - s * _qmin[i];
+			_vmsc[i] = vmsc;
+			_vmin[i] = vmin;
+			_vmax[i] = vmax;
+			_regkv[i] = svc.isRegKV();
+			//TODO:  verify the per-unit conversion, is this on 100-mva, or max limit like slope?
+			_bcap[i] = PAMath.mva2pu(_qmax[i] / (vmin * vmin), _sbase);
+			_breac[i] = PAMath.mva2pu(_qmin[i] / (vmax * vmax), _sbase);
+		}
 	}
 	
 	public SVC getSVC(int ndx)
@@ -185,57 +227,97 @@ public class SVCCalcList extends AbstractList<com.powerdata.openpa.pwrflow.SVCCa
 		//TODO:  handle remote regulation
 		
 		int n = size();
-		_b = new float[n];
-		_q = new float[n];
-		_state = new SVCState[n];
 		for(int i=0; i < n; ++i)
+			calc(i, vmpu);
+	}
+
+	/**
+	 * Calculate a subset of SVC's and add the injections to the reactive mismatches
+	 * @param vmpu Per-unit solved voltage magnitude
+	 * @param qmm reactive power mismatches by bus
+	 * @param subset SVC indexes to calculate
+	 * @throws PAModelException
+	 */
+	public void calcMismatches(float[] vmpu, float[] qmm, int[] subset) throws PAModelException
+	{
+		for(int i : subset)
 		{
-			SVCCalc calc = get(i);
-			SVC svc = calc.getSVC();
+			calc(i, vmpu);
+			qmm[_busidx[i]] += _q[i];
+		}
+	}
 
-			float qmax = svc.getMaxQ(),
-				  qmin = svc.getMinQ();
-			float s = svc.getSlope();
-			float vmsc = svc.getVS() / svc.getBus().getVoltageLevel().getBaseKV();
-			float vmin = vmsc - s * qmax;
-			float vmax = vmsc - s * qmin;
-			float vm = vmpu[_busidx[i]];
-			float vmsq = vm * vm;
-			//TODO:  verify the per-unit conversion, is this on 100-mva, or max limit like slope?
-			float bcap = PAMath.mva2pu(qmax / (vmin * vmin), _sbase);
-			float breac = PAMath.mva2pu(qmin / (vmax * vmax), _sbase);
-			if(svc.isRegKV() && svc.getSlope() > 0f)
+	void calc(int i, float[] vmpu)
+	{
+		float s = _slope[i];
+		float vm = vmpu[_busidx[i]];
+		float vmsq = vm * vm;
+		float bcap = _bcap[i], breac = _breac[i];
+		if(_regkv[i] && s > 0f)
+		{
+			SVCState hold = _hold[i];
+			if(hold == SVCState.CapacitorLimit || (hold == null && vm < _vmin[i]))
 			{
-				if(vm < vmin)
-				{
-					/* at capacitive limit */
-					_state[i] = SVCState.CapacitorLimit;
-					_b[i] = bcap;
-					_q[i] = bcap * vmsq;
-				}
-				else if (vm > vmax)
-				{
-					/* at reactive limit */
-					_state[i] = SVCState.ReactorLimit;
-					_b[i] = breac;
-					_q[i] = breac * vmsq;
-				}
-				else
-				{
-					_state[i] = SVCState.Normal;
-//					_b[i] = -1f/s;
-					_b[i] = 0f;
-					_q[i] = (vmsc - vm) / (100f*s);
-					System.err.format("SVC: %f\n", _q[i]);
-				}
+				/* at capacitive limit */
+				_state[i] = SVCState.CapacitorLimit;
+				_lastlim[i] = SVCState.CapacitorLimit;
+				_b[i] = bcap;
+				_q[i] = bcap * vmsq;
+			}
+			else if (hold == SVCState.ReactorLimit || (hold == null && vm > _vmax[i]))
+			{
+				/* at reactive limit */
+				_state[i] = SVCState.ReactorLimit;
+				_lastlim[i] = SVCState.ReactorLimit;
+				_b[i] = breac;
+				_q[i] = breac * vmsq;
 			}
 			else
 			{
-				_state[i] = SVCState.FixedMVAr;
-				float qs = svc.getQS()/_sbase;
-				_q[i] = (qs > 0f) ? Math.min(qs, bcap * vmsq) : Math.max(qs,  breac * vmsq);
+				/* on the slope, dQ/dV is -1/slope */
+				_state[i] = SVCState.Normal;
+				_b[i] = -1f / (s * _sbase);
+				_q[i] = (_vmsc[i] - vm) / (s * _sbase);
 			}
 		}
+		else
+		{
+			_state[i] = SVCState.FixedMVAr;
+			_b[i] = 0f;
+			float qs = _qs[i]/_sbase;
+			_q[i] = (qs > 0f) ? Math.min(qs, bcap * vmsq) : Math.max(qs,  breac * vmsq);
+		}
+	}
+
+	/**
+	 * Hold an SVC at the limit it is at, or last reached, so that its
+	 * susceptance stops changing. SVC's that have not reached a limit are
+	 * left as they are.
+	 *
+	 * @param ndx
+	 *            SVC offset
+	 * @return susceptance for B'' (p.u.), applied in the next calculation
+	 */
+	float hold(int ndx)
+	{
+		SVCState lim = (_state[ndx] == SVCState.Normal) ? _lastlim[ndx] : _state[ndx];
+		if (lim == SVCState.CapacitorLimit || lim == SVCState.ReactorLimit)
+		{
+			_hold[ndx] = lim;
+			if (_state[ndx] != lim)
+			{
+				_state[ndx] = lim;
+				_b[ndx] = (lim == SVCState.CapacitorLimit) ? _bcap[ndx] : _breac[ndx];
+			}
+		}
+		return _b[ndx];
+	}
+
+	/** release all held SVC's */
+	void release()
+	{
+		Arrays.fill(_hold, null);
+		Arrays.fill(_lastlim, null);
 	}
 
 	public void applyMismatches(Mismatch qmm)
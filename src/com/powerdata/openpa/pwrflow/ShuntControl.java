@@ -0,0 +1,334 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+import com.powerdata.openpa.BusList;
+import com.powerdata.openpa.ElectricalIsland;
+import com.powerdata.openpa.FixedShunt;
+import com.powerdata.openpa.PAModelException;
+import com.powerdata.openpa.pwrflow.ConvergenceList.ConvergenceInfo;
+
+/**
+ * Discrete shunt switching and SVC susceptance tracking during the power flow
+ * iterations.
+ *
+ * Each in-service shunt capacitor and reactor selected as switchable is
+ * treated as a block that can be switched in or out to hold the voltage at
+ * its bus within a band. Switching changes only the shunt injections, not the
+ * in-service state of the shunts. SVC's change their B'' susceptance as they
+ * move between the slope and their limits. All changes are made to the B''
+ * diagonal and reported so that the power flow can refactorize once for the
+ * whole batch.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class ShuntControl
+{
+	/**
+	 * Receive changes to the B'' diagonal
+	 *
+	 * @author chris@powerdata.com
+	 *
+	 */
+	@FunctionalInterface
+	interface BppDiagUpdate
+	{
+		/**
+		 * Apply a change to the B'' diagonal
+		 * @param bus bus index
+		 * @param db change to the diagonal
+		 */
+		void update(int bus, float db);
+	}
+
+	/** a switchable shunt block */
+	class Block
+	{
+		FixedShuntCalcList _list;
+		int _ndx, _bus, _isl;
+		/** nominal susceptance (p.u.) */
+		float _b;
+		/** last direction switched (-1 out, 0, 1 in) and number of reversals */
+		int _lastdir = 0, _nrev = 0;
+		/** no longer switched */
+		boolean _done = false;
+
+		Block(FixedShuntCalcList list, int ndx, BusList buses) throws PAModelException
+		{
+			_list = list;
+			_ndx = ndx;
+			_bus = list._buslist[ndx];
+			_isl = buses.getIsland(_bus).getIndex();
+			_b = list.getBnom(ndx);
+		}
+
+		void reset()
+		{
+			_lastdir = 0;
+			_nrev = 0;
+			_done = false;
+		}
+
+		/** @return 1 to switch in, -1 to switch out, 0 to leave as is */
+		int direction(float[] vm)
+		{
+			if (_done) return 0;
+			float v = vm[_bus];
+			boolean on = _list.isOn(_ndx);
+			/* capacitors raise the voltage, reactors lower it */
+			boolean low = v < _vmin, high = v > _vmax;
+			if (_b > 0f)
+			{
+				if (!on && low) return 1;
+				if (on && high) return -1;
+			}
+			else
+			{
+				if (!on && high) return 1;
+				if (on && low) return -1;
+			}
+			return 0;
+		}
+
+		/**
+		 * Track the direction of switching, and stop blocks that keep
+		 * switching back and forth
+		 * @return true if the block should be switched
+		 */
+		boolean track(int dir)
+		{
+			if (_lastdir != 0 && dir != _lastdir && ++_nrev > MaxReversals)
+			{
+				_done = true;
+				return false;
+			}
+			_lastdir = dir;
+			return true;
+		}
+	}
+
+	/** direction reversals allowed before a block stops switching */
+	static final int MaxReversals = 2;
+	/** B'' changes allowed for an SVC in a run before it is held at a limit */
+	static final int MaxSVCChanges = 6;
+
+	List<Block> _blocks = new ArrayList<>();
+	/** shunt calculators and buses, kept to select blocks again */
+	List<FixedShuntCalcList> _fsh;
+	BusList _buses;
+	SVCCalcList _svc;
+	/** SVC bus and susceptance currently entered in B'' */
+	int[] _svcbus;
+	float[] _svcb;
+	/** number of B'' changes for each SVC during the run */
+	int[] _svcchg;
+	/** voltage band (p.u.) held by switching */
+	float _vmin = 0.95f, _vmax = 1.05f;
+	/** only switch when reactive mismatches are under this limit (p.u.) */
+	float _mmtol = 0.05f;
+	/** number of islands in the model */
+	int _islcount;
+	/** buses already switched in the current iteration */
+	boolean[] _switched;
+	/** number of blocks switched during the run */
+	int _nswitch = 0;
+
+	/**
+	 * Find switchable shunts and SVC's
+	 *
+	 * @param calc
+	 *            AC power calculations
+	 * @param buses
+	 *            buses in the power flow topology
+	 * @param nIslands
+	 *            number of islands in the model
+	 * @throws PAModelException
+	 */
+	public ShuntControl(ACPowerCalc calc, BusList buses, int nIslands) throws PAModelException
+	{
+		_islcount = nIslands;
+		_switched = new boolean[buses.size()];
+		_fsh = calc.getFixedShuntCalc();
+		_buses = buses;
+		setSwitchable(null);
+		_svc = calc.getSVCCalc();
+		_svcbus = _svc._busidx;
+		int nsvc = _svc.size();
+		_svcb = new float[nsvc];
+		_svcchg = new int[nsvc];
+	}
+
+	/**
+	 * Select the shunts that can be switched. The model has no switchable
+	 * attribute for shunts, so by default every in-service shunt with a
+	 * nonzero susceptance can be switched.
+	 *
+	 * @param sel
+	 *            true for switchable shunts, null to switch all of them
+	 * @throws PAModelException
+	 */
+	public void setSwitchable(Predicate<FixedShunt> sel) throws PAModelException
+	{
+		_blocks.clear();
+		for(FixedShuntCalcList fs : _fsh)
+		{
+			int n = fs.size();
+			for(int i=0; i < n; ++i)
+			{
+				if (fs.getBnom(i) != 0f && (sel == null || sel.test(fs.getShunt(i))))
+					_blocks.add(new Block(fs, i, _buses));
+			}
+		}
+	}
+
+	/** @return number of switchable shunt blocks */
+	public int getBlockCount() {return _blocks.size();}
+
+	/** @return number of blocks switched during the last run */
+	public int getSwitchCount() {return _nswitch;}
+
+	/**
+	 * Set the voltage band held by switching shunts. Defaults to 0.95 to
+	 * 1.05.
+	 *
+	 * @param vmin
+	 *            low voltage (p.u.)
+	 * @param vmax
+	 *            high voltage (p.u.)
+	 */
+	public void setVoltageBand(float vmin, float vmax)
+	{
+		_vmin = vmin;
+		_vmax = vmax;
+	}
+
+	/** @return low end of the voltage band (p.u.) */
+	public float getVoltageBandMin() {return _vmin;}
+
+	/** @return high end of the voltage band (p.u.) */
+	public float getVoltageBandMax() {return _vmax;}
+
+	/** clear the state of controls before a new run */
+	public void reset()
+	{
+		_blocks.forEach(b -> b.reset());
+		Arrays.fill(_svcchg, 0);
+		_svc.release();
+		_nswitch = 0;
+	}
+
+	/**
+	 * Enter the SVC susceptances calculated with the latest mismatches into
+	 * B''
+	 *
+	 * @param upd
+	 *            receive B'' changes
+	 * @return number of SVC's changed
+	 */
+	int applySVC(BppDiagUpdate upd)
+	{
+		int n = _svcb.length, nchg = 0;
+		for(int i=0; i < n; ++i)
+			if (applySVC(upd, i)) ++nchg;
+		return nchg;
+	}
+
+	/**
+	 * Enter the susceptances of a subset of SVC's (those in an island, for
+	 * example) into B''. Separate subsets can be applied concurrently.
+	 *
+	 * @param upd
+	 *            receive B'' changes
+	 * @param subset
+	 *            SVC indexes
+	 * @return number of SVC's changed
+	 */
+	int applySVC(BppDiagUpdate upd, int[] subset)
+	{
+		int nchg = 0;
+		for(int i : subset)
+			if (applySVC(upd, i)) ++nchg;
+		return nchg;
+	}
+
+	boolean applySVC(BppDiagUpdate upd, int i)
+	{
+		float b = _svc.getBpp(i);
+		if (b == _svcb[i]) return false;
+		/*
+		 * an SVC that keeps moving between the slope and a limit is held at
+		 * the limit, so that its injection and B'' stop changing together
+		 */
+		if (++_svcchg[i] >= MaxSVCChanges)
+			b = _svc.hold(i);
+		upd.update(_svcbus[i], _svcb[i] - b);
+		_svcb[i] = b;
+		return true;
+	}
+
+	/**
+	 * Switch shunt blocks at buses outside the voltage band, in islands where
+	 * the reactive mismatches have settled. At most one block is switched at
+	 * a bus in an iteration.
+	 *
+	 * @param vm
+	 *            bus voltage magnitudes (p.u.)
+	 * @param clist
+	 *            convergence results
+	 * @param upd
+	 *            receive B'' changes
+	 * @return number of blocks switched
+	 */
+	int switchBlocks(float[] vm, ConvergenceList clist, BppDiagUpdate upd)
+	{
+		boolean[] qok = new boolean[_islcount];
+		for(ConvergenceInfo ci : clist)
+		{
+			if (ci.completed()) continue;
+			qok[ci.getIsland().getIndex()] = Math.abs(ci.getWorstQ().getValue()) < _mmtol;
+		}
+
+		int nsw = 0;
+		for(Block b : _blocks)
+		{
+			if (!qok[b._isl] || _switched[b._bus]) continue;
+			int dir = b.direction(vm);
+			if (dir == 0 || !b.track(dir)) continue;
+			b._list.setOn(b._ndx, dir > 0);
+			/* shunt susceptance enters B'' negated */
+			upd.update(b._bus, (dir > 0) ? -b._b : b._b);
+			_switched[b._bus] = true;
+			++nsw;
+		}
+		if (nsw > 0)
+		{
+			for(Block b : _blocks)
+				_switched[b._bus] = false;
+		}
+		_nswitch += nsw;
+		return nsw;
+	}
+
+	/**
+	 * Test if shunt blocks in an island hold their bus voltages, or can no
+	 * longer switch
+	 *
+	 * @param vm
+	 *            bus voltage magnitudes (p.u.)
+	 * @param island
+	 *            island to test
+	 * @return true if no further switching is needed
+	 */
+	public boolean satisfied(float[] vm, ElectricalIsland island)
+	{
+		int x = island.getIndex();
+		for(Block b : _blocks)
+		{
+			if (b._isl == x && b.direction(vm) != 0) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,191 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.Arrays;
+import com.powerdata.openpa.GenList;
+import com.powerdata.openpa.PAModelException;
+
+/**
+ * Distribute slack to the generating units of an island in proportion to
+ * participation factors.
+ *
+ * Factors and limits are loaded into primitive arrays once, and setpoints are
+ * read from and written to the full generator list in a single bulk pass for
+ * each distribution.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class SlackDistributor
+{
+	/**
+	 * Provide participation factors for a set of units
+	 *
+	 * @author chris@powerdata.com
+	 *
+	 */
+	@FunctionalInterface
+	public interface ParticipationFactors
+	{
+		/**
+		 * Get participation factors
+		 * @param gens units participating in an island
+		 * @return factor for each unit, parallel with gens (0 to exclude a unit)
+		 * @throws PAModelException
+		 */
+		float[] get(GenList gens) throws PAModelException;
+
+		/** Participation in proportion to operating maximum MW (default) */
+		static ParticipationFactors OpMaxP = gens -> gens.getOpMaxP().clone();
+
+		/**
+		 * Participation factors supplied for each unit
+		 * @param factors factor for each generator, by index in the model generator list
+		 * @return participation factors
+		 */
+		static ParticipationFactors fromArray(float[] factors)
+		{
+			return gens ->
+			{
+				int n = gens.size();
+				float[] rv = new float[n];
+				for(int i=0; i < n; ++i)
+					rv[i] = factors[gens.get(i).getIndex()];
+				return rv;
+			};
+		}
+
+		/**
+		 * Area-based participation. Each area takes a share of the slack,
+		 * which is distributed within the area using another set of factors.
+		 *
+		 * @param share
+		 *            share of each area, by area index (need not sum to 1
+		 *            within an island)
+		 * @param within
+		 *            factors used within each area
+		 * @return participation factors
+		 */
+		static ParticipationFactors byArea(float[] share, ParticipationFactors within)
+		{
+			return gens ->
+			{
+				int n = gens.size();
+				float[] w = within.get(gens);
+				int[] area = new int[n];
+				float[] asum = new float[share.length];
+				for(int i=0; i < n; ++i)
+				{
+					int a = gens.get(i).getBus().getArea().getIndex();
+					area[i] = a;
+					asum[a] += w[i];
+				}
+				float[] rv = new float[n];
+				for(int i=0; i < n; ++i)
+				{
+					float s = asum[area[i]];
+					rv[i] = (s == 0f) ? 0f : share[area[i]] * w[i] / s;
+				}
+				return rv;
+			};
+		}
+	}
+
+	/** full generator list holding the setpoints */
+	GenList _gens;
+	/** index of each unit in _gens */
+	int[] _ndx;
+	/** participation factors */
+	float[] _pf;
+	/** operating maximum MW */
+	float[] _pmax;
+	/** working setpoints */
+	float[] _ps;
+
+	/**
+	 * Create a distributor for the units of an island
+	 *
+	 * @param gens
+	 *            full generator list (PAModel.getGenerators())
+	 * @param units
+	 *            units participating, generator objects index into gens
+	 * @param pf
+	 *            participation factors
+	 * @throws PAModelException
+	 */
+	public SlackDistributor(GenList gens, GenList units, ParticipationFactors pf)
+			throws PAModelException
+	{
+		_gens = gens;
+		int n = units.size();
+		_ndx = new int[n];
+		for(int i=0; i < n; ++i)
+			_ndx[i] = units.get(i).getIndex();
+		_pf = pf.get(units);
+		_pmax = units.getOpMaxP().clone();
+		_ps = new float[n];
+	}
+
+	/**
+	 * Distribute a mismatch to the units. Units that reach a limit are
+	 * removed and the remainder redistributed among the others.
+	 *
+	 * @param mm
+	 *            slack bus mismatch in MW (positive to reduce generation)
+	 * @param emerfactor
+	 *            fraction of operating maximum MW usable for slack
+	 * @param tol
+	 *            tolerance to stop distributing (MW)
+	 * @return MW that could not be distributed because all units reached
+	 *         limits
+	 * @throws PAModelException
+	 */
+	public float distribute(float mm, float emerfactor, float tol) throws PAModelException
+	{
+		int n = _ndx.length;
+		float[] ps = _gens.getPS();
+		for(int i=0; i < n; ++i)
+			_ps[i] = ps[_ndx[i]];
+
+		float rem = -mm;
+		boolean up = rem > 0f;
+		boolean[] avail = new boolean[n];
+		int navail = 0;
+		for(int i=0; i < n; ++i)
+		{
+			float head = up ? _pmax[i] * emerfactor - _ps[i] : -_ps[i];
+			avail[i] = _pf[i] > 0f && (up ? head > 0f : head < 0f);
+			if (avail[i]) ++navail;
+		}
+
+		while (navail > 0 && Math.abs(rem) > tol)
+		{
+			float pfsum = 0f;
+			for(int i=0; i < n; ++i)
+				if (avail[i]) pfsum += _pf[i];
+			float used = 0f;
+			for(int i=0; i < n; ++i)
+			{
+				if (!avail[i]) continue;
+				float pdes = rem * _pf[i] / pfsum;
+				float head = up ? _pmax[i] * emerfactor - _ps[i] : -_ps[i];
+				if (up ? pdes >= head : pdes <= head)
+				{
+					pdes = head;
+					avail[i] = false;
+					--navail;
+				}
+				_ps[i] += pdes;
+				used += pdes;
+			}
+			rem -= used;
+		}
+
+		for(int i=0; i < n; ++i)
+			ps[_ndx[i]] = _ps[i];
+		_gens.setPS(ps);
+		return -rem;
+	}
+
+	/** @return participation factors, parallel with the units */
+	public float[] getFactors() {return Arrays.copyOf(_pf, _pf.length);}
+}
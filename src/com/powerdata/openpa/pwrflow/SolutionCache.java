@@ -0,0 +1,268 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.powerdata.openpa.ACBranchList;
+import com.powerdata.openpa.BusList;
+import com.powerdata.openpa.BusRefIndex;
+import com.powerdata.openpa.PAModel;
+import com.powerdata.openpa.PAModelException;
+import com.powerdata.openpa.pwrflow.ConvergenceList.ConvergenceInfo;
+
+/**
+ * Cache of converged power flow solutions used to warm-start later power
+ * flows.
+ *
+ * Solutions are stored by connectivity bus so that they can seed any
+ * topology of the same network, and are keyed by a topology fingerprint
+ * built from the single-bus grouping and the set of in-service AC branches.
+ * A power flow is seeded from the solution with a matching topology, or from
+ * the closest one if there is no match. A single cache may be shared between
+ * models cloned from the same case (for example, across contingencies).
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class SolutionCache
+{
+	/**
+	 * Topology fingerprint of a model
+	 *
+	 * @author chris@powerdata.com
+	 *
+	 */
+	public static class Topology
+	{
+		/** lowest connectivity bus index in the same topology bus, by connectivity bus */
+		int[] _grp;
+		/** in-service AC branches, numbered across all branch lists */
+		BitSet _insvc;
+		/** topology bus index by connectivity bus */
+		int[] _tbus;
+		long _hash;
+
+		public Topology(PAModel model, BusRefIndex bri) throws PAModelException
+		{
+			BusList mbus = model.getBuses();
+			int nbus = mbus.size();
+			_tbus = bri.mapBusFcn(mbus, i -> mbus.get(i));
+			int[] first = new int[bri.getBuses().size()];
+			Arrays.fill(first, -1);
+			_grp = new int[nbus];
+			for(int i=0; i < nbus; ++i)
+			{
+				int t = _tbus[i];
+				if (first[t] == -1) first[t] = i;
+				_grp[i] = first[t];
+			}
+
+			_insvc = new BitSet();
+			int ofs = 0;
+			for(ACBranchList l : model.getACBranches())
+			{
+				int n = l.size();
+				boolean[] s = l.isInService();
+				for(int i=0; i < n; ++i)
+				{
+					if (s[i]) _insvc.set(ofs+i);
+				}
+				ofs += n;
+			}
+
+			_hash = Arrays.hashCode(_grp) * 31L + _insvc.hashCode();
+		}
+
+		/**
+		 * Measure how far apart two topologies are
+		 * @param o other topology
+		 * @return count of regrouped buses plus changed branches
+		 */
+		public int distance(Topology o)
+		{
+			int n = Math.min(_grp.length, o._grp.length);
+			int rv = Math.abs(_grp.length - o._grp.length);
+			for(int i=0; i < n; ++i)
+			{
+				if (_grp[i] != o._grp[i]) ++rv;
+			}
+			BitSet x = (BitSet) _insvc.clone();
+			x.xor(o._insvc);
+			return rv + x.cardinality();
+		}
+
+		public long getFingerprint() {return _hash;}
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode(_hash);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Topology)) return false;
+			Topology o = (Topology) obj;
+			return _hash == o._hash && Arrays.equals(_grp, o._grp)
+					&& _insvc.equals(o._insvc);
+		}
+	}
+
+	/** stored voltages for a single topology */
+	static class Entry
+	{
+		/** voltage magnitude (p.u.) by connectivity bus, NaN if not solved */
+		float[] _vm;
+		/** voltage angle (rad) by connectivity bus, NaN if not solved */
+		float[] _va;
+		Entry(float[] vm, float[] va)
+		{
+			_vm = vm;
+			_va = va;
+		}
+	}
+
+	/** solutions in order of use */
+	LinkedHashMap<Topology, Entry> _cache;
+	int _maxsize;
+
+	/** Create a cache holding up to 16 solutions */
+	public SolutionCache()
+	{
+		this(16);
+	}
+
+	/**
+	 * Create a cache
+	 * @param maxsize maximum number of solutions to hold, least recently used
+	 * solutions are dropped first
+	 */
+	public SolutionCache(int maxsize)
+	{
+		_maxsize = maxsize;
+		_cache = new LinkedHashMap<Topology, Entry>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Topology, Entry> e)
+			{
+				return size() > _maxsize;
+			}
+		};
+	}
+
+	public synchronized int size() {return _cache.size();}
+
+	public synchronized void clear() {_cache.clear();}
+
+	/**
+	 * Seed voltages from the closest cached solution. Buses without a cached
+	 * value are left unchanged.
+	 *
+	 * @param t
+	 *            topology to solve
+	 * @param vm
+	 *            voltage magnitudes (p.u.) by topology bus, updated in place
+	 * @param va
+	 *            voltage angles (rad) by topology bus, updated in place
+	 * @return true if a cached solution was applied
+	 */
+	public synchronized boolean seed(Topology t, float[] vm, float[] va)
+	{
+		Entry e = _cache.get(t);
+		if (e == null)
+		{
+			int best = Integer.MAX_VALUE;
+			for(Map.Entry<Topology, Entry> c : _cache.entrySet())
+			{
+				int d = t.distance(c.getKey());
+				if (d < best)
+				{
+					best = d;
+					e = c.getValue();
+				}
+			}
+			if (e == null) return false;
+		}
+		int n = Math.min(t._tbus.length, e._vm.length);
+		for(int i=0; i < n; ++i)
+		{
+			float cvm = e._vm[i];
+			if (!Float.isNaN(cvm))
+			{
+				int tb = t._tbus[i];
+				vm[tb] = cvm;
+				va[tb] = e._va[i];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Store the solution of converged islands
+	 *
+	 * @param t
+	 *            solved topology
+	 * @param vm
+	 *            voltage magnitudes (p.u.) by topology bus
+	 * @param va
+	 *            voltage angles (rad) by topology bus
+	 * @param buses
+	 *            topology buses
+	 * @param results
+	 *            power flow convergence results
+	 * @throws PAModelException
+	 */
+	public void store(Topology t, float[] vm, float[] va, BusList buses,
+			ConvergenceList results) throws PAModelException
+	{
+		BitSet cnvisl = new BitSet();
+		for(ConvergenceInfo ci : results)
+		{
+			if (ci.getStatus() == ConvergenceList.Status.Converge)
+				cnvisl.set(ci.getIsland().getIndex());
+		}
+		if (cnvisl.isEmpty()) return;
+		int ntbus = buses.size();
+		boolean[] cnv = new boolean[ntbus];
+		for(int i=0; i < ntbus; ++i)
+			cnv[i] = cnvisl.get(buses.getIsland(i).getIndex());
+
+		int nbus = t._tbus.length;
+		float[] cvm = new float[nbus], cva = new float[nbus];
+		for(int i=0; i < nbus; ++i)
+		{
+			int tb = t._tbus[i];
+			if (cnv[tb])
+			{
+				cvm[i] = vm[tb];
+				cva[i] = va[tb];
+			}
+			else
+			{
+				cvm[i] = Float.NaN;
+				cva[i] = Float.NaN;
+			}
+		}
+		synchronized(this)
+		{
+			_cache.put(t, new Entry(cvm, cva));
+		}
+	}
+
+	/**
+	 * Drop cached solutions further than a given distance from a topology
+	 * @param t reference topology
+	 * @param maxdist maximum distance to keep
+	 */
+	public synchronized void trim(Topology t, int maxdist)
+	{
+		for(Iterator<Topology> i = _cache.keySet().iterator(); i.hasNext();)
+		{
+			if (t.distance(i.next()) > maxdist) i.remove();
+		}
+	}
+}
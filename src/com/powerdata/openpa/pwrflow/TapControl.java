@@ -0,0 +1,407 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.powerdata.openpa.ACBranch;
+import com.powerdata.openpa.Bus;
+import com.powerdata.openpa.BusList;
+import com.powerdata.openpa.ElectricalIsland;
+import com.powerdata.openpa.PAModelException;
+import com.powerdata.openpa.PhaseShifter;
+import com.powerdata.openpa.Transformer;
+import com.powerdata.openpa.pwrflow.ConvergenceList.ConvergenceInfo;
+import com.powerdata.openpa.pwrflow.FDPowerFlow.MatrixSolver;
+import com.powerdata.openpa.tools.PAMath;
+
+/**
+ * Automatic control of transformer taps (LTC) and phase shifter angles during
+ * the power flow iterations.
+ *
+ * Tap and angle moves are sized from sensitivities computed with the
+ * factorized B'' (taps) and B' (angles). All moves within an iteration are
+ * applied together, and B'' element changes are reported so that the power
+ * flow can refactorize once for the whole batch. Phase shifts do not appear
+ * in B', so angle moves never require a refactorization.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class TapControl
+{
+	/**
+	 * Receive changes to B'' elements caused by tap moves
+	 *
+	 * @author chris@powerdata.com
+	 *
+	 */
+	@FunctionalInterface
+	interface BppUpdate
+	{
+		/**
+		 * Apply a change to B''
+		 * @param f from bus
+		 * @param t to bus
+		 * @param br branch offset in the adjacencies
+		 * @param df change to the from-bus diagonal
+		 * @param dt change to the to-bus diagonal
+		 * @param doff change to the off-diagonal
+		 */
+		void update(int f, int t, int br, float df, float dt, float doff);
+	}
+
+	/** state common to all controlled branches */
+	abstract class Ctrl
+	{
+		ACBranchFlowsI _flows;
+		int _ndx, _f, _t, _isl;
+		/** last direction moved (-1, 0, 1) and number of reversals */
+		int _lastdir = 0, _nrev = 0;
+		/** no longer able to move toward the target */
+		boolean _done = false;
+
+		Ctrl(ACBranchFlowsI flows, int ndx, BusList buses) throws PAModelException
+		{
+			_flows = flows;
+			_ndx = ndx;
+			_f = flows.getFromBusIndex(ndx);
+			_t = flows.getToBusIndex(ndx);
+			_isl = buses.getIsland(_f).getIndex();
+		}
+
+		void reset()
+		{
+			_lastdir = 0;
+			_nrev = 0;
+			_done = false;
+		}
+
+		/**
+		 * Track the direction of moves, and stop controls that keep moving
+		 * back and forth across the band
+		 * @return true if the move should be made
+		 */
+		boolean track(float move)
+		{
+			int dir = (move > 0f) ? 1 : -1;
+			if (_lastdir != 0 && dir != _lastdir && ++_nrev > MaxReversals)
+			{
+				_done = true;
+				return false;
+			}
+			_lastdir = dir;
+			return true;
+		}
+
+		abstract boolean satisfied(float[] vm);
+	}
+
+	/** load tap changer regulating a bus voltage */
+	class LTC extends Ctrl
+	{
+		boolean _fromside;
+		int _br, _regbus;
+		float _vmin, _vmax, _tmin, _tmax, _step;
+
+		LTC(ACBranchFlowsI flows, int ndx, Transformer x, BusList buses,
+				ACBranchAdjacencies adj) throws PAModelException
+		{
+			super(flows, ndx, buses);
+			_br = adj.findBranch(_f, _t);
+			Bus rb = x.getRegBus();
+			_regbus = buses.getByBus(rb).getIndex();
+			float bkv = rb.getVoltageLevel().getBaseKV();
+			_vmin = x.getMinKV() / bkv;
+			_vmax = x.getMaxKV() / bkv;
+			Bus tb = x.getTapBus();
+			_fromside = tb == null || buses.getByBus(tb).getIndex() != _t;
+			_tmin = _fromside ? x.getFromMinTap() : x.getToMinTap();
+			_tmax = _fromside ? x.getFromMaxTap() : x.getToMaxTap();
+			_step = _fromside ? x.getFromStepSize() : x.getToStepSize();
+		}
+
+		float getTap()
+		{
+			return _fromside ? _flows.getFromTap(_ndx) : _flows.getToTap(_ndx);
+		}
+
+		@Override
+		boolean satisfied(float[] vm)
+		{
+			float v = vm[_regbus];
+			return _done || (v >= _vmin && v <= _vmax);
+		}
+
+		/** @return new tap, or NaN if no move */
+		float move(float[] vm, float[] va, MatrixSolver bpp, float[] rhs)
+		{
+			float v = vm[_regbus];
+			if (_done || (v >= _vmin && v <= _vmax)) return Float.NaN;
+			float[] d = new float[2];
+			_flows.dQdTap(_ndx, _fromside, vm, va, d);
+			float s = bpp.solve(new int[] {_f, _t},
+				new float[] {d[0] / vm[_f], d[1] / vm[_t]},
+				new int[] {_regbus}, rhs)[0];
+			if (Math.abs(s) < MinSens)
+			{
+				_done = true;
+				return Float.NaN;
+			}
+			float tap = getTap(), dt = ((_vmin + _vmax) / 2f - v) / s;
+			float ntap = tap + dt;
+			if (_step > 0f)
+			{
+				/* move to a tap position, at least one step */
+				ntap = _tmin + Math.round((ntap - _tmin) / _step) * _step;
+				if (ntap == tap) ntap = tap + Math.signum(dt) * _step;
+			}
+			ntap = Math.max(_tmin, Math.min(_tmax, ntap));
+			if (ntap == tap || !track(ntap - tap))
+			{
+				_done = true;
+				return Float.NaN;
+			}
+			return ntap;
+		}
+
+		void apply(float ntap, BppUpdate upd) throws PAModelException
+		{
+			float ft = _flows.getFromTap(_ndx), tt = _flows.getToTap(_ndx);
+			float nft = _fromside ? ntap : ft, ntt = _fromside ? tt : ntap;
+			float y = -_flows.getY(_ndx).im();
+			float[] o = BDblPrime.tapElements(y, ft, tt);
+			float[] n = BDblPrime.tapElements(y, nft, ntt);
+			_flows.setTaps(_ndx, nft, ntt);
+			upd.update(_f, _t, _br, n[0]-o[0], n[1]-o[1], n[2]-o[2]);
+		}
+	}
+
+	/** phase shifter regulating the MW flow through it */
+	class PhaseShift extends Ctrl
+	{
+		float _pmin, _pmax, _amin, _amax;
+
+		PhaseShift(ACBranchFlowsI flows, int ndx, PhaseShifter ps, BusList buses)
+			throws PAModelException
+		{
+			super(flows, ndx, buses);
+			_pmin = PAMath.mva2pu(ps.getRegMinMW(), _sbase);
+			_pmax = PAMath.mva2pu(ps.getRegMaxMW(), _sbase);
+			/* limits are in the units of the shift, as used by the flows */
+			_amin = ps.getMinAng();
+			_amax = ps.getMaxAng();
+		}
+
+		@Override
+		boolean satisfied(float[] vm)
+		{
+			float p = _flows.getFromPpu(_ndx);
+			return _done || (p >= _pmin - _ptol && p <= _pmax + _ptol);
+		}
+
+		/** @return new shift, or NaN if no move */
+		float move(float[] vm, float[] va, MatrixSolver bp, float[] rhs)
+		{
+			float p = _flows.getFromPpu(_ndx);
+			if (_done || (p >= _pmin - _ptol && p <= _pmax + _ptol)) return Float.NaN;
+			float[] d = new float[2];
+			_flows.dPdShift(_ndx, vm, va, d);
+			int[] ft = {_f, _t};
+			float[] x = bp.solve(ft, new float[] {d[0] / vm[_f], d[1] / vm[_t]},
+				ft, rhs);
+			/* direct change in flow, less the change from angles moved by the corrections */
+			float s = d[0] * (1f - x[0] + x[1]);
+			if (Math.abs(s) < MinSens)
+			{
+				_done = true;
+				return Float.NaN;
+			}
+			float sh = _flows.getShift(_ndx);
+			float nsh = Math.max(_amin, Math.min(_amax, sh + ((_pmin + _pmax) / 2f - p) / s));
+			if (nsh == sh || !track(nsh - sh))
+			{
+				_done = true;
+				return Float.NaN;
+			}
+			return nsh;
+		}
+	}
+
+	/** smallest sensitivity considered able to regulate */
+	static final float MinSens = 1e-4f;
+	/** direction reversals allowed before a control stops moving */
+	static final int MaxReversals = 2;
+
+	List<LTC> _ltc = new ArrayList<>();
+	List<PhaseShift> _ps = new ArrayList<>();
+	float _sbase;
+	/** only move taps when mismatches are under this limit (p.u.) */
+	float _mmtol = 0.05f;
+	/** tolerance on regulated MW flows (p.u.) */
+	float _ptol;
+	/** number of islands in the model */
+	int _islcount;
+
+	/**
+	 * Find in-service transformers and phase shifters with regulation enabled
+	 *
+	 * @param calc
+	 *            AC power calculations
+	 * @param buses
+	 *            buses in the power flow topology
+	 * @param adj
+	 *            branch adjacencies for B' and B''
+	 * @param sbase
+	 *            system MVA base
+	 * @param ptol
+	 *            active power convergence tolerance (p.u.)
+	 * @param nIslands
+	 *            number of islands in the model
+	 * @throws PAModelException
+	 */
+	public TapControl(ACPowerCalc calc, BusList buses, ACBranchAdjacencies adj,
+			float sbase, float ptol, int nIslands) throws PAModelException
+	{
+		_sbase = sbase;
+		_ptol = ptol;
+		_islcount = nIslands;
+		List<ACBranchFlowsI> flows = calc.getAllBranchFlows();
+		List<int[]> insvc = calc.getInServiceBranches();
+		int nl = flows.size();
+		for(int l=0; l < nl; ++l)
+		{
+			ACBranchFlowsI fl = flows.get(l);
+			for(int i : insvc.get(l))
+			{
+				ACBranch b = fl.getBranch(i);
+				if (b instanceof Transformer)
+				{
+					Transformer x = (Transformer) b;
+					if (x.isRegEnabled() && x.getRegBus() != null
+						&& x.getMaxKV() > x.getMinKV())
+						_ltc.add(new LTC(fl, i, x, buses, adj));
+				}
+				else if (b instanceof PhaseShifter)
+				{
+					PhaseShifter p = (PhaseShifter) b;
+					if (p.hasReg() && p.getControlMode() == PhaseShifter.ControlMode.FixedMW
+						&& p.getMaxAng() > p.getMinAng())
+						_ps.add(new PhaseShift(fl, i, p, buses));
+				}
+			}
+		}
+	}
+
+	/** @return true if there is nothing to control */
+	public boolean isEmpty() {return _ltc.isEmpty() && _ps.isEmpty();}
+
+	/** @return number of regulating transformers */
+	public int getLTCCount() {return _ltc.size();}
+
+	/** @return number of regulating phase shifters */
+	public int getPhaseShifterCount() {return _ps.size();}
+
+	/** clear the state of controls before a new run */
+	public void reset()
+	{
+		_ltc.forEach(c -> c.reset());
+		_ps.forEach(c -> c.reset());
+	}
+
+	/**
+	 * Move taps and angles of controls in islands where the mismatches have
+	 * settled. Sensitivities for all moves are calculated from the current
+	 * factorizations before any move is applied.
+	 *
+	 * @param vm
+	 *            bus voltage magnitudes (p.u.)
+	 * @param va
+	 *            bus voltage angles (rad)
+	 * @param clist
+	 *            convergence results
+	 * @param bp
+	 *            solve the factorized B'
+	 * @param bpp
+	 *            solve the factorized B'' including any bus type changes
+	 * @param upd
+	 *            receive B'' changes from tap moves
+	 * @return number of taps moved (B'' needs to be refactorized if nonzero)
+	 * @throws PAModelException
+	 */
+	int apply(float[] vm, float[] va, ConvergenceList clist, MatrixSolver bp,
+			MatrixSolver bpp, BppUpdate upd) throws PAModelException
+	{
+		boolean[] qok = new boolean[_islcount], pok = new boolean[_islcount];
+		for(ConvergenceInfo ci : clist)
+		{
+			if (ci.completed()) continue;
+			int x = ci.getIsland().getIndex();
+			qok[x] = Math.abs(ci.getWorstQ().getValue()) < _mmtol;
+			pok[x] = Math.abs(ci.getWorstP().getValue()) < _mmtol;
+		}
+
+		float[] rhs = new float[vm.length];
+		int nltc = _ltc.size();
+		float[] ntap = new float[nltc];
+		for(int i=0; i < nltc; ++i)
+		{
+			LTC c = _ltc.get(i);
+			ntap[i] = qok[c._isl] ? c.move(vm, va, bpp, rhs) : Float.NaN;
+		}
+		for(PhaseShift c : _ps)
+		{
+			if (!pok[c._isl]) continue;
+			float nsh = c.move(vm, va, bp, rhs);
+			if (!Float.isNaN(nsh)) c._flows.setShift(c._ndx, nsh);
+		}
+
+		int nmove = 0;
+		for(int i=0; i < nltc; ++i)
+		{
+			if (!Float.isNaN(ntap[i]))
+			{
+				_ltc.get(i).apply(ntap[i], upd);
+				++nmove;
+			}
+		}
+		return nmove;
+	}
+
+	/**
+	 * Calculate flows on the regulating phase shifters, for use when the
+	 * mismatches are calculated without branch flows
+	 *
+	 * @param vm
+	 *            bus voltage magnitudes (p.u.)
+	 * @param va
+	 *            bus voltage angles (rad)
+	 */
+	void calcFlows(float[] vm, float[] va)
+	{
+		for(PhaseShift c : _ps)
+			c._flows.calc(c._ndx, vm, va);
+	}
+
+	/**
+	 * Test if controls in an island are within their bands, or can no longer
+	 * move
+	 *
+	 * @param vm
+	 *            bus voltage magnitudes (p.u.)
+	 * @param island
+	 *            island to test
+	 * @return true if no further moves are needed
+	 */
+	public boolean satisfied(float[] vm, ElectricalIsland island)
+	{
+		int x = island.getIndex();
+		for(LTC c : _ltc)
+		{
+			if (c._isl == x && !c.satisfied(vm)) return false;
+		}
+		for(PhaseShift c : _ps)
+		{
+			if (c._isl == x && !c.satisfied(vm)) return false;
+		}
+		return true;
+	}
+}
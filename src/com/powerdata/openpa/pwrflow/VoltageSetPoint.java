@@ -1,6 +1,7 @@
 package com.powerdata.openpa.pwrflow;
 
 import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -20,6 +21,7 @@ import com.powerdata.openpa.PAModelException;
 import com.powerdata.openpa.SVC;
 import com.powerdata.openpa.impl.BasicGroupIndex;
 import com.powerdata.openpa.pwrflow.ConvergenceList.ConvergenceInfo;
+import com.powerdata.openpa.pwrflow.FDPowerFlow.MatrixSolver;
 
 
 /**
@@ -49,33 +51,62 @@ public class VoltageSetPoint
 	/** only monitor remote buses if the var mismatch is under this limit */
 	float _qtol = 0.05f;
 
-	public VoltageSetPoint(BusList pvbuses, BusList netbuses, int nIslands) throws PAModelException
+	/** only adjust remote setpoints by more than this amount (p.u.) */
+	float _vtol = 0.001f;
+	/** limits applied to adjusted local setpoints (p.u.) */
+	float _vspmin = 0.9f, _vspmax = 1.1f;
+	/** B'' diagonal added at PV buses to hold their voltage */
+	float _pvdiag;
+	/** smallest dV(rb)/dV(pv) sensitivity considered able to regulate */
+	static final double MinSens = 1e-3;
+	/** remote groups that can no longer adjust to meet their setpoint */
+	boolean[] _rmtlim;
+	
+	/**
+	 * Set up the voltage setpoints
+	 * 
+	 * @param pvbuses
+	 *            buses originally configured as PV buses
+	 * @param netbuses
+	 *            all system buses
+	 * @param nIslands
+	 *            number of islands in the model
+	 * @param btu
+	 *            bus types
+	 * @param pvdiag
+	 *            value added to the B'' diagonal of PV buses
+	 * @throws PAModelException
+	 */
+	public VoltageSetPoint(BusList pvbuses, BusList netbuses, int nIslands,
+			BusTypeUtil btu, float pvdiag) throws PAModelException
 	{
 		_sysbuses = netbuses;
 		_pvbuses = pvbuses;
+		_pvdiag = pvdiag;
 		int npv = pvbuses.size();
 		_vsp = new float[npv];
 		Set<Gen> rgens = new HashSet<>();
-//		TIntArrayList genpvndx = new TIntArrayList();
 		
 		for(int i=0; i < npv; ++i)
 		{
 			Bus b = pvbuses.get(i);
-			float vsp = 0f;//, vsr = 0f;
-			int ngen = 0;//, ngr = 0;
+			float vsp = 0f;
+			int ngen = 0;
 			for(Gen g : b.getGenerators())
 			{
 				if(g.unitInAVR())
 				{
 					Bus regbus = g.getRegBus();
-					boolean rmt = !regbus.equals(b);
-					float v = 1f;
-					if (rmt)
+					/* only regulate remote buses that are PQ buses in the same island */
+					Bus rb = (regbus == null) ? null : netbuses.getByBus(regbus);
+					if (rb != null && !rb.equals(b)
+						&& btu.getType(rb.getIndex()) == BusType.PQ
+						&& rb.getIsland().getIndex() == b.getIsland().getIndex())
+					{
 						rgens.add(g);
-					else
-						v = g.getVS() / regbus.getVoltageLevel().getBaseKV();
-					
-					vsp += v;
+					}
+					if (regbus == null) regbus = g.getBus();
+					vsp += g.getVS() / regbus.getVoltageLevel().getBaseKV();
 					++ngen;
 				}
 			}
@@ -92,8 +123,7 @@ public class VoltageSetPoint
 			_vsp[i] = vsp/((float) ngen);
 		}
 		
-		//TODO: restore this, buggy when no regulated bus specified
-//		processRemote(rgens, nIslands);
+		processRemote(rgens, nIslands);
 	}
 	
 	static class RmtVsp
@@ -121,6 +151,7 @@ public class VoltageSetPoint
 		TIntObjectMap<RmtVsp> rmtvsp = new TIntObjectHashMap<>();
 		TObjectIntMap<Bus> rbmap = new TObjectIntHashMap<>(100, 0.49f, -1);
 		int[] rmtregmap = new int[npv];
+		Arrays.fill(rmtregmap, -1);
 		
 		for(int i=0; i < npv; ++i)
 		{
@@ -164,6 +195,7 @@ public class VoltageSetPoint
 		{
 			_rmtvsp[i] = rmtvsp.get(i).avg();
 		}
+		_rmtlim = new boolean[nrmt];
 		
 	}
 	
@@ -223,36 +255,221 @@ public class VoltageSetPoint
 	/**
 	 * Monitor remote buses, and adjust PV bus setpoints accordingly.
 	 * 
-	 * Only perform adjustments if the worst mismatch has settled down
+	 * Only perform adjustments if the worst mismatch has settled down.
+	 * Setpoints of all remote-regulated groups in an island are adjusted
+	 * together using dV/dQ sensitivities from the factorized B''.
 	 * 
-	 * @param vm Working voltages
+	 * @param vm
+	 *            Working voltages
+	 * @param clist
+	 *            convergence results
+	 * @param bpp
+	 *            solve the factorized B'' including any bus type changes
+	 * @param btu
+	 *            current bus types
+	 * @param work
+	 *            array of zeros with an entry for each bus, left as zeros
 	 */
-	public void applyRemotes(float[] vm, ConvergenceList clist)
+	void applyRemotes(float[] vm, ConvergenceList clist,
+			MatrixSolver bpp, BusTypeUtil btu, float[] work)
 	{
-		for(ConvergenceInfo ci : clist)
+		int n = clist.size();
+		for(int i=0; i < n; ++i)
+			applyRemotes(vm, clist, i, bpp, btu, work);
+	}
+
+	/** @return true if any bus is regulated remotely */
+	boolean hasRemotes() {return _rmtregbus.length > 0;}
+
+	/**
+	 * Monitor remote buses of a single island. Islands can be adjusted
+	 * concurrently.
+	 * 
+	 * @param vm
+	 *            Working voltages
+	 * @param clist
+	 *            convergence results
+	 * @param isl
+	 *            island offset within clist
+	 * @param bpp
+	 *            solve the factorized B'' including any bus type changes,
+	 *            only island buses need to be solved
+	 * @param btu
+	 *            current bus types
+	 * @param work
+	 *            array of zeros with an entry for each bus, left as zeros.
+	 *            Islands adjusted concurrently can share it.
+	 */
+	void applyRemotes(float[] vm, ConvergenceList clist, int isl,
+			MatrixSolver bpp, BusTypeUtil btu, float[] work)
+	{
+		if (_rmtregbus.length == 0) return;
+		ConvergenceInfo ci = clist.get(isl);
+		if (!ci.completed() && Math.abs(ci.getWorstQ().getValue()) < _qtol)
+			applyIslandRemote(vm, ci.getIsland(), bpp, btu, work);
+	}
+
+	/**
+	 * Test if remote regulated buses in an island are at their setpoints, or
+	 * can no longer be adjusted
+	 * 
+	 * @param vm
+	 *            Working voltages
+	 * @param island
+	 *            island to test
+	 * @return true if no further adjustment is needed
+	 */
+	public boolean remotesSatisfied(float[] vm, ElectricalIsland island)
+	{
+		if (_rmtregbus.length == 0) return true;
+		for(int rbx : _rmtregbyisl.map().get(island.getIndex()))
 		{
-			if (!ci.completed() &&  Math.abs(ci.getWorstQ().getValue()) < _qtol)
-				applyIslandRemote(vm, ci.getIsland());
+			if (!_rmtlim[rbx] && Math.abs(_rmtvsp[rbx] - vm[_rmtregbus[rbx]]) > _vtol)
+				return false;
 		}
+		return true;
 	}
 
-	void applyIslandRemote(float[] vm, ElectricalIsland island)
+	void applyIslandRemote(float[] vm, ElectricalIsland island,
+			MatrixSolver bpp, BusTypeUtil btu, float[] work)
 	{
-		int[] ibus = _rmtregbyisl.map().get(island.getIndex());
-		for(int rb : ibus)
-			applyRemote(rb, vm);
+		/* groups needing an adjustment */
+		int[] all = _rmtregbyisl.map().get(island.getIndex());
+		int nall = all.length, nadj = 0;
+		int[] grp = new int[nall];
+		for(int rbx : all)
+		{
+			if (!_rmtlim[rbx] && Math.abs(_rmtvsp[rbx] - vm[_rmtregbus[rbx]]) > _vtol)
+				grp[nadj++] = rbx;
+		}
+		if (nadj == 0) return;
+
+		/* local buses that are still PV and able to move in the needed direction */
+		int[][] lbus = new int[nadj][];
+		for(int r=0; r < nadj; ++r)
+		{
+			int rbx = grp[r];
+			boolean raise = _rmtvsp[rbx] > vm[_rmtregbus[rbx]];
+			int[] l = _rmtregmap.map().get(rbx);
+			int nl = 0;
+			int[] act = new int[l.length];
+			for(int b : l)
+			{
+				if (btu.getType(_pvbuses.get(b).getIndex()) == BusType.PV
+					&& (raise ? _vsp[b] < _vspmax : _vsp[b] > _vspmin))
+					act[nl++] = b;
+			}
+			lbus[r] = Arrays.copyOf(act, nl);
+			if (nl == 0) _rmtlim[rbx] = true;
+		}
+
+		/*
+		 * B'' is symmetric, so a solution for a unit injection at the
+		 * regulated bus gives its sensitivity to each PV bus. Holding other PV
+		 * buses fixed, dV(rb)/dV(pv) = pvdiag * inv(B'')[rb][pv]
+		 */
+		double[][] s = new double[nadj][nadj + 1];
+		for(int r=0; r < nadj; ++r)
+		{
+			int rbx = grp[r];
+			s[r][nadj] = _rmtvsp[rbx] - vm[_rmtregbus[rbx]];
+			if (_rmtlim[rbx])
+			{
+				s[r][r] = 1.0;
+				s[r][nadj] = 0.0;
+				continue;
+			}
+			int rb = _rmtregbus[rbx];
+			work[rb] = 1f;
+			float[] x = bpp.solve(work);
+			work[rb] = 0f;
+			for(int c=0; c < nadj; ++c)
+			{
+				double sum = 0.0;
+				for(int b : lbus[c])
+					sum += x[_pvbuses.get(b).getIndex()];
+				s[r][c] = sum * _pvdiag;
+			}
+			/* local buses have almost no effect on the regulated bus */
+			if (Math.abs(s[r][r]) < MinSens)
+			{
+				_rmtlim[rbx] = true;
+				Arrays.fill(s[r], 0.0);
+				s[r][r] = 1.0;
+			}
+		}
+
+		double[] u = solveDense(s);
+		if (u == null)
+		{
+			/* fall back to each group on its own */
+			u = new double[nadj];
+			for(int r=0; r < nadj; ++r)
+				u[r] = (s[r][r] == 0.0) ? 0.0 : s[r][nadj] / s[r][r];
+		}
+
+		for(int r=0; r < nadj; ++r)
+		{
+			float d = (float) u[r];
+			for(int b : lbus[r])
+			{
+				_vsp[b] = Math.max(_vspmin, Math.min(_vspmax, _vsp[b] + d));
+				vm[_pvbuses.get(b).getIndex()] = _vsp[b];
+			}
+		}
 	}
 
-	void applyRemote(int rbx, float[] vm)
+	/**
+	 * Solve a small dense system using Gaussian elimination with partial
+	 * pivoting
+	 * 
+	 * @param a
+	 *            augmented matrix (n x n+1), modified in place
+	 * @return solution, or null if singular
+	 */
+	static double[] solveDense(double[][] a)
 	{
-		int[] lbus = _rmtregmap.map().get(rbx);
-		int rb = _rmtregbus[rbx];
-		float diff = _rmtvsp[rbx] - vm[rb];
-		for(int b : lbus)
+		int n = a.length;
+		for(int c=0; c < n; ++c)
+		{
+			int piv = c;
+			for(int r=c+1; r < n; ++r)
+				if (Math.abs(a[r][c]) > Math.abs(a[piv][c])) piv = r;
+			if (Math.abs(a[piv][c]) < 1e-9) return null;
+			double[] t = a[c]; a[c] = a[piv]; a[piv] = t;
+			for(int r=c+1; r < n; ++r)
+			{
+				double f = a[r][c] / a[c][c];
+				for(int k=c; k <= n; ++k) a[r][k] -= f * a[c][k];
+			}
+		}
+		double[] x = new double[n];
+		for(int r=n-1; r >= 0; --r)
 		{
-			_vsp[b] += diff;
-			vm[_pvbuses.get(b).getIndex()] = _vsp[b];
+			double v = a[r][n];
+			for(int k=r+1; k < n; ++k) v -= a[r][k] * x[k];
+			x[r] = v / a[r][r];
 		}
+		return x;
 	}
 
+	/**
+	 * Set the tolerance for remote regulated bus voltages
+	 * @param tol tolerance in p.u.
+	 */
+	public void setRemoteTolerance(float tol) {_vtol = tol;}
+	/** @return tolerance for remote regulated bus voltages (p.u.) */
+	public float getRemoteTolerance() {return _vtol;}
+
+	/**
+	 * Set the limits applied to local setpoints when adjusting for remote
+	 * regulation
+	 * @param vmin lowest setpoint (p.u.)
+	 * @param vmax highest setpoint (p.u.)
+	 */
+	public void setSetPointLimits(float vmin, float vmax)
+	{
+		_vspmin = vmin;
+		_vspmax = vmax;
+	}
 }
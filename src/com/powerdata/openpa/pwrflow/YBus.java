@@ -0,0 +1,122 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.Collection;
+import java.util.List;
+import com.powerdata.openpa.ACBranch;
+import com.powerdata.openpa.ACBranchList;
+import com.powerdata.openpa.BusList;
+import com.powerdata.openpa.BusRefIndex;
+import com.powerdata.openpa.FixedShunt;
+import com.powerdata.openpa.FixedShuntListIfc;
+import com.powerdata.openpa.PAModel;
+import com.powerdata.openpa.PAModelException;
+import com.powerdata.openpa.SubLists;
+import com.powerdata.openpa.pwrflow.ACBranchExtList.ACBranchExt;
+import com.powerdata.openpa.tools.Complex;
+import com.powerdata.openpa.tools.PAMath;
+import com.powerdata.openpa.tools.matrix.SpSymCplxMatrix;
+
+/**
+ * Create a bus admittance (Y-bus) matrix.
+ *
+ * Phase shift is not applied so that the matrix stays symmetric and can share
+ * the adjacencies and elimination pattern with B' and B''.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class YBus extends SpSymCplxMatrix
+{
+	public static class MatrixElementBuilder extends
+		ACBranchAdjacencies.MatrixElementBuilder
+	{
+		/** real parts, imaginary parts use _bdiag and _boffdiag */
+		protected float[] _gdiag, _goffdiag;
+
+		public MatrixElementBuilder(int nbus, int nbranch)
+		{
+			super(nbus, nbranch);
+			_gdiag = new float[nbus];
+			_goffdiag = new float[nbranch];
+		}
+
+		@Override
+		public void build(ACBranchExt brx, int branchIndex, int frombus, int tobus)
+			throws PAModelException
+		{
+			ACBranch br = brx.getBranch();
+			Complex y = brx.getY();
+			float g = y.re(), b = y.im(), bm = br.getBmag();
+			float a = br.getFromTap(), t = br.getToTap();
+			float a2 = a*a, t2 = t*t, at = a*t;
+			_gdiag[frombus] += g/a2;
+			_bdiag[frombus] += (b + bm + br.getFromBchg())/a2;
+			_gdiag[tobus] += g/t2;
+			_bdiag[tobus] += (b + bm + br.getToBchg())/t2;
+			_goffdiag[branchIndex] -= g/at;
+			_boffdiag[branchIndex] -= b/at;
+		}
+
+		/**
+		 * Convenience method to add all the fixed shunts to the Y-bus
+		 * @param fsh Collection of fixed shunt lists
+		 * @param bri Bus reference to handle single-bus topology
+		 * @param sbase system MVA base
+		 * @throws PAModelException
+		 */
+		public void addFixedShunts(Collection<? extends FixedShuntListIfc<? extends FixedShunt>> fsh,
+			BusRefIndex bri, float sbase) throws PAModelException
+		{
+			BusList buses = bri.getBuses();
+			for(FixedShuntListIfc<? extends FixedShunt> list : fsh)
+			{
+				for(FixedShunt sh : list)
+				{
+					_bdiag[buses.getByBus(sh.getBus()).getIndex()] +=
+						PAMath.mva2pu(sh.getB(), sbase);
+				}
+			}
+		}
+
+		public float[] getGDiag() {return _gdiag;}
+		public float[] getGOffDiag() {return _goffdiag;}
+	}
+
+	/**
+	 * Constructor for sharing of adjacencies & external element building
+	 *
+	 * @param adj branch adjacency matrix
+	 * @param bldr class to build elements for the matrix
+	 */
+	public YBus(ACBranchAdjacencies adj, MatrixElementBuilder bldr)
+	{
+		construct(adj, bldr);
+	}
+
+	protected void construct(ACBranchAdjacencies adj, MatrixElementBuilder bldr)
+	{
+		setAdjacencies(adj);
+		setDiag(bldr.getGDiag(), bldr.getBDiag());
+		setOffDiag(bldr.getGOffDiag(), bldr.getBOffDiag());
+	}
+
+	/**
+	 * Build the Y-bus of the in-service branches and shunts of a model
+	 * 
+	 * @param model power system model
+	 * @param sbase system MVA base
+	 * @throws PAModelException
+	 */
+	public YBus(PAModel model, float sbase) throws PAModelException
+	{
+		BusRefIndex bri = BusRefIndex.CreateFromSingleBuses(model);
+		BusList buses = bri.getBuses();
+		List<ACBranchList> branches = SubLists.getBranchInsvc(model.getACBranches());
+		MatrixElementBuilder bldr = new MatrixElementBuilder(buses.size(),
+			branches.stream().mapToInt(i -> i.size()).sum());
+		ACBranchAdjacencies adj = new ACBranchAdjacencies(
+			ACBranchExtList.LoadExtension(branches, bri), buses, bldr);
+		bldr.addFixedShunts(SubLists.getFixedShuntInsvc(model.getFixedShunts()), bri, sbase);
+		construct(adj, bldr);
+	}
+}
@@ -0,0 +1,262 @@
+package com.powerdata.openpa.pwrflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import com.powerdata.openpa.tools.LinkNet;
+
+/**
+ * Bus admittance matrix in compressed sparse row form, used to calculate the
+ * branch and fixed shunt contributions to the bus mismatches in a single pass
+ * over the buses.
+ *
+ * The structure is taken once from an ACBranchAdjacencies, so parallel
+ * branches share an entry. Each row holds the diagonal first, followed by the
+ * adjacent buses. Unlike YBus, phase shift is included, so the from-to and
+ * to-from entries are stored separately. Values are assembled again whenever
+ * a tap, phase shift or shunt is changed through the calculators.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class YBusCSR
+{
+	/** start of each row, and the column of each entry */
+	int[] _rowstart, _col;
+	/** conductance and susceptance of each entry */
+	float[] _g, _b;
+	/** branch calculators and in-service indexes for each branch type */
+	List<ACBranchFlowsI> _br;
+	List<int[]> _insvc;
+	/** entry offsets of the from-to and to-from values for each in-service branch */
+	List<int[]> _pft = new ArrayList<>(), _ptf = new ArrayList<>();
+	/** fixed shunt calculators */
+	List<FixedShuntCalcList> _fsh;
+	/** change count of the calculators when values were last assembled */
+	int _chg = -1;
+	/** rectangular voltages */
+	float[] _e, _f;
+
+	/**
+	 * Build the matrix
+	 *
+	 * @param adj
+	 *            adjacencies of the in-service branches
+	 * @param nbus
+	 *            number of buses
+	 * @param br
+	 *            branch calculators for each type
+	 * @param insvc
+	 *            in-service branch indexes for each type (parallel with br)
+	 * @param fsh
+	 *            fixed shunt calculators
+	 */
+	public YBusCSR(LinkNet adj, int nbus, List<ACBranchFlowsI> br,
+			List<int[]> insvc, List<FixedShuntCalcList> fsh)
+	{
+		_br = br;
+		_insvc = insvc;
+		_fsh = fsh;
+		_e = new float[nbus];
+		_f = new float[nbus];
+
+		/* rows, with the diagonal first and remaining columns in ascending order */
+		int nadj = adj.getBranchCount(), maxbus = adj.getMaxBusNdx();
+		int[] posf = new int[nadj], post = new int[nadj];
+		_rowstart = new int[nbus+1];
+		_col = new int[nbus + 2 * nadj];
+		int nnz = 0;
+		for(int bus=0; bus < nbus; ++bus)
+		{
+			_rowstart[bus] = nnz;
+			_col[nnz++] = bus;
+			if (bus > maxbus) continue;
+			int[][] cn = adj.findConnections(bus);
+			int[] cbus = cn[0], cbr = cn[1];
+			int n = cbus.length;
+			long[] sorted = new long[n];
+			for(int i=0; i < n; ++i)
+				sorted[i] = ((long) cbus[i] << 32) | cbr[i];
+			Arrays.sort(sorted);
+			for(long s : sorted)
+			{
+				int c = (int) (s >>> 32), b = (int) s;
+				if (c == bus) continue;
+				if (adj.getBusesForBranch(b)[0] == bus)
+					posf[b] = nnz;
+				else
+					post[b] = nnz;
+				_col[nnz++] = c;
+			}
+		}
+		_rowstart[nbus] = nnz;
+		_col = Arrays.copyOf(_col, nnz);
+		_g = new float[nnz];
+		_b = new float[nnz];
+
+		/* locate the entries for each in-service branch */
+		int ntype = br.size();
+		for(int l=0; l < ntype; ++l)
+		{
+			ACBranchFlowsI full = br.get(l);
+			int[] ndx = insvc.get(l);
+			int n = ndx.length;
+			int[] pft = new int[n], ptf = new int[n];
+			for(int i=0; i < n; ++i)
+			{
+				int x = ndx[i], f = full._fb[x], t = full._tb[x];
+				if (f == t)
+				{
+					pft[i] = _rowstart[f];
+					ptf[i] = pft[i];
+					continue;
+				}
+				int b = adj.findBranch(f, t);
+				boolean fwd = adj.getBusesForBranch(b)[0] == f;
+				pft[i] = fwd ? posf[b] : post[b];
+				ptf[i] = fwd ? post[b] : posf[b];
+			}
+			_pft.add(pft);
+			_ptf.add(ptf);
+		}
+	}
+
+	/** @return number of stored entries */
+	public int getEntryCount() {return _col.length;}
+
+	int changeCount()
+	{
+		int chg = 0;
+		for(ACBranchFlowsI f : _br) chg += f._chg;
+		for(FixedShuntCalcList s : _fsh) chg += s._chg;
+		return chg;
+	}
+
+	/** Assemble the values if any taps, phase shifts or shunts have changed */
+	public void refresh()
+	{
+		int chg = changeCount();
+		if (chg != _chg)
+		{
+			assemble();
+			_chg = chg;
+		}
+	}
+
+	/** Assemble the values from the current branch and shunt parameters */
+	void assemble()
+	{
+		Arrays.fill(_g, 0f);
+		Arrays.fill(_b, 0f);
+		int ntype = _br.size();
+		for(int l=0; l < ntype; ++l)
+		{
+			ACBranchFlowsI br = _br.get(l);
+			int[] ndx = _insvc.get(l), pft = _pft.get(l), ptf = _ptf.get(l);
+			int n = ndx.length;
+			for(int i=0; i < n; ++i)
+			{
+				int x = ndx[i];
+				int pf = _rowstart[br._fb[x]], pt = _rowstart[br._tb[x]];
+				float g = br._g[x], b = br._b[x], bm = br._brbmag[x];
+				float ft = br._ftap[x], tt = br._ttap[x];
+				float ft2 = ft*ft, tt2 = tt*tt, tprod = 1f/(ft*tt);
+				float sh = br._lshift[x];
+				float cos = (float) Math.cos(sh), sin = (float) Math.sin(sh);
+				float gcos = g * cos * tprod, gsin = g * sin * tprod;
+				float bcos = b * cos * tprod, bsin = b * sin * tprod;
+
+				_g[pf] += g / ft2;
+				_b[pf] += (b + bm + br._fbch[x]) / ft2;
+				_g[pt] += g / tt2;
+				_b[pt] += (b + bm + br._tbch[x]) / tt2;
+				/* -y e^(j*shift) / (ft*tt) from-to, -y e^(-j*shift) / (ft*tt) to-from */
+				_g[pft[i]] -= gcos - bsin;
+				_b[pft[i]] -= gsin + bcos;
+				_g[ptf[i]] -= gcos + bsin;
+				_b[ptf[i]] -= bcos - gsin;
+			}
+		}
+		for(FixedShuntCalcList fs : _fsh)
+		{
+			int n = fs._b.length;
+			for(int i=0; i < n; ++i)
+				_b[_rowstart[fs._buslist[i]]] += fs._b[i];
+		}
+	}
+
+	/**
+	 * Calculate the branch and fixed shunt injections at every bus, and add
+	 * them to the mismatches
+	 *
+	 * @param vm
+	 *            voltage magnitude by bus (p.u.)
+	 * @param va
+	 *            voltage angle by bus (rad)
+	 * @param pmm
+	 *            active power mismatches by bus
+	 * @param qmm
+	 *            reactive power mismatches by bus
+	 */
+	public void calcMismatches(float[] vm, float[] va, float[] pmm, float[] qmm)
+	{
+		refresh();
+		int nbus = _e.length;
+		for(int i=0; i < nbus; ++i)
+			rect(i, vm, va);
+		for(int i=0; i < nbus; ++i)
+			row(i, pmm, qmm);
+	}
+
+	/**
+	 * Calculate the branch and fixed shunt injections for a set of buses and
+	 * add them to the mismatches. The set must include every bus adjacent to
+	 * the set (an island, for example), so that separate sets can be
+	 * calculated concurrently. Values are not refreshed.
+	 *
+	 * @param vm
+	 *            voltage magnitude by bus (p.u.)
+	 * @param va
+	 *            voltage angle by bus (rad)
+	 * @param pmm
+	 *            active power mismatches by bus
+	 * @param qmm
+	 *            reactive power mismatches by bus
+	 * @param buses
+	 *            buses to calculate
+	 */
+	public void calcMismatches(float[] vm, float[] va, float[] pmm, float[] qmm,
+			int[] buses)
+	{
+		for(int i : buses)
+			rect(i, vm, va);
+		for(int i : buses)
+			row(i, pmm, qmm);
+	}
+
+	void rect(int i, float[] vm, float[] va)
+	{
+		float v = vm[i], a = va[i];
+		_e[i] = v * (float) Math.cos(a);
+		_f[i] = v * (float) Math.sin(a);
+	}
+
+	/** add -V conj(Y V) for a single row */
+	void row(int i, float[] pmm, float[] qmm)
+	{
+		float[] e = _e, f = _f, g = _g, b = _b;
+		int[] col = _col;
+		float ir = 0f, ii = 0f;
+		int end = _rowstart[i+1];
+		for(int k=_rowstart[i]; k < end; ++k)
+		{
+			int c = col[k];
+			float gk = g[k], bk = b[k], ec = e[c], fc = f[c];
+			ir += gk * ec - bk * fc;
+			ii += gk * fc + bk * ec;
+		}
+		float ei = e[i], fi = f[i];
+		pmm[i] -= ei * ir + fi * ii;
+		qmm[i] -= fi * ir - ei * ii;
+	}
+}
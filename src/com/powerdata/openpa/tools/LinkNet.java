@@ -299,6 +299,30 @@ public class LinkNet
 		}
 		return new int[][] {buses, branches};
 	}
+	/**
+	 * Return both buses and branches into caller-supplied arrays, which must
+	 * have room for getConnectionCount(busNdx) entries.
+	 * @param busNdx bus index
+	 * @param buses receives the connected buses
+	 * @param branches receives the connected branches in the same order
+	 * @return number of connections
+	 */
+	public int findConnections(int busNdx, int[] buses, int[] branches)
+	{
+		int ndx = 0;
+		int end = _list[busNdx];
+		while (end >= 0)
+		{
+			int far = _far[end];
+			if (far >= 0)
+			{
+				buses[ndx] = far;
+				branches[ndx++] = end / 2;
+			}
+			end = _next[end];
+		}
+		return ndx;
+	}
 	/**
 	 * Return both buses and branches in a single call for eliminated branches.
 	 * @return array of nodes at index 0, and branches at index 1
@@ -347,6 +371,20 @@ public class LinkNet
 		int endp = endq+1;
 		return new int[] {_far[endp],_far[endq]};
 	}
+	/**
+	 * Return the from-side bus of a branch, as getBusesForBranch(br)[0]
+	 * without creating an array
+	 * @param br
+	 * @return from-side bus
+	 */
+	public int getFromBus(int br) {return _far[br*2+1];}
+	/**
+	 * Return the to-side bus of a branch, as getBusesForBranch(br)[1]
+	 * without creating an array
+	 * @param br
+	 * @return to-side bus
+	 */
+	public int getToBus(int br) {return _far[br*2];}
 
 	/**
 	 * Determine all connected groups of buses.
@@ -516,6 +554,30 @@ public class LinkNet
 		_maxBusNdx = src._maxBusNdx;
 		_next = src._next.clone();
 	}
+
+	/**
+	 * Replace the contents with a copy of another LinkNet, reusing the
+	 * existing storage when it is large enough
+	 * @param src
+	 */
+	public void copyFrom(LinkNet src)
+	{
+		_brcnt = src._brcnt;
+		_maxBusNdx = src._maxBusNdx;
+		_cnt = copyInto(src._cnt, _cnt, 0);
+		_ecnt = copyInto(src._ecnt, _ecnt, 0);
+		_far = copyInto(src._far, _far, Empty);
+		_list = copyInto(src._list, _list, NoNode);
+		_next = copyInto(src._next, _next, Empty);
+	}
+
+	static int[] copyInto(int[] src, int[] dst, int fill)
+	{
+		if (dst.length < src.length) return src.clone();
+		System.arraycopy(src, 0, dst, 0, src.length);
+		Arrays.fill(dst, src.length, dst.length, fill);
+		return dst;
+	}
 	
 	/**
 	 * Apply a function to each bus located within group as the given bus. Will
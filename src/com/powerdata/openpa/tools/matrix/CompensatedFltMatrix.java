@@ -0,0 +1,342 @@
+package com.powerdata.openpa.tools.matrix;
+
+import java.util.Arrays;
+import com.powerdata.openpa.tools.LinkNet;
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Solve a factorized matrix with a small number of modifications (branch
+ * outages, for example) without refactorizing.
+ *
+ * Each modification is a symmetric rank-1 change: delta * v * v', where v has
+ * +1 at one bus and -1 at a second (a branch), or +1 at a single bus (a
+ * diagonal). Solves run against the base factors and apply a
+ * Sherman-Morrison-Woodbury compensation. Once the number of modifications
+ * passes the maximum rank, the matrix is refactorized with all modifications
+ * applied, and later modifications are compensated from the new factors.
+ *
+ * Buses that are not eliminated in the base factors have no correction, as
+ * in FactorizedFltMatrix.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class CompensatedFltMatrix
+{
+	/** default number of modifications compensated before refactorizing */
+	public static final int DEFAULT_MAX_RANK = 16;
+	/** smallest pivot of the compensation matrix accepted as nonsingular */
+	static final double SINGULAR_TOL = 1e-4;
+
+	SpSymFltMatrix _mtrx;
+	SpSymMtrxFactPattern _pat;
+	/** factors of the unmodified matrix, and the factors compensated */
+	FactorizedFltMatrix _orig, _base;
+	int _maxrank = DEFAULT_MAX_RANK;
+
+	/** all modifications since reset: buses (second bus -1 for a diagonal) and deltas */
+	TIntArrayList _ma = new TIntArrayList(), _mb = new TIntArrayList();
+	TFloatArrayList _md = new TFloatArrayList();
+	/** first modification not included in the base factors */
+	int _m0 = 0;
+
+	/** base solutions for each compensated modification */
+	float[][] _z = new float[0][];
+	/** LU factors and pivots of I + V'Z D, null until needed */
+	double[] _lu;
+	int[] _piv;
+	boolean _singular;
+
+	/**
+	 * Create a compensated solver
+	 *
+	 * @param mtrx
+	 *            unmodified matrix
+	 * @param pat
+	 *            elimination pattern used to refactorize
+	 * @param f
+	 *            factors of mtrx from pat, not modified
+	 */
+	public CompensatedFltMatrix(SpSymFltMatrix mtrx, SpSymMtrxFactPattern pat,
+			FactorizedFltMatrix f)
+	{
+		_mtrx = mtrx;
+		_pat = pat;
+		_orig = f;
+		_base = f;
+	}
+
+	/**
+	 * Set the number of modifications compensated before the matrix is
+	 * refactorized. Defaults to DEFAULT_MAX_RANK.
+	 *
+	 * @param maxrank
+	 *            maximum rank of the compensation
+	 */
+	public void setMaxRank(int maxrank) {_maxrank = maxrank;}
+
+	/** @return maximum rank of the compensation */
+	public int getMaxRank() {return _maxrank;}
+
+	/** @return number of modifications currently compensated */
+	public int getRank() {return _md.size() - _m0;}
+
+	/** @return factors the compensation is applied to */
+	public FactorizedFltMatrix getFactors() {return _base;}
+
+	/** Remove all modifications and return to the original factors */
+	public void reset()
+	{
+		_ma.resetQuick();
+		_mb.resetQuick();
+		_md.resetQuick();
+		_m0 = 0;
+		_base = _orig;
+		_z = new float[0][];
+		_lu = null;
+	}
+
+	/**
+	 * Change a branch. Delta is added to both diagonals and subtracted from the
+	 * off-diagonal, so removing a branch that contributed y to B' is a change
+	 * of -y.
+	 *
+	 * @param f
+	 *            from bus
+	 * @param t
+	 *            to bus, must be adjacent to f in the matrix
+	 * @param delta
+	 *            change in branch value
+	 */
+	public void modifyBranch(int f, int t, float delta)
+	{
+		if (_mtrx._adj.findBranch(f, t) == LinkNet.Empty)
+			throw new IllegalArgumentException(String.format(
+				"No branch between buses %d and %d", f, t));
+		add(f, t, delta);
+	}
+
+	/**
+	 * Change a diagonal
+	 *
+	 * @param bus
+	 *            bus
+	 * @param delta
+	 *            change in the diagonal value
+	 */
+	public void modifyDiag(int bus, float delta)
+	{
+		add(bus, -1, delta);
+	}
+
+	/**
+	 * Apply a general change on a branch, for example from taps or charging in
+	 * B''. Split into a branch change and any remaining diagonal changes.
+	 *
+	 * @param f
+	 *            from bus
+	 * @param t
+	 *            to bus, must be adjacent to f in the matrix
+	 * @param df
+	 *            change to the from-bus diagonal
+	 * @param dt
+	 *            change to the to-bus diagonal
+	 * @param doff
+	 *            change to the off-diagonal
+	 */
+	public void modify(int f, int t, float df, float dt, float doff)
+	{
+		if (doff != 0f) modifyBranch(f, t, -doff);
+		if (df + doff != 0f) modifyDiag(f, df + doff);
+		if (dt + doff != 0f) modifyDiag(t, dt + doff);
+	}
+
+	void add(int a, int b, float delta)
+	{
+		_ma.add(a);
+		_mb.add(b);
+		_md.add(delta);
+		_lu = null;
+		if (getRank() > _maxrank)
+			refactorize();
+		else
+			addColumn(a, b);
+	}
+
+	/** solve the base factors for the newest modification */
+	void addColumn(int a, int b)
+	{
+		float[] v = new float[_base._bd.length];
+		v[a] = 1f;
+		if (b != -1) v[b] -= 1f;
+		_base.solve(v, v);
+		int k = _z.length;
+		_z = Arrays.copyOf(_z, k + 1);
+		_z[k] = v;
+	}
+
+	/** Refactorize with all modifications, and compensate nothing */
+	void refactorize()
+	{
+		SpSymMtrxFactPattern pat = _pat;
+		float[] bd = _mtrx._bdiag.clone();
+		float[] bo = Arrays.copyOf(_mtrx._boffdiag,
+			Math.max(_mtrx._boffdiag.length, pat.getEdgeCapacity()));
+		LinkNet adj = _mtrx._adj;
+		int n = _md.size();
+		for(int i=0; i < n; ++i)
+		{
+			int a = _ma.getQuick(i), b = _mb.getQuick(i);
+			float d = _md.getQuick(i);
+			bd[a] += d;
+			if (b != -1)
+			{
+				bd[b] += d;
+				bo[adj.findBranch(a, b)] -= d;
+			}
+		}
+		SpSymFltMatrix.factorValues(pat, bd, bo, new float[0]);
+		_base = new FactorizedFltMatrix(bd, bo,
+			pat.getElimFromNode(), pat.getElimToNode(),
+			pat.getElimNdOrder(), pat.getElimNdCount(),
+			pat.getElimEdgeOrder(), pat.getElimEdgeCount());
+		_base.setParallel(_orig._pool, _orig._parmin);
+		_m0 = n;
+		_z = new float[0][];
+	}
+
+	/** value of v' x for modification i */
+	float dot(int i, float[] x)
+	{
+		int b = _mb.getQuick(i);
+		float r = x[_ma.getQuick(i)];
+		return (b == -1) ? r : r - x[b];
+	}
+
+	/** LU factor I + V'Z D with partial pivoting */
+	void prepare()
+	{
+		int k = _z.length;
+		double[] a = new double[k * k];
+		for(int i=0; i < k; ++i)
+		{
+			for(int j=0; j < k; ++j)
+				a[i*k+j] = dot(_m0 + i, _z[j]) * _md.getQuick(_m0 + j);
+			a[i*k+i] += 1.0;
+		}
+		int[] piv = new int[k];
+		boolean singular = false;
+		for(int c=0; c < k; ++c)
+		{
+			int pr = c;
+			for(int r=c+1; r < k; ++r)
+				if (Math.abs(a[r*k+c]) > Math.abs(a[pr*k+c])) pr = r;
+			piv[c] = pr;
+			if (pr != c)
+			{
+				for(int j=0; j < k; ++j)
+				{
+					double t = a[c*k+j];
+					a[c*k+j] = a[pr*k+j];
+					a[pr*k+j] = t;
+				}
+			}
+			double d = a[c*k+c];
+			if (Math.abs(d) < SINGULAR_TOL)
+			{
+				singular = true;
+				continue;
+			}
+			for(int r=c+1; r < k; ++r)
+			{
+				double l = a[r*k+c] / d;
+				a[r*k+c] = l;
+				for(int j=c+1; j < k; ++j)
+					a[r*k+j] -= l * a[c*k+j];
+			}
+		}
+		_piv = piv;
+		_singular = singular;
+		_lu = a;
+	}
+
+	/**
+	 * Check if the modifications leave the matrix singular (a branch outage
+	 * that separates part of the network from the reference, for example)
+	 *
+	 * @return true if the modified matrix can't be solved
+	 */
+	public boolean isSingular()
+	{
+		if (_lu == null) prepare();
+		return _singular;
+	}
+
+	/**
+	 * Solve the modified matrix
+	 *
+	 * @param mm
+	 *            Mismatch array
+	 * @return Array (in bus order) of corrections
+	 */
+	public float[] solve(float[] mm)
+	{
+		float[] rv = new float[mm.length];
+		solve(mm, rv);
+		return rv;
+	}
+
+	/**
+	 * Solve the modified matrix into a caller-supplied buffer
+	 *
+	 * @param mm
+	 *            Mismatch array (not modified unless the same array as out)
+	 * @param out
+	 *            Array (in bus order) to receive corrections, may be mm
+	 */
+	public void solve(float[] mm, float[] out)
+	{
+		_base.solve(mm, out);
+		int k = _z.length;
+		if (k == 0) return;
+		if (isSingular())
+			throw new IllegalStateException("Modified matrix is singular");
+
+		/* w = (I + V'Z D)^-1 V'x */
+		double[] a = _lu, w = new double[k];
+		int[] piv = _piv;
+		for(int i=0; i < k; ++i)
+			w[i] = dot(_m0 + i, out);
+		for(int c=0; c < k; ++c)
+		{
+			int pr = piv[c];
+			double t = w[c];
+			w[c] = w[pr];
+			w[pr] = t;
+		}
+		for(int c=0; c < k; ++c)
+		{
+			for(int r=c+1; r < k; ++r)
+				w[r] -= a[r*k+c] * w[c];
+		}
+		for(int r=k-1; r >= 0; --r)
+		{
+			double s = w[r];
+			for(int j=r+1; j < k; ++j)
+				s -= a[r*k+j] * w[j];
+			w[r] = s / a[r*k+r];
+		}
+
+		/* x -= Z D w */
+		int n = out.length;
+		for(int j=0; j < k; ++j)
+		{
+			float c = (float) (w[j] * _md.getQuick(_m0 + j));
+			if (c == 0f) continue;
+			float[] z = _z[j];
+			for(int i=0; i < n; ++i)
+				out[i] -= c * z[i];
+		}
+	}
+}
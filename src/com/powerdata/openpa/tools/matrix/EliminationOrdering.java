@@ -0,0 +1,51 @@
+package com.powerdata.openpa.tools.matrix;
+
+import com.powerdata.openpa.tools.LinkNet;
+
+/**
+ * Select the order in which nodes are eliminated during a sparse symmetric
+ * factorization.
+ * 
+ * Orderings keep the connection count of each node current as nodes are
+ * eliminated. A count of 0 marks a node that is either eliminated or kept in
+ * the reduced network, and the factorizer relies on this to decide where
+ * fill-in is needed.
+ * 
+ * @author chris@powerdata.com
+ * 
+ */
+public interface EliminationOrdering
+{
+	/**
+	 * Start a new elimination
+	 * 
+	 * @param net
+	 *            adjacencies, updated by the factorizer as fill-in is added
+	 * @param counts
+	 *            connection count for each node, 0 for nodes that are not to
+	 *            be eliminated
+	 */
+	void start(LinkNet net, int[] counts);
+
+	/**
+	 * Select the next node to eliminate
+	 * 
+	 * @return node index, or -1 if no nodes remain
+	 */
+	int next();
+
+	/**
+	 * Record the elimination of a node
+	 * 
+	 * @param node
+	 *            eliminated node
+	 * @param cnodes
+	 *            nodes connected to the eliminated node
+	 * @param delta
+	 *            change in the connection count of each connected node,
+	 *            parallel with cnodes
+	 * @param n
+	 *            number of connected nodes, the arrays may be longer
+	 */
+	void eliminated(int node, int[] cnodes, int[] delta, int n);
+}
@@ -0,0 +1,268 @@
+package com.powerdata.openpa.tools.matrix;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import com.powerdata.openpa.tools.LinkNet;
+
+/**
+ * Binary file holding an elimination pattern and optionally a factorized
+ * matrix built from it, so that they can be written once and loaded by other
+ * processes.
+ *
+ * Files are mapped read-only and keyed by a fingerprint chosen by the writer,
+ * normally from fingerprint() over the adjacencies, reference buses,
+ * elimination ordering and matrix values. Files are written to a temporary
+ * file and moved into place, so readers never see a partial file.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class FactorizationFile
+{
+	static final int Magic = 0x4F504146;
+	static final int Version = 2;
+	static final int HasPattern = 1, HasFactors = 2;
+
+	ByteBuffer _buf;
+	long _fprint;
+	int _nbus, _flags;
+	/** offset of each section in the file */
+	int _patofs, _factofs;
+
+	/**
+	 * Map an existing file
+	 *
+	 * @param f
+	 *            file written by write()
+	 * @throws IOException
+	 *             if the file can't be read or is not a factorization file
+	 */
+	public FactorizationFile(File f) throws IOException
+	{
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ))
+		{
+			_buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		if (_buf.remaining() < 32 || _buf.getInt(0) != Magic)
+			throw new IOException("Not a factorization file: " + f);
+		if (_buf.getInt(4) != Version)
+			throw new IOException("Unsupported factorization file version: " + f);
+		_fprint = _buf.getLong(8);
+		_nbus = _buf.getInt(16);
+		_flags = _buf.getInt(20);
+		_patofs = _buf.getInt(24);
+		_factofs = _buf.getInt(28);
+	}
+
+	/** @return fingerprint stored with the file */
+	public long getFingerprint() {return _fprint;}
+
+	/**
+	 * Check the file against a fingerprint
+	 * @param fprint fingerprint of the current network
+	 * @return true if the file was written for the same network
+	 */
+	public boolean matches(long fprint) {return _fprint == fprint;}
+
+	/**
+	 * Read the elimination pattern
+	 *
+	 * @param fprint
+	 *            fingerprint of the current network
+	 * @return elimination pattern
+	 * @throws IOException
+	 *             if the file was written for a different network
+	 */
+	public SpSymMtrxFactPattern getPattern(long fprint) throws IOException
+	{
+		check(fprint, HasPattern);
+		ByteBuffer b = _buf.duplicate();
+		b.position(_patofs);
+		SpSymMtrxFactPattern p = new SpSymMtrxFactPattern();
+		int iord = b.getInt(), nbr = b.getInt();
+		p._iord = iord;
+		p._elimbrcnt = nbr;
+		p._nfill = b.getInt();
+		p._nops = b.getLong();
+		p._elimndorder = getInts(b, _nbus);
+		p._ep = getInts(b, nbr);
+		p._eq = getInts(b, nbr);
+		p._elimbrorder = getInts(b, nbr);
+		p._nstart = getInts(b, iord+1);
+		p._tstart = getInts(b, iord+1);
+		p._tbr = getInts(b, p._tstart[iord]);
+		p._iedge = p._nstart[iord];
+		p._itbr = p._tstart[iord];
+		return p;
+	}
+
+	/**
+	 * Read the factorized matrix
+	 *
+	 * @param fprint
+	 *            fingerprint of the current network
+	 * @return factorized matrix
+	 * @throws IOException
+	 *             if the file was written for a different network or has no
+	 *             factorized matrix
+	 */
+	public FactorizedFltMatrix getFactors(long fprint) throws IOException
+	{
+		check(fprint, HasFactors);
+		ByteBuffer b = _buf.duplicate();
+		b.position(_factofs);
+		int nelim = b.getInt(), nbr = b.getInt();
+		float[] bd = getFloats(b, _nbus), adjbo = getFloats(b, nbr);
+		int[] p = getInts(b, nbr), q = getInts(b, nbr), brord = getInts(b, nbr);
+		int[] elimbus = getInts(b, nelim);
+		return new FactorizedFltMatrix(bd, adjbo, p, q, elimbus, brord);
+	}
+
+	void check(long fprint, int section) throws IOException
+	{
+		if (fprint != _fprint)
+			throw new IOException("Factorization file is for a different network");
+		if ((_flags & section) == 0)
+			throw new IOException("Factorization file section not present");
+	}
+
+	static int[] getInts(ByteBuffer b, int n)
+	{
+		int[] rv = new int[n];
+		b.asIntBuffer().get(rv);
+		b.position(b.position() + 4 * n);
+		return rv;
+	}
+
+	static float[] getFloats(ByteBuffer b, int n)
+	{
+		float[] rv = new float[n];
+		b.asFloatBuffer().get(rv);
+		b.position(b.position() + 4 * n);
+		return rv;
+	}
+
+	/**
+	 * Write an elimination pattern and factorized matrix
+	 *
+	 * @param f
+	 *            file to write, replaced if it exists
+	 * @param fprint
+	 *            fingerprint of the network
+	 * @param pat
+	 *            elimination pattern
+	 * @param fm
+	 *            factorized matrix built from the pattern, or null to write
+	 *            only the pattern
+	 * @throws IOException
+	 */
+	public static void write(File f, long fprint, SpSymMtrxFactPattern pat,
+			FactorizedFltMatrix fm) throws IOException
+	{
+		int nbus = pat._elimndorder.length, iord = pat._iord, nbr = pat._elimbrcnt;
+		int ntbr = pat._tstart[iord];
+		int patofs = 32;
+		int factofs = patofs + 20 + 4 * (nbus + 3 * nbr + 2 * (iord + 1) + ntbr);
+
+		File dir = f.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile(f.getName(), ".tmp", dir);
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp), 65536)))
+			{
+				out.writeInt(Magic);
+				out.writeInt(Version);
+				out.writeLong(fprint);
+				out.writeInt(nbus);
+				out.writeInt(HasPattern | ((fm == null) ? 0 : HasFactors));
+				out.writeInt(patofs);
+				out.writeInt(factofs);
+
+				out.writeInt(iord);
+				out.writeInt(nbr);
+				out.writeInt(pat._nfill);
+				out.writeLong(pat._nops);
+				writeInts(out, pat._elimndorder, nbus);
+				writeInts(out, pat._ep, nbr);
+				writeInts(out, pat._eq, nbr);
+				writeInts(out, pat._elimbrorder, nbr);
+				writeInts(out, pat._nstart, iord+1);
+				writeInts(out, pat._tstart, iord+1);
+				writeInts(out, pat._tbr, ntbr);
+
+				if (fm != null)
+				{
+					int nfbr = fm._p.length;
+					out.writeInt(fm._elimbusord.length);
+					out.writeInt(nfbr);
+					writeFloats(out, fm._bd, nbus);
+					writeFloats(out, fm._adjbo, nfbr);
+					writeInts(out, fm._p, nfbr);
+					writeInts(out, fm._q, nfbr);
+					writeInts(out, fm._brord, nfbr);
+					writeInts(out, fm._elimbusord, fm._elimbusord.length);
+				}
+			}
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			tmp.delete();
+		}
+	}
+
+	static void writeInts(DataOutputStream out, int[] v, int n) throws IOException
+	{
+		for(int i=0; i < n; ++i)
+			out.writeInt(v[i]);
+	}
+
+	static void writeFloats(DataOutputStream out, float[] v, int n) throws IOException
+	{
+		for(int i=0; i < n; ++i)
+			out.writeFloat(v[i]);
+	}
+
+	/**
+	 * Build a fingerprint of a network from its branch adjacencies, reference
+	 * buses, elimination ordering and (optionally) matrix values. Include the
+	 * matrix values when the file holds factors.
+	 *
+	 * @param adj
+	 *            branch adjacencies
+	 * @param ref
+	 *            buses retained in the reduced network
+	 * @param ord
+	 *            ordering used to eliminate the network
+	 * @param values
+	 *            matrix values
+	 * @return fingerprint
+	 */
+	public static long fingerprint(LinkNet adj, int[] ref, EliminationOrdering ord,
+			float[]... values)
+	{
+		long h = adj.getMaxBusNdx();
+		int nbr = adj.getBranchCount();
+		for(int i=0; i < nbr; ++i)
+		{
+			int[] b = adj.getBusesForBranch(i);
+			h = h * 1000003L + ((long) b[0] << 32 | (b[1] & 0xffffffffL));
+		}
+		h = h * 31L + Arrays.hashCode(ref);
+		h = h * 31L + ord.getClass().getName().hashCode();
+		for(float[] v : values)
+			h = h * 31L + Arrays.hashCode(v);
+		return h;
+	}
+}
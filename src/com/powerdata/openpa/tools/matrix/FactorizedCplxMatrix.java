@@ -0,0 +1,116 @@
+package com.powerdata.openpa.tools.matrix;
+
+import java.util.Arrays;
+
+/**
+ * Factorized complex-valued sparse symmetric matrix. Uses the same layout as
+ * FactorizedFltMatrix, with the real and imaginary parts of each value kept
+ * in separate arrays.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class FactorizedCplxMatrix
+{
+	/** factorized diagonal, real and imaginary parts */
+	float[] _dre, _dim;
+	/** scaled eliminated edges, real and imaginary parts */
+	float[] _are, _aim;
+	int[] _p, _q, _elimbusord;
+	/** true for buses that are eliminated */
+	boolean[] _elim;
+
+	public FactorizedCplxMatrix(float[] dre, float[] dim, float[] ore,
+			float[] oim, int[] p, int[] q, int[] elimNdOrder, int elimBusCnt,
+			int[] elimBrOrder, int elimBranchCount)
+	{
+		_dre = dre.clone();
+		_dim = dim.clone();
+		_p = Arrays.copyOf(p, elimBranchCount);
+		_q = Arrays.copyOf(q, elimBranchCount);
+		_are = new float[elimBranchCount];
+		_aim = new float[elimBranchCount];
+		for(int i=0; i < elimBranchCount; ++i)
+		{
+			/* -offdiag / diag of the eliminated node */
+			int br = elimBrOrder[i], bus = p[i];
+			float or = ore[br], oi = oim[br], dr = dre[bus], di = dim[bus];
+			float den = dr * dr + di * di;
+			_are[i] = -(or * dr + oi * di) / den;
+			_aim[i] = -(oi * dr - or * di) / den;
+		}
+		_elimbusord = Arrays.copyOf(elimNdOrder, elimBusCnt);
+		_elim = new boolean[dre.length];
+		for(int bus : _elimbusord)
+			_elim[bus] = true;
+	}
+
+	/**
+	 * Solve the matrix in place
+	 *
+	 * @param re
+	 *            real part of the right-hand side on input, of the solution
+	 *            on output (0 for buses not eliminated)
+	 * @param im
+	 *            imaginary part of the right-hand side on input, of the
+	 *            solution on output (0 for buses not eliminated)
+	 */
+	public void solveInPlace(float[] re, float[] im)
+	{
+		int nbr = _are.length, nbus = _dre.length;
+		/* forward reduction */
+		for (int i = 0; i < nbr; ++i)
+		{
+			int p = _p[i], q = _q[i];
+			float ar = _are[i], ai = _aim[i], xr = re[p], xi = im[p];
+			re[q] += ar * xr - ai * xi;
+			im[q] += ar * xi + ai * xr;
+		}
+		/* diagonal, buses not eliminated have no solution */
+		for (int bus = 0; bus < nbus; ++bus)
+		{
+			if (_elim[bus])
+			{
+				float dr = _dre[bus], di = _dim[bus], xr = re[bus], xi = im[bus];
+				float den = dr * dr + di * di;
+				re[bus] = (xr * dr + xi * di) / den;
+				im[bus] = (xi * dr - xr * di) / den;
+			}
+			else
+			{
+				re[bus] = 0f;
+				im[bus] = 0f;
+			}
+		}
+		/* backward substitution */
+		for (int i = nbr - 1; i >= 0; --i)
+		{
+			int p = _p[i], q = _q[i];
+			float ar = _are[i], ai = _aim[i], xr = re[q], xi = im[q];
+			re[p] += ar * xr - ai * xi;
+			im[p] += ar * xi + ai * xr;
+		}
+	}
+
+	/**
+	 * Solve the matrix
+	 *
+	 * @param re
+	 *            real part of the right-hand side
+	 * @param im
+	 *            imaginary part of the right-hand side
+	 * @return real (index 0) and imaginary (index 1) parts of the solution,
+	 *         in bus order
+	 */
+	public float[][] solve(float[] re, float[] im)
+	{
+		float[] xr = re.clone(), xi = im.clone();
+		solveInPlace(xr, xi);
+		return new float[][] {xr, xi};
+	}
+
+	public int[] getElimBus()
+	{
+		return _elimbusord;
+	}
+}
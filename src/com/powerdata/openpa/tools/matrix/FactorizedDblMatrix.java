@@ -0,0 +1,82 @@
+package com.powerdata.openpa.tools.matrix;
+
+import java.util.Arrays;
+
+/**
+ * Double-precision version of the factorized sparse matrix. Uses the same
+ * layout as FactorizedFltMatrix, but keeps factors and intermediate results
+ * in double precision to limit round-off on large systems.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class FactorizedDblMatrix
+{
+	double[] _bd, _adjbo;
+	int[] _p, _q, _elimbusord;
+
+	public FactorizedDblMatrix(double[] bDiag, double[] bOffDiag,
+			int[] p, int[] q, int[] elimNdOrder, int elimBusCnt,
+			int[] elimBrOrder, int elimBranchCount)
+	{
+		_bd = bDiag.clone();
+		_p = Arrays.copyOf(p, elimBranchCount);
+		_q = Arrays.copyOf(q, elimBranchCount);
+		_adjbo = new double[elimBranchCount];
+		for(int i=0; i < elimBranchCount; ++i)
+			_adjbo[i] = -bOffDiag[elimBrOrder[i]] / bDiag[p[i]];
+		_elimbusord = Arrays.copyOf(elimNdOrder, elimBusCnt);
+	}
+
+	/**
+	 * Solve the matrix in place
+	 * @param x mismatches on input, corrections on output (0 for buses not eliminated)
+	 */
+	public void solveInPlace(double[] x)
+	{
+		int nbr = _adjbo.length;
+		for (int i = 0; i < nbr; ++i)
+			x[_q[i]] += _adjbo[i] * x[_p[i]];
+		for(int bus : _elimbusord)
+			x[bus] /= _bd[bus];
+		double[] dx = new double[x.length];
+		for(int bus : _elimbusord)
+			dx[bus] = x[bus];
+		for (int i = nbr - 1; i >= 0; --i)
+			dx[_p[i]] += _adjbo[i] * dx[_q[i]];
+		System.arraycopy(dx, 0, x, 0, x.length);
+	}
+
+	/**
+	 * Solve the matrix
+	 * @param mm Mismatch array
+	 * @return Array (in bus order) of corrections
+	 */
+	public double[] solve(double[] mm)
+	{
+		double[] rv = mm.clone();
+		solveInPlace(rv);
+		return rv;
+	}
+
+	/**
+	 * Solve the matrix using single-precision mismatches and corrections
+	 * @param mm Mismatch array
+	 * @return Array (in bus order) of corrections
+	 */
+	public float[] solve(float[] mm)
+	{
+		int n = mm.length;
+		double[] x = new double[n];
+		for(int i=0; i < n; ++i) x[i] = mm[i];
+		solveInPlace(x);
+		float[] rv = new float[n];
+		for(int i=0; i < n; ++i) rv[i] = (float) x[i];
+		return rv;
+	}
+
+	public int[] getElimBus()
+	{
+		return _elimbusord;
+	}
+}
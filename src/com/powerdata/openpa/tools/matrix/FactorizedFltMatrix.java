@@ -2,6 +2,10 @@ package com.powerdata.openpa.tools.matrix;
 
 import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import gnu.trove.map.hash.TIntFloatHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 
 /**
  * Keep a more efficient version of the float-valued factorized sparse matrix.  
@@ -14,6 +18,39 @@ public class FactorizedFltMatrix
 {
 	float[] _bd, _adjbo;
 	int[] _p, _q, _elimbusord;
+	/** matrix branch index of each eliminated edge */
+	int[] _brord;
+	/** offset of the first eliminated edge for each eliminated bus (in elimination order) */
+	int[] _nstart;
+	/** elimination position of each bus, -1 if the bus is not eliminated */
+	int[] _pos;
+	/** elimination tree, parent position of each eliminated bus or -1 */
+	int[] _parent;
+	/** eliminated edges by to-side bus, created as needed for refactorization */
+	int[] _tstart, _tedge;
+	/** pool for parallel substitution, null to solve sequentially */
+	ForkJoinPool _pool = null;
+	/** minimum number of eliminated buses to solve in parallel */
+	int _parmin = PARALLEL_MIN;
+	/**
+	 * elimination positions in postorder of the elimination tree, written
+	 * last by buildSchedule() so that it publishes the rest of the schedule
+	 */
+	volatile int[] _post;
+	/** postorder start and size of each independent subtree */
+	int[] _substart, _subsize;
+	/** eliminated buses in the independent subtrees before each subtree */
+	int[] _subwork;
+	/** number of eliminated buses to sweep in a single task */
+	int _grain;
+	/** positions above the independent subtrees, in postorder */
+	int[] _top;
+	/** buses not eliminated that receive eliminated edges */
+	int[] _kept;
+
+	/** default minimum number of eliminated buses to solve in parallel */
+	public static final int PARALLEL_MIN = 4096;
+
 	public FactorizedFltMatrix(float[] bDiag, float[] bOffDiag,
 			int[] p, int[] q, int[] elimNdOrder,int elimBusCnt,
 			int[] elimBrOrder, int elimBranchCount)
@@ -21,10 +58,482 @@ public class FactorizedFltMatrix
 		_bd = bDiag.clone();
 		_p = Arrays.copyOf(p, elimBranchCount);
 		_q = Arrays.copyOf(q, elimBranchCount);
+		_brord = Arrays.copyOf(elimBrOrder, elimBranchCount);
 		_adjbo = new float[elimBranchCount];
 		for(int i=0; i < elimBranchCount; ++i)
 			_adjbo[i] = -bOffDiag[elimBrOrder[i]] / bDiag[p[i]];
 		_elimbusord = Arrays.copyOf(elimNdOrder, elimBusCnt);
+		buildElimTree();
+	}
+
+	/** Restore a factorized matrix from saved arrays, used by FactorizationFile */
+	FactorizedFltMatrix(float[] bd, float[] adjbo, int[] p, int[] q,
+			int[] elimbusord, int[] brord)
+	{
+		_bd = bd;
+		_adjbo = adjbo;
+		_p = p;
+		_q = q;
+		_elimbusord = elimbusord;
+		_brord = brord;
+		buildElimTree();
+	}
+
+	/**
+	 * Locate the edges of each eliminated bus and build the elimination tree.
+	 * Edges are stored contiguously for each bus in order of elimination.
+	 */
+	void buildElimTree()
+	{
+		int nelim = _elimbusord.length, nbr = _p.length;
+		_pos = new int[_bd.length];
+		Arrays.fill(_pos, -1);
+		for(int i=0; i < nelim; ++i)
+			_pos[_elimbusord[i]] = i;
+		_nstart = new int[nelim+1];
+		_parent = new int[nelim];
+		int e = 0;
+		for(int i=0; i < nelim; ++i)
+		{
+			int bus = _elimbusord[i], par = -1;
+			_nstart[i] = e;
+			while (e < nbr && _p[e] == bus)
+			{
+				int qpos = _pos[_q[e++]];
+				if (qpos != -1 && (par == -1 || qpos < par))
+					par = qpos;
+			}
+			_parent[i] = par;
+		}
+		_nstart[nelim] = e;
+	}
+
+	/** Build the list of eliminated edges for each to-side bus */
+	synchronized void buildTranspose()
+	{
+		if (_tstart != null) return;
+		int nbus = _bd.length, nbr = _q.length;
+		int[] tstart = new int[nbus+1];
+		for(int i=0; i < nbr; ++i)
+			++tstart[_q[i]+1];
+		for(int i=0; i < nbus; ++i)
+			tstart[i+1] += tstart[i];
+		int[] next = Arrays.copyOf(tstart, nbus);
+		int[] tedge = new int[nbr];
+		for(int i=0; i < nbr; ++i)
+			tedge[next[_q[i]]++] = i;
+		_tedge = tedge;
+		_tstart = tstart;
+	}
+
+	/**
+	 * Find the eliminated buses whose factors are affected by a change to the
+	 * given buses.  This is the union of the paths from each bus to the root of
+	 * the elimination tree.
+	 * 
+	 * @param buses Buses with modified matrix values
+	 * @return elimination positions of affected buses in ascending order
+	 */
+	public int[] getAffectedPositions(int[] buses)
+	{
+		int nelim = _elimbusord.length;
+		boolean[] mark = new boolean[nelim];
+		int cnt = 0;
+		for(int b : buses)
+		{
+			for(int i = _pos[b]; i != -1 && !mark[i]; i = _parent[i])
+			{
+				mark[i] = true;
+				++cnt;
+			}
+		}
+		int[] rv = new int[cnt];
+		for(int i=0, j=0; j < cnt; ++i)
+		{
+			if (mark[i]) rv[j++] = i;
+		}
+		return rv;
+	}
+	
+	/**
+	 * Get the elimination positions of the eliminated buses within the given
+	 * set. Buses that are not eliminated are skipped.
+	 * 
+	 * @param buses
+	 *            bus indexes
+	 * @return elimination positions in ascending order
+	 */
+	public int[] getElimPositions(int[] buses)
+	{
+		int[] rv = new int[buses.length];
+		int n = 0;
+		for(int b : buses)
+		{
+			int p = _pos[b];
+			if (p != -1) rv[n++] = p;
+		}
+		rv = Arrays.copyOf(rv, n);
+		Arrays.sort(rv);
+		return rv;
+	}
+
+	/**
+	 * Find the elimination positions on the paths from the given buses to the
+	 * root of the elimination tree. Unlike getAffectedPositions(), the cost
+	 * depends only on the length of the paths and not the size of the matrix.
+	 * 
+	 * @param buses
+	 *            bus indexes, buses not eliminated are skipped
+	 * @return elimination positions in ascending order
+	 */
+	public int[] getPathPositions(int[] buses)
+	{
+		TIntHashSet path = new TIntHashSet();
+		for(int b : buses)
+		{
+			for(int i = _pos[b]; i != -1 && path.add(i); i = _parent[i]);
+		}
+		int[] rv = path.toArray();
+		Arrays.sort(rv);
+		return rv;
+	}
+
+	/**
+	 * Solve for a right-hand side with few non-zero entries, returning the
+	 * solution at only the requested buses. The forward reduction follows
+	 * only the paths of the non-zero entries, and the backward substitution
+	 * only the paths of the requested buses, so the cost does not grow with
+	 * the size of the matrix.
+	 * 
+	 * @param buses
+	 *            buses with non-zero mismatches
+	 * @param values
+	 *            mismatch values, parallel with buses
+	 * @param outbuses
+	 *            buses to report corrections for
+	 * @return corrections, parallel with outbuses (0 for buses not eliminated)
+	 */
+	public float[] solveSparse(int[] buses, float[] values, int[] outbuses)
+	{
+		int nin = buses.length;
+		TIntFloatHashMap x = new TIntFloatHashMap(4 * nin + 16, 0.5f, -1, 0f);
+		for(int i=0; i < nin; ++i)
+			x.adjustOrPutValue(buses[i], values[i], values[i]);
+
+		/* fast forward */
+		for(int ip : getPathPositions(buses))
+		{
+			float xp = x.get(_elimbusord[ip]);
+			if (xp == 0f) continue;
+			for(int e=_nstart[ip]; e < _nstart[ip+1]; ++e)
+			{
+				float v = _adjbo[e] * xp;
+				x.adjustOrPutValue(_q[e], v, v);
+			}
+		}
+
+		/* fast backward */
+		int[] bpath = getPathPositions(outbuses);
+		for(int i=bpath.length-1; i >= 0; --i)
+		{
+			int ip = bpath[i], bus = _elimbusord[ip];
+			float xp = x.get(bus) / _bd[bus];
+			for(int e=_nstart[ip]; e < _nstart[ip+1]; ++e)
+			{
+				int q = _q[e];
+				if (_pos[q] != -1) xp += _adjbo[e] * x.get(q);
+			}
+			x.put(bus, xp);
+		}
+
+		int nout = outbuses.length;
+		float[] rv = new float[nout];
+		for(int i=0; i < nout; ++i)
+		{
+			int b = outbuses[i];
+			if (_pos[b] != -1) rv[i] = x.get(b);
+		}
+		return rv;
+	}
+
+	/**
+	 * Get the bus eliminated at the given position
+	 * @param pos elimination position
+	 * @return bus index
+	 */
+	public int getElimBus(int pos)
+	{
+		return _elimbusord[pos];
+	}
+
+	/**
+	 * Solve in place for a subset of the eliminated buses that shares no
+	 * eliminated edges with the rest of the matrix, such as an island.
+	 * Entries for other buses are not read or modified, with the exception of
+	 * buses retained in the matrix (not eliminated) which are used as scratch
+	 * space.
+	 * 
+	 * @param x
+	 *            mismatches on input, corrections for the eliminated buses on
+	 *            output
+	 * @param positions
+	 *            elimination positions of the subset in ascending order
+	 */
+	public void solve(float[] x, int[] positions)
+	{
+		int npos = positions.length;
+		for(int i=0; i < npos; ++i)
+		{
+			int ip = positions[i];
+			float xp = x[_elimbusord[ip]];
+			for(int e=_nstart[ip]; e < _nstart[ip+1]; ++e)
+				x[_q[e]] += _adjbo[e] * xp;
+		}
+		for(int i=npos-1; i >= 0; --i)
+		{
+			int ip = positions[i], bus = _elimbusord[ip];
+			float xp = x[bus] / _bd[bus];
+			for(int e=_nstart[ip]; e < _nstart[ip+1]; ++e)
+			{
+				int q = _q[e];
+				if (_pos[q] != -1) xp += _adjbo[e] * x[q];
+			}
+			x[bus] = xp;
+		}
+	}
+
+	/**
+	 * Get the elimination tree
+	 * @return parent position in elimination order for each eliminated bus, -1 at the root
+	 */
+	public int[] getElimTree()
+	{
+		return _parent;
+	}
+
+	/**
+	 * Solve independent subtrees of the elimination tree concurrently.
+	 * Matrices with fewer eliminated buses than the threshold are still
+	 * solved with a sequential sweep.
+	 * 
+	 * @param pool
+	 *            pool to run subtrees on, null to always solve sequentially
+	 * @param minsize
+	 *            minimum number of eliminated buses to solve in parallel
+	 */
+	public synchronized void setParallel(ForkJoinPool pool, int minsize)
+	{
+		_pool = pool;
+		_parmin = minsize;
+		_post = null;
+	}
+
+	/**
+	 * Solve independent subtrees concurrently on the given pool, for matrices
+	 * with at least PARALLEL_MIN eliminated buses
+	 * 
+	 * @param pool
+	 *            pool to run subtrees on, null to always solve sequentially
+	 */
+	public void setParallel(ForkJoinPool pool)
+	{
+		setParallel(pool, PARALLEL_MIN);
+	}
+
+	/** @return true if solutions are run in parallel */
+	boolean useParallel()
+	{
+		if (_pool == null || _elimbusord.length < _parmin) return false;
+		if (_post == null) buildSchedule();
+		return true;
+	}
+
+	/**
+	 * Split the elimination tree into subtrees small enough to solve as one
+	 * task, and the positions above them which are solved sequentially.  Each
+	 * subtree is a contiguous range of the postorder.
+	 */
+	synchronized void buildSchedule()
+	{
+		if (_post != null) return;
+		buildTranspose();
+		int nelim = _elimbusord.length;
+		/* children of each position */
+		int[] cstart = new int[nelim+1];
+		for(int i=0; i < nelim; ++i)
+			if (_parent[i] != -1) ++cstart[_parent[i]+1];
+		for(int i=0; i < nelim; ++i)
+			cstart[i+1] += cstart[i];
+		int[] next = Arrays.copyOf(cstart, nelim);
+		int[] child = new int[nelim];
+		for(int i=0; i < nelim; ++i)
+			if (_parent[i] != -1) child[next[_parent[i]]++] = i;
+
+		/* children precede parents in the elimination order */
+		int[] size = new int[nelim];
+		for(int i=0; i < nelim; ++i)
+		{
+			++size[i];
+			if (_parent[i] != -1) size[_parent[i]] += size[i];
+		}
+
+		/* postorder without recursion, the tree can be very deep */
+		int[] post = new int[nelim], start = new int[nelim];
+		int[] stk = new int[nelim];
+		int npost = 0;
+		for(int r=0; r < nelim; ++r)
+		{
+			if (_parent[r] != -1) continue;
+			int nstk = 0;
+			stk[nstk++] = r;
+			next[r] = cstart[r];
+			start[r] = npost;
+			while (nstk > 0)
+			{
+				int j = stk[nstk-1];
+				if (next[j] < cstart[j+1])
+				{
+					int c = child[next[j]++];
+					next[c] = cstart[c];
+					start[c] = npost;
+					stk[nstk++] = c;
+				}
+				else
+				{
+					post[npost++] = j;
+					--nstk;
+				}
+			}
+		}
+
+		int grain = Math.max(64, nelim / (4 * _pool.getParallelism()));
+		int[] substart = new int[nelim], subsize = new int[nelim], top = new int[nelim];
+		int nsub = 0, ntop = 0;
+		for(int k=0; k < nelim; ++k)
+		{
+			int j = post[k], par = _parent[j];
+			if (size[j] > grain)
+				top[ntop++] = j;
+			else if (par == -1 || size[par] > grain)
+			{
+				substart[nsub] = start[j];
+				subsize[nsub++] = size[j];
+			}
+		}
+
+		int nbus = _bd.length, nkept = 0;
+		int[] kept = new int[nbus];
+		for(int b=0; b < nbus; ++b)
+			if (_pos[b] == -1 && _tstart[b+1] > _tstart[b]) kept[nkept++] = b;
+
+		int[] subwork = new int[nsub+1];
+		for(int i=0; i < nsub; ++i)
+			subwork[i+1] = subwork[i] + subsize[i];
+
+		_grain = grain;
+		_subwork = subwork;
+		_substart = Arrays.copyOf(substart, nsub);
+		_subsize = Arrays.copyOf(subsize, nsub);
+		_top = Arrays.copyOf(top, ntop);
+		_kept = Arrays.copyOf(kept, nkept);
+		_post = post;
+	}
+
+	/** forward reduction for a single bus, gathering from its eliminated edges */
+	void forward(float[] x, int bus)
+	{
+		float s = x[bus];
+		for(int k=_tstart[bus]; k < _tstart[bus+1]; ++k)
+		{
+			int e = _tedge[k];
+			s += _adjbo[e] * x[_p[e]];
+		}
+		x[bus] = s;
+	}
+
+	/** backward substitution for a single elimination position */
+	void backward(float[] x, int ip)
+	{
+		int bus = _elimbusord[ip];
+		float xp = x[bus] / _bd[bus];
+		for(int e=_nstart[ip]; e < _nstart[ip+1]; ++e)
+		{
+			int q = _q[e];
+			if (_pos[q] != -1) xp += _adjbo[e] * x[q];
+		}
+		x[bus] = xp;
+	}
+
+	/** Sweep a range of the independent subtrees */
+	@SuppressWarnings("serial")
+	class SubtreeSweep extends RecursiveAction
+	{
+		float[] _x;
+		int _lo, _hi;
+		boolean _fwd;
+
+		SubtreeSweep(float[] x, int lo, int hi, boolean fwd)
+		{
+			_x = x;
+			_lo = lo;
+			_hi = hi;
+			_fwd = fwd;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (_hi - _lo > 1 && _subwork[_hi] - _subwork[_lo] > _grain)
+			{
+				int mid = (_lo + _hi) >>> 1;
+				invokeAll(new SubtreeSweep(_x, _lo, mid, _fwd),
+					new SubtreeSweep(_x, mid, _hi, _fwd));
+				return;
+			}
+			int[] post = _post;
+			for(int s=_lo; s < _hi; ++s)
+			{
+				int k0 = _substart[s], k1 = k0 + _subsize[s];
+				if (_fwd)
+				{
+					for(int k=k0; k < k1; ++k)
+						forward(_x, _elimbusord[post[k]]);
+				}
+				else
+				{
+					for(int k=k1-1; k >= k0; --k)
+						backward(_x, post[k]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forward reduction in place, with the independent subtrees reduced
+	 * concurrently before the positions above them
+	 */
+	void forwardParallel(float[] x)
+	{
+		_pool.invoke(new SubtreeSweep(x, 0, _substart.length, true));
+		for(int j : _top)
+			forward(x, _elimbusord[j]);
+		for(int b : _kept)
+			forward(x, b);
+	}
+
+	/**
+	 * Backward substitution in place, with the positions above the
+	 * independent subtrees solved before the subtrees. Buses not eliminated
+	 * are set to 0.
+	 */
+	void backwardParallel(float[] x)
+	{
+		for(int i=_top.length-1; i >= 0; --i)
+			backward(x, _top[i]);
+		_pool.invoke(new SubtreeSweep(x, 0, _substart.length, false));
+		int nbus = _bd.length;
+		for(int b=0; b < nbus; ++b)
+			if (_pos[b] == -1) x[b] = 0f;
 	}
 
 	/** 
@@ -36,6 +545,11 @@ public class FactorizedFltMatrix
 	{
 		int nbr = _adjbo.length;
 		float[] rv = mm.clone();
+		if (useParallel())
+		{
+			forwardParallel(rv);
+			return rv;
+		}
 
 		for (int i = 0; i < nbr; ++i)
 		{
@@ -52,6 +566,12 @@ public class FactorizedFltMatrix
 	public float[] backwardSubstitution(float[] ds)
 	{
 		int nbr = _adjbo.length;
+		if (useParallel())
+		{
+			float[] dx = ds.clone();
+			backwardParallel(dx);
+			return dx;
+		}
 		float[] dx = new float[ds.length];
 		for(int bus : _elimbusord)
 		{
@@ -77,6 +597,110 @@ public class FactorizedFltMatrix
 		return backwardSubstitution(forwardReduction(mm));
 	}
 
+	/**
+	 * Solve a single right-hand side into a caller-supplied buffer
+	 * 
+	 * @param mm
+	 *            Mismatch array (not modified unless the same array as out)
+	 * @param out
+	 *            Array (in bus order) to receive corrections, may be mm
+	 */
+	public void solve(float[] mm, float[] out)
+	{
+		if (out != mm) System.arraycopy(mm, 0, out, 0, mm.length);
+		if (useParallel())
+		{
+			forwardParallel(out);
+			backwardParallel(out);
+		}
+		else
+		{
+			solveInterleaved(out, 1);
+		}
+	}
+
+	/** number of right-hand sides swept together by solve(float[][], float[][]) */
+	static final int RHS_BLOCK = 16;
+
+	/**
+	 * Solve multiple right-hand sides in place, stored interleaved by bus:
+	 * value j for bus b is at x[b*nrhs + j]. All right-hand sides are
+	 * processed in a single sweep of the factors.
+	 * 
+	 * @param x
+	 *            mismatches on input, corrections on output
+	 * @param nrhs
+	 *            number of right-hand sides
+	 */
+	public void solveInterleaved(float[] x, int nrhs)
+	{
+		int nbr = _adjbo.length, nbus = _bd.length;
+		/* forward reduction */
+		for (int i = 0; i < nbr; ++i)
+		{
+			float a = _adjbo[i];
+			int px = _p[i] * nrhs, qx = _q[i] * nrhs;
+			for (int j = 0; j < nrhs; ++j)
+				x[qx + j] += a * x[px + j];
+		}
+		/* diagonal, buses not eliminated have no correction */
+		for (int bus = 0; bus < nbus; ++bus)
+		{
+			int bx = bus * nrhs;
+			if (_pos[bus] == -1)
+			{
+				Arrays.fill(x, bx, bx + nrhs, 0f);
+			}
+			else
+			{
+				float d = _bd[bus];
+				for (int j = 0; j < nrhs; ++j)
+					x[bx + j] /= d;
+			}
+		}
+		/* backward substitution */
+		for (int i = nbr - 1; i >= 0; --i)
+		{
+			float a = _adjbo[i];
+			int px = _p[i] * nrhs, qx = _q[i] * nrhs;
+			for (int j = 0; j < nrhs; ++j)
+				x[px + j] += a * x[qx + j];
+		}
+	}
+
+	/**
+	 * Solve multiple right-hand sides. Right-hand sides are copied in blocks
+	 * to an interleaved work array so that each sweep of the factors serves
+	 * a full block.
+	 * 
+	 * @param mm
+	 *            Mismatch arrays (not modified unless the same arrays as out)
+	 * @param out
+	 *            Arrays (in bus order) to receive corrections, may be mm
+	 */
+	public void solve(float[][] mm, float[][] out)
+	{
+		int nrhs = mm.length, nbus = _bd.length;
+		float[] work = new float[nbus * Math.min(nrhs, RHS_BLOCK)];
+		for (int r0 = 0; r0 < nrhs; r0 += RHS_BLOCK)
+		{
+			int nb = Math.min(RHS_BLOCK, nrhs - r0);
+			for (int j = 0; j < nb; ++j)
+			{
+				float[] m = mm[r0 + j];
+				for (int bus = 0; bus < nbus; ++bus)
+					work[bus * nb + j] = m[bus];
+			}
+			solveInterleaved(work, nb);
+			for (int j = 0; j < nb; ++j)
+			{
+				float[] o = out[r0 + j];
+				for (int bus = 0; bus < nbus; ++bus)
+					o[bus] = work[bus * nb + j];
+			}
+		}
+	}
+
 	public int[] getElimBus()
 	{
 		return _elimbusord;
@@ -0,0 +1,93 @@
+package com.powerdata.openpa.tools.matrix;
+
+import java.util.Arrays;
+
+/**
+ * Factorized Jacobian matrix created by SpSymJacobianMatrix. Each element is a
+ * 2x2 block of (dP/da, dP/dV, dQ/da, dQ/dV).
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class FactorizedJacobianMatrix
+{
+	static final int ESIZE = SpSymJacobianMatrix.ESIZE;
+
+	/** inverted diagonal blocks by bus */
+	float[] _dinv;
+	/** lower (column) factors by eliminated edge */
+	float[] _l;
+	/** upper (row) factors by eliminated edge */
+	float[] _u;
+	/** remaining bus by eliminated edge */
+	int[] _q;
+	/** offset of first edge for each eliminated bus, in elimination order */
+	int[] _nstart;
+	/** eliminated buses in order */
+	int[] _elimnd;
+
+	FactorizedJacobianMatrix(float[] dinv, float[] l, float[] u, int[] q,
+			int[] nstart, int[] elimnd)
+	{
+		_dinv = dinv;
+		_l = l;
+		_u = u;
+		_q = q;
+		_nstart = nstart;
+		_elimnd = elimnd;
+	}
+
+	/**
+	 * Solve for corrections in angle and voltage magnitude
+	 *
+	 * @param dp
+	 *            real power mismatch by bus, replaced with angle corrections
+	 * @param dq
+	 *            reactive power mismatch by bus, replaced with voltage
+	 *            magnitude corrections
+	 */
+	public void solve(float[] dp, float[] dq)
+	{
+		int nelim = _elimnd.length;
+		float[] x = new float[dp.length], y = new float[dq.length];
+		/* forward reduction */
+		for (int i = 0; i < nelim; ++i)
+		{
+			int p = _elimnd[i];
+			float rp = dp[p], rq = dq[p];
+			for (int k = _nstart[i]; k < _nstart[i + 1]; ++k)
+			{
+				int q = _q[k], kx = k * ESIZE;
+				dp[q] -= _l[kx] * rp + _l[kx + 1] * rq;
+				dq[q] -= _l[kx + 2] * rp + _l[kx + 3] * rq;
+			}
+		}
+		/* backward substitution, buses not eliminated are left at 0 */
+		for (int i = nelim - 1; i >= 0; --i)
+		{
+			int p = _elimnd[i];
+			float rp = dp[p], rq = dq[p];
+			for (int k = _nstart[i]; k < _nstart[i + 1]; ++k)
+			{
+				int q = _q[k], kx = k * ESIZE;
+				float xa = x[q], xv = y[q];
+				rp -= _u[kx] * xa + _u[kx + 1] * xv;
+				rq -= _u[kx + 2] * xa + _u[kx + 3] * xv;
+			}
+			int px = p * ESIZE;
+			x[p] = _dinv[px] * rp + _dinv[px + 1] * rq;
+			y[p] = _dinv[px + 2] * rp + _dinv[px + 3] * rq;
+		}
+		System.arraycopy(x, 0, dp, 0, x.length);
+		System.arraycopy(y, 0, dq, 0, y.length);
+	}
+
+	/**
+	 * Get the eliminated buses in order
+	 * @return eliminated bus indexes
+	 */
+	public int[] getElimBus()
+	{
+		return Arrays.copyOf(_elimnd, _elimnd.length);
+	}
+}
@@ -0,0 +1,41 @@
+package com.powerdata.openpa.tools.matrix;
+
+import com.powerdata.openpa.tools.BusConnectionsPriQ;
+import com.powerdata.openpa.tools.LinkNet;
+
+/**
+ * Minimum degree ordering. Eliminate the node with the fewest connections,
+ * using a priority queue of connection counts.
+ * 
+ * @author chris@powerdata.com
+ * 
+ */
+public class MinDegreeOrdering implements EliminationOrdering
+{
+	BusConnectionsPriQ _bcq;
+
+	@Override
+	public void start(LinkNet net, int[] counts)
+	{
+		_bcq = new BusConnectionsPriQ(counts);
+	}
+
+	@Override
+	public int next()
+	{
+		return _bcq.peek();
+	}
+
+	@Override
+	public void eliminated(int node, int[] cnodes, int[] delta, int n)
+	{
+		for (int i = 0; i < n; ++i)
+			_bcq.dec(node);
+		for (int i = 0; i < n; ++i)
+		{
+			int b = cnodes[i], c = delta[i];
+			for (; c < 0; ++c) _bcq.dec(b);
+			for (; c > 0; --c) _bcq.inc(b);
+		}
+	}
+}
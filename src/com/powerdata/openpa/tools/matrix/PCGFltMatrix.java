@@ -0,0 +1,411 @@
+package com.powerdata.openpa.tools.matrix;
+
+import java.util.Arrays;
+import com.powerdata.openpa.tools.LinkNet;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Solve a sparse symmetric matrix iteratively with preconditioned conjugate
+ * gradients, as an alternative to FactorizedFltMatrix for matrices too large
+ * to factorize comfortably.
+ *
+ * The preconditioner is an incomplete Cholesky (LDL') factorization with no
+ * fill, so it uses only the structure of the adjacencies. Buses are kept in
+ * their natural order, and the reference buses are removed, as they are when
+ * the matrix is factorized. Any pivot that fails during the incomplete
+ * factorization falls back to the original diagonal.
+ *
+ * Each solve starts from the previous solution, scaled to fit the new
+ * right-hand side, when that is closer than zero to the answer, so successive
+ * solves of similar systems (corrections in a power flow, for example) need
+ * fewer iterations. Work is done in double precision, and values are read
+ * from the matrix when this object is created or refreshed.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class PCGFltMatrix
+{
+	/** default tolerance on the residual, relative to the right-hand side */
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+	/** default limit on iterations for each solve */
+	public static final int DEFAULT_MAX_ITERATIONS = 500;
+	/** smallest incomplete pivot, relative to the diagonal, that is accepted */
+	static final double PIVOT_TOL = 1e-8;
+
+	SpSymFltMatrix _mtrx;
+	/** buses solved, and the position of each bus (-1 if not solved) */
+	int[] _bus, _pos;
+	/**
+	 * rows over positions, columns ascending. Entries before _lend are the
+	 * lower triangle. _br holds the branch of each entry.
+	 */
+	int[] _rstart, _lend, _col, _br;
+	/** diagonal and off-diagonal values */
+	double[] _ad, _a;
+	/** incomplete factors, multipliers use the lower triangle of _rstart */
+	double[] _d, _l;
+	/** solution from the last solve, and work vectors */
+	double[] _x, _r, _z, _p, _q;
+
+	double _tol = DEFAULT_TOLERANCE;
+	int _maxit = DEFAULT_MAX_ITERATIONS;
+	boolean _warm = true;
+	int _niter = 0;
+	double _resid = 0.0;
+	boolean _cnvg = true;
+
+	/**
+	 * Create an iterative solver
+	 *
+	 * @param mtrx
+	 *            matrix to solve
+	 * @param ref
+	 *            reference buses, not solved (corrections are 0)
+	 */
+	public PCGFltMatrix(SpSymFltMatrix mtrx, int[] ref)
+	{
+		_mtrx = mtrx;
+		LinkNet adj = mtrx._adj;
+		int nbus = mtrx._bdiag.length;
+		boolean[] isref = new boolean[nbus];
+		for(int r : ref) isref[r] = true;
+
+		/* solve the buses a factorization would eliminate */
+		_pos = new int[nbus];
+		Arrays.fill(_pos, -1);
+		int lastbus = Math.min(adj.getMaxBusNdx(), nbus-1);
+		TIntArrayList bus = new TIntArrayList();
+		for(int b=0; b <= lastbus; ++b)
+		{
+			if (!isref[b] && adj.getConnectionCount(b) > 0)
+			{
+				_pos[b] = bus.size();
+				bus.add(b);
+			}
+		}
+		_bus = bus.toArray();
+
+		int n = _bus.length;
+		_rstart = new int[n+1];
+		_lend = new int[n];
+		TIntArrayList col = new TIntArrayList(), br = new TIntArrayList();
+		for(int i=0; i < n; ++i)
+		{
+			_rstart[i] = col.size();
+			int[][] cn = adj.findConnections(_bus[i]);
+			int[] cbus = cn[0], cbr = cn[1];
+			int nc = cbus.length;
+			long[] sorted = new long[nc];
+			int ns = 0;
+			for(int j=0; j < nc; ++j)
+			{
+				int c = _pos[cbus[j]];
+				if (c != -1 && c != i)
+					sorted[ns++] = ((long) c << 32) | cbr[j];
+			}
+			Arrays.sort(sorted, 0, ns);
+			_lend[i] = _rstart[i];
+			for(int j=0; j < ns; ++j)
+			{
+				int c = (int) (sorted[j] >>> 32);
+				col.add(c);
+				br.add((int) sorted[j]);
+				if (c < i) ++_lend[i];
+			}
+		}
+		_rstart[n] = col.size();
+		_col = col.toArray();
+		_br = br.toArray();
+
+		int nnz = _col.length;
+		_ad = new double[n];
+		_a = new double[nnz];
+		_d = new double[n];
+		_l = new double[nnz];
+		_x = new double[n];
+		_r = new double[n];
+		_z = new double[n];
+		_p = new double[n];
+		_q = new double[n];
+		refresh();
+	}
+
+	/**
+	 * Create a solver that shares the matrix values and preconditioner of
+	 * another, but keeps its own starting point. Used to solve unrelated
+	 * right-hand sides (sensitivities, for example) without disturbing the
+	 * warm start of the original. A refresh of either solver updates both.
+	 *
+	 * @param src
+	 *            solver to share
+	 */
+	public PCGFltMatrix(PCGFltMatrix src)
+	{
+		_mtrx = src._mtrx;
+		_bus = src._bus;
+		_pos = src._pos;
+		_rstart = src._rstart;
+		_lend = src._lend;
+		_col = src._col;
+		_br = src._br;
+		_ad = src._ad;
+		_a = src._a;
+		_d = src._d;
+		_l = src._l;
+		_tol = src._tol;
+		_maxit = src._maxit;
+		int n = _bus.length;
+		_x = new double[n];
+		_r = new double[n];
+		_z = new double[n];
+		_p = new double[n];
+		_q = new double[n];
+	}
+
+	/**
+	 * Read the values from the matrix again and rebuild the preconditioner.
+	 * The adjacencies must not have changed.
+	 */
+	public void refresh()
+	{
+		float[] bd = _mtrx._bdiag, bo = _mtrx._boffdiag;
+		int n = _bus.length, nnz = _col.length;
+		for(int i=0; i < n; ++i)
+			_ad[i] = bd[_bus[i]];
+		for(int k=0; k < nnz; ++k)
+			_a[k] = bo[_br[k]];
+		precondition();
+	}
+
+	/** incomplete LDL' with the pattern of the lower triangle */
+	void precondition()
+	{
+		int n = _bus.length;
+		int[] mark = new int[n];
+		Arrays.fill(mark, -1);
+		double[] w = new double[n];
+		for(int i=0; i < n; ++i)
+		{
+			int s = _rstart[i], e = _lend[i];
+			for(int k=s; k < e; ++k)
+				mark[_col[k]] = i;
+			double d = _ad[i];
+			for(int k=s; k < e; ++k)
+			{
+				int j = _col[k];
+				double v = _a[k];
+				/* subtract the contributions of columns shared by rows i and j */
+				for(int m=_rstart[j]; m < _lend[j]; ++m)
+				{
+					int c = _col[m];
+					if (mark[c] == i) v -= w[c] * _d[c] * _l[m];
+				}
+				double l = v / _d[j];
+				_l[k] = l;
+				w[j] = l;
+				d -= l * l * _d[j];
+			}
+			double a = Math.abs(_ad[i]);
+			if (!(d > PIVOT_TOL * a)) d = (a > 0.0) ? a : 1.0;
+			_d[i] = d;
+		}
+	}
+
+	/** z = (LDL')^-1 r */
+	void applyPreconditioner(double[] r, double[] z)
+	{
+		int n = _bus.length;
+		for(int i=0; i < n; ++i)
+		{
+			double v = r[i];
+			for(int k=_rstart[i]; k < _lend[i]; ++k)
+				v -= _l[k] * z[_col[k]];
+			z[i] = v;
+		}
+		for(int i=0; i < n; ++i)
+			z[i] /= _d[i];
+		for(int i=n-1; i >= 0; --i)
+		{
+			double v = z[i];
+			for(int k=_rstart[i]; k < _lend[i]; ++k)
+				z[_col[k]] -= _l[k] * v;
+		}
+	}
+
+	/** q = A p */
+	void mult(double[] p, double[] q)
+	{
+		int n = _bus.length;
+		for(int i=0; i < n; ++i)
+		{
+			double v = _ad[i] * p[i];
+			for(int k=_rstart[i]; k < _rstart[i+1]; ++k)
+				v += _a[k] * p[_col[k]];
+			q[i] = v;
+		}
+	}
+
+	static double dot(double[] a, double[] b)
+	{
+		double s = 0.0;
+		for(int i=0; i < a.length; ++i)
+			s += a[i] * b[i];
+		return s;
+	}
+
+	/**
+	 * Set the convergence tolerance. Defaults to DEFAULT_TOLERANCE.
+	 *
+	 * @param tol
+	 *            largest residual norm accepted, relative to the norm of the
+	 *            right-hand side
+	 */
+	public void setTolerance(double tol) {_tol = tol;}
+	public double getTolerance() {return _tol;}
+
+	/**
+	 * Set the iteration limit for each solve. Defaults to
+	 * DEFAULT_MAX_ITERATIONS.
+	 *
+	 * @param maxit
+	 *            maximum iterations
+	 */
+	public void setMaxIterations(int maxit) {_maxit = maxit;}
+	public int getMaxIterations() {return _maxit;}
+
+	/**
+	 * Start each solve from the previous solution. Defaults to true.
+	 *
+	 * @param warm
+	 *            true to start from the previous solution, false to start
+	 *            from zero
+	 */
+	public void setWarmStart(boolean warm) {_warm = warm;}
+	public boolean getWarmStart() {return _warm;}
+
+	/**
+	 * Set the starting point for the next solve, for example a solution from
+	 * an earlier run
+	 *
+	 * @param x
+	 *            solution in bus order
+	 */
+	public void setInitialSolution(float[] x)
+	{
+		int n = _bus.length;
+		for(int i=0; i < n; ++i)
+			_x[i] = x[_bus[i]];
+	}
+
+	/** @return iterations used by the last solve */
+	public int getIterations() {return _niter;}
+
+	/** @return residual norm of the last solve, relative to the right-hand side */
+	public double getResidual() {return _resid;}
+
+	/** @return true if the last solve met the tolerance */
+	public boolean isConverged() {return _cnvg;}
+
+	/**
+	 * Solve the matrix
+	 *
+	 * @param mm
+	 *            Mismatch array
+	 * @return Array (in bus order) of corrections
+	 */
+	public float[] solve(float[] mm)
+	{
+		float[] rv = new float[mm.length];
+		solve(mm, rv);
+		return rv;
+	}
+
+	/**
+	 * Solve the matrix into a caller-supplied buffer. If the tolerance is not
+	 * met within the iteration limit, the last iterate is returned and
+	 * isConverged() reports false.
+	 *
+	 * @param mm
+	 *            Mismatch array (not modified unless the same array as out)
+	 * @param out
+	 *            Array (in bus order) to receive corrections, may be mm. Buses
+	 *            not solved are 0.
+	 */
+	public void solve(float[] mm, float[] out)
+	{
+		int n = _bus.length;
+		double[] x = _x, r = _r, z = _z, p = _p, q = _q;
+		for(int i=0; i < n; ++i)
+			r[i] = mm[_bus[i]];
+		double bnorm = Math.sqrt(dot(r, r));
+
+		/*
+		 * scale the starting point to best fit the new right-hand side (the
+		 * corrections shrink as a power flow converges), and keep it only if
+		 * it leaves a smaller residual than zero
+		 */
+		boolean zero = true;
+		if (_warm && bnorm > 0.0)
+		{
+			mult(x, q);
+			double xq = dot(x, q);
+			double g = (xq > 0.0) ? dot(r, x) / xq : 0.0, rr = 0.0;
+			for(int i=0; i < n; ++i)
+			{
+				double v = r[i] - g * q[i];
+				rr += v * v;
+			}
+			if (rr < bnorm * bnorm)
+			{
+				for(int i=0; i < n; ++i)
+				{
+					x[i] *= g;
+					r[i] -= g * q[i];
+				}
+				zero = false;
+			}
+		}
+		if (zero) Arrays.fill(x, 0.0);
+
+		int it = 0;
+		double lim = _tol * bnorm, rnorm = Math.sqrt(dot(r, r));
+		if (rnorm > lim)
+		{
+			applyPreconditioner(r, z);
+			System.arraycopy(z, 0, p, 0, n);
+			double rz = dot(r, z);
+			while (it < _maxit)
+			{
+				++it;
+				mult(p, q);
+				double alpha = rz / dot(p, q);
+				for(int i=0; i < n; ++i)
+				{
+					x[i] += alpha * p[i];
+					r[i] -= alpha * q[i];
+				}
+				rnorm = Math.sqrt(dot(r, r));
+				if (rnorm <= lim) break;
+				applyPreconditioner(r, z);
+				double rznew = dot(r, z), beta = rznew / rz;
+				rz = rznew;
+				for(int i=0; i < n; ++i)
+					p[i] = z[i] + beta * p[i];
+			}
+		}
+		_niter = it;
+		_resid = (bnorm > 0.0) ? rnorm / bnorm : 0.0;
+		_cnvg = rnorm <= lim;
+
+		Arrays.fill(out, 0f);
+		for(int i=0; i < n; ++i)
+			out[_bus[i]] = (float) x[i];
+	}
+
+	/** @return buses solved (all but the reference buses and isolated buses) */
+	public int[] getElimBus()
+	{
+		return _bus;
+	}
+}
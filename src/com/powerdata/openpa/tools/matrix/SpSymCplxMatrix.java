@@ -0,0 +1,221 @@
+package com.powerdata.openpa.tools.matrix;
+
+import java.util.Arrays;
+import com.powerdata.openpa.tools.LinkNet;
+
+/**
+ * Sparse symmetric matrix with complex values, such as a bus admittance
+ * matrix.
+ *
+ * As with SpSymFltMatrix, this wraps a set of adjacencies (LinkNet) created
+ * independently, and no changes are permitted to the adjacencies after this
+ * object is constructed. Values are symmetric, not Hermitian, so the
+ * factorization is LDL' without conjugation and can reuse any
+ * SpSymMtrxFactPattern built from the same adjacencies.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class SpSymCplxMatrix
+{
+	protected LinkNet _adj;
+	/** diagonal values, real and imaginary parts */
+	protected float[] _gdiag, _bdiag;
+	/** off-diagonal values by branch, real and imaginary parts */
+	protected float[] _goffdiag, _boffdiag;
+
+	/**
+	 * Expect that the sub class has enough information to
+	 */
+	protected SpSymCplxMatrix() {}
+
+	/**
+	 * Create a matrix from existing values. The value arrays are used
+	 * directly, not copied.
+	 *
+	 * @param adj
+	 *            adjacencies
+	 * @param gdiag
+	 *            real part of the diagonal, by bus
+	 * @param bdiag
+	 *            imaginary part of the diagonal, by bus
+	 * @param goffdiag
+	 *            real part of the off-diagonal, by branch
+	 * @param boffdiag
+	 *            imaginary part of the off-diagonal, by branch
+	 */
+	public SpSymCplxMatrix(LinkNet adj, float[] gdiag, float[] bdiag,
+			float[] goffdiag, float[] boffdiag)
+	{
+		_adj = adj;
+		_gdiag = gdiag;
+		_bdiag = bdiag;
+		_goffdiag = goffdiag;
+		_boffdiag = boffdiag;
+	}
+
+	protected void setAdjacencies(LinkNet adj) {_adj = adj;}
+	protected void setDiag(float[] gdiag, float[] bdiag)
+	{
+		_gdiag = gdiag;
+		_bdiag = bdiag;
+	}
+	protected void setOffDiag(float[] goffdiag, float[] boffdiag)
+	{
+		_goffdiag = goffdiag;
+		_boffdiag = boffdiag;
+	}
+
+	public LinkNet getAdjacencies() {return _adj;}
+	public float[] getGDiag() {return _gdiag;}
+	public float[] getBDiag() {return _bdiag;}
+	public float[] getGOffDiag() {return _goffdiag;}
+	public float[] getBOffDiag() {return _boffdiag;}
+
+	public int getRowCount() {return _gdiag.length;}
+	public int getColumnCount() {return _gdiag.length;}
+
+	/**
+	 * Add a value
+	 *
+	 * @param f
+	 *            row
+	 * @param t
+	 *            column, must be the same as the row or adjacent to it
+	 * @param g
+	 *            real part
+	 * @param b
+	 *            imaginary part
+	 */
+	public void addValue(int f, int t, float g, float b)
+	{
+		if (f == t)
+		{
+			incDiag(f, g, b);
+		}
+		else
+		{
+			incOffdiag(_adj.findBranch(f, t), g, b);
+		}
+	}
+
+	/** modify a diagonal entry */
+	public void incDiag(int bus, float g, float b)
+	{
+		_gdiag[bus] += g;
+		_bdiag[bus] += b;
+	}
+
+	/** modify an off-diagonal entry */
+	public void incOffdiag(int br, float g, float b)
+	{
+		_goffdiag[br] += g;
+		_boffdiag[br] += b;
+	}
+
+	/**
+	 * Multiply the matrix by a vector
+	 *
+	 * @param xre
+	 *            real part of the vector
+	 * @param xim
+	 *            imaginary part of the vector
+	 * @return real (index 0) and imaginary (index 1) parts of the product
+	 */
+	public float[][] mult(float[] xre, float[] xim)
+	{
+		int nbus = _gdiag.length, nbr = _adj.getBranchCount();
+		float[] re = new float[nbus], im = new float[nbus];
+		for(int i=0; i < nbus; ++i)
+		{
+			float g = _gdiag[i], b = _bdiag[i];
+			re[i] = g * xre[i] - b * xim[i];
+			im[i] = g * xim[i] + b * xre[i];
+		}
+		for(int br=0; br < nbr; ++br)
+		{
+			int[] ft = _adj.getBusesForBranch(br);
+			int f = ft[0], t = ft[1];
+			float g = _goffdiag[br], b = _boffdiag[br];
+			re[f] += g * xre[t] - b * xim[t];
+			im[f] += g * xim[t] + b * xre[t];
+			re[t] += g * xre[f] - b * xim[f];
+			im[t] += g * xim[f] + b * xre[f];
+		}
+		return new float[][] {re, im};
+	}
+
+	/**
+	 * Factorize using a new elimination pattern
+	 *
+	 * @param ref
+	 *            nodes to retain in the reduced network
+	 * @return factorized matrix
+	 */
+	public FactorizedCplxMatrix factorize(int[] ref)
+	{
+		SpSymMtrxFactPattern pat = new SpSymMtrxFactPattern();
+		pat.eliminate(_adj, ref);
+		return factorize(pat);
+	}
+
+	/**
+	 * Factorize using a saved pattern. Neither the pattern nor the values in
+	 * this matrix are modified.
+	 *
+	 * @param pat
+	 *            elimination pattern (typically shared with B' and B'')
+	 * @return factorized matrix
+	 */
+	public FactorizedCplxMatrix factorize(SpSymMtrxFactPattern pat)
+	{
+		int nbr = Math.max(_goffdiag.length, pat.getEdgeCapacity());
+		float[] dre = _gdiag.clone(), dim = _bdiag.clone();
+		float[] ore = Arrays.copyOf(_goffdiag, nbr), oim = Arrays.copyOf(_boffdiag, nbr);
+
+		int nelim = pat.getElimNdCount();
+		int[] elimnd = pat.getElimNdOrder(), nstart = pat.getElimEdgeStart(),
+				tstart = pat.getFilledInStart(), cbus = pat.getElimToNode(),
+				cbr = pat.getElimEdgeOrder(), tbr = pat.getFilledInEdges();
+		float[] tre = new float[0], tim = new float[0];
+		for (int n = 0; n < nelim; ++n)
+		{
+			int p = elimnd[n], e0 = nstart[n], nmut = nstart[n+1] - e0;
+			if (tre.length < nmut)
+			{
+				tre = new float[Math.max(nmut, 2 * tre.length)];
+				tim = new float[tre.length];
+			}
+			float dr = dre[p], di = dim[p], den = dr * dr + di * di;
+			for (int i = 0; i < nmut; ++i)
+			{
+				int br = cbr[e0+i], c = cbus[e0+i];
+				float or = ore[br], oi = oim[br];
+				/* temp = -offdiag / diag */
+				float tr = -(or * dr + oi * di) / den, ti = -(oi * dr - or * di) / den;
+				tre[i] = tr;
+				tim[i] = ti;
+				dre[c] += tr * or - ti * oi;
+				dim[c] += tr * oi + ti * or;
+			}
+			int imut = tstart[n];
+			for (int i = 0; i < nmut; ++i)
+			{
+				float tr = tre[i], ti = tim[i];
+				for (int j = i + 1; j < nmut; ++j)
+				{
+					int tb = tbr[imut++];
+					if (tb == -1) continue;
+					int br = cbr[e0+j];
+					float or = ore[br], oi = oim[br];
+					ore[tb] += tr * or - ti * oi;
+					oim[tb] += tr * oi + ti * or;
+				}
+			}
+		}
+		return new FactorizedCplxMatrix(dre, dim, ore, oim,
+			pat.getElimFromNode(), pat.getElimToNode(),
+			pat.getElimNdOrder(), pat.getElimNdCount(),
+			pat.getElimEdgeOrder(), pat.getElimEdgeCount());
+	}
+}
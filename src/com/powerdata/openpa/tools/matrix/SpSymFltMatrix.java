@@ -3,7 +3,6 @@ package com.powerdata.openpa.tools.matrix;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import com.powerdata.openpa.tools.LinkNet;
-import com.powerdata.openpa.tools.matrix.SpSymMtrxFactPattern.EliminatedNode;
 
 /**
  * Sparse Symmetric matrix with a floating-point value.
@@ -36,13 +35,12 @@ public class SpSymFltMatrix implements FloatMatrix
 			bo = boffdiag;
 		}
 
-		float[]	bd, bo, temp;
+		float[]	bd, bo, temp = new float[0];
 
 		@Override
-		protected void elimStart(int elimbus, int[] cbus, int[] cbr)
+		protected void elimStart(int elimbus, int[] cbus, int[] cbr, int nmut)
 		{
-			int nmut = cbus.length;
-			temp = new float[nmut];
+			if (temp.length < nmut) temp = new float[Math.max(nmut, 2 * temp.length)];
 			for (int i = 0; i < nmut; ++i)
 			{
 				float boelim = bo[cbr[i]];
@@ -157,26 +155,408 @@ public class SpSymFltMatrix implements FloatMatrix
 	 */
 	public FactorizedFltMatrix factorize(SpSymMtrxFactPattern pat)
 	{
-		Factorizer f = new Factorizer(_bdiag, _boffdiag);
-		f.ensureCapacity(pat.getElimEdgeCount());
-		/* fake out the factorize, but use the same equations for B */
-		for (EliminatedNode ebusr : pat.getEliminatedBuses())
-		{
-			int[] cbus = ebusr.getRemainingNodes();
-			int[] cbr = ebusr.getElimEdges();
-			f.elimStart(ebusr.getElimNodeNdx(), cbus, cbr);
-			int[] tbr = ebusr.getFilledInEdges();
-			int nmut = cbus.length, imut = 0;
+		float[] bd = _bdiag.clone();
+		float[] bo = Arrays.copyOf(_boffdiag,
+			Math.max(_boffdiag.length, pat.getEdgeCapacity()));
+		factorValues(pat, bd, bo, new float[0]);
+		return new FactorizedFltMatrix(bd, bo,
+				pat.getElimFromNode(), pat.getElimToNode(),
+				pat.getElimNdOrder(), pat.getElimNdCount(),
+				pat.getElimEdgeOrder(), pat.getElimEdgeCount());
+	}
+
+	/** diagonal, off-diagonal and mutual workspaces for factorize(pat, f) */
+	float[] _wbd = new float[0], _wbo = new float[0], _wtemp = new float[0];
+
+	/**
+	 * Factorize into an existing factorization created from the same pattern,
+	 * replacing its values. Workspaces are kept with this matrix, so repeated
+	 * factorizations do not allocate. Not safe to call concurrently on the
+	 * same matrix.
+	 * 
+	 * @param pat
+	 *            elimination pattern
+	 * @param f
+	 *            factorization created from this matrix and pattern
+	 * @return f with updated values
+	 */
+	public FactorizedFltMatrix factorize(SpSymMtrxFactPattern pat,
+			FactorizedFltMatrix f)
+	{
+		int nbus = _bdiag.length, nbo = _boffdiag.length;
+		int nbr = Math.max(nbo, pat.getEdgeCapacity());
+		if (_wbd.length < nbus) _wbd = new float[nbus];
+		if (_wbo.length < nbr) _wbo = new float[nbr];
+		float[] bd = _wbd, bo = _wbo;
+		System.arraycopy(_bdiag, 0, bd, 0, nbus);
+		System.arraycopy(_boffdiag, 0, bo, 0, nbo);
+		Arrays.fill(bo, nbo, nbr, 0f);
+		_wtemp = factorValues(pat, bd, bo, _wtemp);
+
+		System.arraycopy(bd, 0, f._bd, 0, nbus);
+		int[] p = f._p, brord = f._brord;
+		float[] adjbo = f._adjbo;
+		int nedge = adjbo.length;
+		for(int i=0; i < nedge; ++i)
+			adjbo[i] = -bo[brord[i]] / bd[p[i]];
+		return f;
+	}
+
+	/**
+	 * Run the numerical elimination of a saved pattern in place
+	 * 
+	 * @param pat
+	 *            elimination pattern
+	 * @param bd
+	 *            diagonal values, replaced with the factorized values
+	 * @param bo
+	 *            off-diagonal values sized to the pattern edge capacity,
+	 *            replaced with the factorized values
+	 * @param temp
+	 *            mutual workspace, replaced if too small
+	 * @return mutual workspace
+	 */
+	static float[] factorValues(SpSymMtrxFactPattern pat, float[] bd,
+			float[] bo, float[] temp)
+	{
+		int nelim = pat.getElimNdCount();
+		int[] elimnd = pat.getElimNdOrder(), nstart = pat.getElimEdgeStart(),
+				tstart = pat.getFilledInStart(), cbus = pat.getElimToNode(),
+				cbr = pat.getElimEdgeOrder(), tbr = pat.getFilledInEdges();
+		for (int n = 0; n < nelim; ++n)
+		{
+			int p = elimnd[n], e0 = nstart[n], nmut = nstart[n+1] - e0;
+			if (temp.length < nmut) temp = new float[Math.max(nmut, 2 * temp.length)];
+			for (int i = 0; i < nmut; ++i)
+			{
+				float boelim = bo[cbr[e0+i]];
+				temp[i] = -boelim / bd[p];
+				bd[cbus[e0+i]] += temp[i] * boelim;
+			}
+			int imut = tstart[n];
 			for (int i = 0; i < nmut; ++i)
 			{
 				for (int j = i + 1; j < nmut; ++j)
-					f.mutual(i, cbr[j], tbr[imut++]);
+				{
+					int tb = tbr[imut++];
+					if (tb != -1) bo[tb] += temp[i] * bo[cbr[e0+j]];
+				}
 			}
 		}
-		return new FactorizedFltMatrix(f.getBDiag(), f.getBOffDiag(),
-				pat.getElimFromNode(), pat.getElimToNode(),
-				pat.getElimNdOrder(), pat.getElimNdCount(),
-				pat.getElimEdgeOrder(), pat.getElimEdgeCount());
+		return temp;
+	}
+
+	/**
+	 * Create a double-precision factorization using a saved pattern. Neither
+	 * the pattern nor susceptance arrays are modified.
+	 * 
+	 * @param pat
+	 *            elimination pattern
+	 * @return factorized susceptance matrix
+	 */
+	public FactorizedDblMatrix factorizeDbl(SpSymMtrxFactPattern pat)
+	{
+		int nbr = Math.max(_boffdiag.length, pat.getEdgeCapacity());
+		int nbus = _bdiag.length;
+		double[] bd = new double[nbus], bo = new double[nbr];
+		for(int i=0; i < nbus; ++i) bd[i] = _bdiag[i];
+		for(int i=0; i < _boffdiag.length; ++i) bo[i] = _boffdiag[i];
+
+		int nelim = pat.getElimNdCount();
+		int[] elimnd = pat.getElimNdOrder(), nstart = pat.getElimEdgeStart(),
+				tstart = pat.getFilledInStart(), cbus = pat.getElimToNode(),
+				cbr = pat.getElimEdgeOrder(), tbr = pat.getFilledInEdges();
+		double[] temp = new double[0];
+		for (int n = 0; n < nelim; ++n)
+		{
+			int p = elimnd[n], e0 = nstart[n], nmut = nstart[n+1] - e0;
+			if (temp.length < nmut) temp = new double[Math.max(nmut, 2 * temp.length)];
+			for (int i = 0; i < nmut; ++i)
+			{
+				double boelim = bo[cbr[e0+i]];
+				temp[i] = -boelim / bd[p];
+				bd[cbus[e0+i]] += temp[i] * boelim;
+			}
+			int imut = tstart[n];
+			for (int i = 0; i < nmut; ++i)
+			{
+				for (int j = i + 1; j < nmut; ++j)
+				{
+					int tb = tbr[imut++];
+					if (tb != -1) bo[tb] += temp[i] * bo[cbr[e0+j]];
+				}
+			}
+		}
+		return new FactorizedDblMatrix(bd, bo, pat.getElimFromNode(),
+			pat.getElimToNode(), pat.getElimNdOrder(), pat.getElimNdCount(),
+			pat.getElimEdgeOrder(), pat.getElimEdgeCount());
+	}
+
+	/**
+	 * Calculate the residual b - Ax in double precision for the eliminated
+	 * buses. Rows of buses that are not eliminated are set to 0.
+	 * 
+	 * @param b
+	 *            right-hand side
+	 * @param x
+	 *            current solution (0 for buses not eliminated)
+	 * @param elimbus
+	 *            eliminated buses
+	 * @return residual in bus order
+	 */
+	public double[] residual(float[] b, double[] x, int[] elimbus)
+	{
+		int nbus = _bdiag.length;
+		return residual(b, x, elimbus, new double[nbus], new double[nbus]);
+	}
+
+	/**
+	 * Calculate the residual into existing arrays. Only the rows of the
+	 * eliminated buses are written to r, so rows of other buses keep their
+	 * values (0 if r was allocated for this).
+	 * 
+	 * @param ax
+	 *            work array for Ax, sized to the buses
+	 * @param r
+	 *            receives the residual
+	 * @return r
+	 */
+	double[] residual(float[] b, double[] x, int[] elimbus, double[] ax, double[] r)
+	{
+		int nbus = _bdiag.length, nbr = _adj.getBranchCount();
+		for(int i=0; i < nbus; ++i)
+			ax[i] = _bdiag[i] * x[i];
+		for(int i=0; i < nbr; ++i)
+		{
+			int f = _adj.getFromBus(i);
+			if (f == -1) continue;
+			int t = _adj.getToBus(i);
+			double bo = _boffdiag[i];
+			ax[f] += bo * x[t];
+			ax[t] += bo * x[f];
+		}
+		for(int bus : elimbus)
+			r[bus] = b[bus] - ax[bus];
+		return r;
+	}
+
+	/** solution, Ax, and residual workspaces for solveRefined() */
+	double[] _wx = new double[0], _wax = new double[0], _wr = new double[0];
+	float[] _wrf = new float[0];
+
+	/**
+	 * Solve using single-precision factors with iterative refinement of the
+	 * residual in double precision. Workspaces are kept with this matrix, so
+	 * repeated solutions only allocate the corrections. Not safe to call
+	 * concurrently on the same matrix.
+	 * 
+	 * @param f
+	 *            factorization created from this matrix
+	 * @param mm
+	 *            mismatch array (not modified)
+	 * @param maxref
+	 *            maximum number of refinement steps
+	 * @return Array (in bus order) of corrections
+	 */
+	public float[] solveRefined(FactorizedFltMatrix f, float[] mm, int maxref)
+	{
+		int n = mm.length;
+		if (_wx.length != n)
+		{
+			_wx = new double[n];
+			_wax = new double[n];
+			_wr = new double[n];
+			_wrf = new float[n];
+		}
+		double[] x = _wx, ax = _wax, r = _wr;
+		float[] rf = _wrf;
+		int[] elim = f.getElimBus();
+		float[] c = f.solve(mm);
+		/* rows of buses not eliminated are never written, and stay 0 */
+		for(int bus : elim) x[bus] = c[bus];
+
+		double lastnorm = Double.MAX_VALUE;
+		for(int it=0; it < maxref; ++it)
+		{
+			residual(mm, x, elim, ax, r);
+			double norm = 0;
+			for(int bus : elim)
+			{
+				double a = Math.abs(r[bus]);
+				if (a > norm) norm = a;
+			}
+			/* stop once round-off no longer reduces the residual */
+			if (norm == 0 || norm >= lastnorm) break;
+			lastnorm = norm;
+			for(int bus : elim) rf[bus] = (float) r[bus];
+			float[] dx = f.solve(rf);
+			for(int bus : elim) x[bus] += dx[bus];
+		}
+		float[] rv = new float[n];
+		for(int bus : elim) rv[bus] = (float) x[bus];
+		return rv;
+	}
+
+	/** fraction of the full factorization work beyond which refactorize(pat, f, buses) refills all factors */
+	static final float PARTIAL_MAX = 0.25f;
+
+	/**
+	 * Find the rows that differ between this matrix and earlier values over
+	 * the same adjacencies.
+	 * 
+	 * @param bdiag
+	 *            earlier diagonal values
+	 * @param boffdiag
+	 *            earlier off-diagonal values, or null if they are unchanged
+	 * @return buses with a changed diagonal, and both buses of each changed
+	 *         off-diagonal
+	 */
+	public int[] findChanges(float[] bdiag, float[] boffdiag)
+	{
+		int nbus = _bdiag.length;
+		boolean[] chg = new boolean[nbus];
+		for(int i=0; i < nbus; ++i)
+			chg[i] = _bdiag[i] != bdiag[i];
+		if (boffdiag != null)
+		{
+			int nbr = _adj.getBranchCount();
+			for(int i=0; i < nbr; ++i)
+			{
+				if (_boffdiag[i] != boffdiag[i])
+				{
+					chg[_adj.getFromBus(i)] = true;
+					chg[_adj.getToBus(i)] = true;
+				}
+			}
+		}
+		int n = 0;
+		for(boolean c : chg) if (c) ++n;
+		int[] rv = new int[n];
+		for(int i=0, j=0; j < n; ++i)
+			if (chg[i]) rv[j++] = i;
+		return rv;
+	}
+
+	/**
+	 * Bring an existing factorization up to date after changes to the rows of
+	 * the given buses. Factors on the elimination tree paths from the changed
+	 * buses are recalculated in place, unless the paths cover a large part of
+	 * the matrix, in which case all factors are refilled.
+	 * 
+	 * @param pat
+	 *            elimination pattern f was created from
+	 * @param f
+	 *            factorization created from this matrix and pattern
+	 * @param buses
+	 *            buses with modified diagonal or off-diagonal values (both
+	 *            buses of a changed off-diagonal)
+	 * @return updated factorization
+	 */
+	public FactorizedFltMatrix refactorize(SpSymMtrxFactPattern pat,
+			FactorizedFltMatrix f, int[] buses)
+	{
+		if (buses.length == 0) return f;
+		int[] ipos = f.getPathPositions(buses);
+		if (partialOpCount(f, ipos) > PARTIAL_MAX * pat.getFactorOpCount())
+			return factorize(pat, f);
+		return refactorPositions(f, ipos);
+	}
+
+	/**
+	 * Estimate the operations needed by refactorPositions(), comparable with
+	 * SpSymMtrxFactPattern.getFactorOpCount(). Each eliminated edge into a
+	 * recalculated bus costs a pass over the full row of its eliminated bus.
+	 */
+	static long partialOpCount(FactorizedFltMatrix f, int[] positions)
+	{
+		f.buildTranspose();
+		int[] p = f._p, pos = f._pos, nstart = f._nstart, tstart = f._tstart,
+				tedge = f._tedge, elim = f._elimbusord;
+		long n = 0L;
+		for(int ip : positions)
+		{
+			int j = elim[ip];
+			n += nstart[ip+1] - nstart[ip];
+			for(int t=tstart[j]; t < tstart[j+1]; ++t)
+			{
+				int i = pos[p[tedge[t]]];
+				n += nstart[i+1] - nstart[i];
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Update an existing factorization after changes to the diagonal elements
+	 * of the given buses. Only the factors on the elimination tree paths from
+	 * the changed buses are recalculated, and the factorization is updated in
+	 * place. Off-diagonal changes are also picked up if both of their buses
+	 * are included.
+	 * 
+	 * @param f
+	 *            factorization created from this matrix
+	 * @param buses
+	 *            buses with modified diagonal values
+	 * @return updated factorization
+	 */
+	public FactorizedFltMatrix refactorize(FactorizedFltMatrix f, int[] buses)
+	{
+		return refactorPositions(f, f.getPathPositions(buses));
+	}
+
+	/**
+	 * work row for refactorPositions(), zero between uses. Concurrent
+	 * refactorizations of separate islands only use the entries of their own
+	 * buses, so they can share it.
+	 */
+	float[] _wrow = new float[0];
+
+	/** recalculate the factors at the given elimination positions, in ascending order */
+	FactorizedFltMatrix refactorPositions(FactorizedFltMatrix f, int[] positions)
+	{
+		f.buildTranspose();
+		int[] p = f._p, q = f._q, pos = f._pos, nstart = f._nstart;
+		int[] tstart = f._tstart, tedge = f._tedge, brord = f._brord;
+		float[] bd = f._bd, adjbo = f._adjbo;
+		int nbr = _adj.getBranchCount();
+		float[] row = _wrow;
+		if (row.length < bd.length) _wrow = row = new float[bd.length];
+
+		for(int ip : positions)
+		{
+			int j = f._elimbusord[ip];
+			int es = nstart[ip], ee = nstart[ip+1];
+			/* load original values for the row */
+			float d = _bdiag[j];
+			for(int e=es; e < ee; ++e)
+			{
+				int br = brord[e];
+				row[q[e]] = (br < nbr) ? _boffdiag[br] : 0f;
+			}
+			/* apply contributions from buses eliminated earlier */
+			for(int t=tstart[j]; t < tstart[j+1]; ++t)
+			{
+				int et = tedge[t], i = p[et], ipos = pos[i];
+				float bi = bd[i], lij = adjbo[et];
+				d -= bi * lij * lij;
+				for(int e=nstart[ipos]; e < nstart[ipos+1]; ++e)
+				{
+					int k = q[e];
+					int kpos = pos[k];
+					if (k != j && (kpos == -1 || kpos > ip))
+						row[k] -= bi * lij * adjbo[e];
+				}
+			}
+			/* store new factors */
+			bd[j] = d;
+			for(int e=es; e < ee; ++e)
+			{
+				int k = q[e];
+				adjbo[e] = -row[k] / d;
+				row[k] = 0f;
+			}
+		}
+		return f;
 	}
 
 	public void dump(String[] name, PrintWriter pw)
@@ -185,8 +565,7 @@ public class SpSymFltMatrix implements FloatMatrix
 		int nbr = _adj.getBranchCount();
 		for(int i=0; i < nbr; ++i)
 		{
-			int[] nd = _adj.getBusesForBranch(i);
-			int f = nd[0], t = nd[1];
+			int f = _adj.getFromBus(i), t = _adj.getToBus(i);
 			pw.format("%d,%f,%d,'%s',%f,%d,'%s',%f\n",
 				i, _boffdiag[i],
 				f, name[f], _bdiag[f],
@@ -200,6 +579,10 @@ public class SpSymFltMatrix implements FloatMatrix
 	{
 		return _bdiag;
 	}
+	public float[] getBOffDiag()
+	{
+		return _boffdiag;
+	}
 	@Override
 	public int getRowCount()
 	{
@@ -0,0 +1,300 @@
+package com.powerdata.openpa.tools.matrix;
+
+import java.util.Arrays;
+import com.powerdata.openpa.tools.LinkNet;
+
+/**
+ * Sparse Jacobian matrix with a symmetric structure, but not symmetric values.
+ *
+ * Like SpSymFltMatrix, this class "wraps" a set of adjacencies (LinkNet)
+ * created independently. Each bus has a diagonal element, and each branch
+ * holds two off-diagonal elements: one for the (lower bus, higher bus)
+ * position and one for the (higher bus, lower bus) position.
+ *
+ * @author chris@powerdata.com
+ *
+ */
+public class SpSymJacobianMatrix implements JacobianMatrix
+{
+	/** offsets of each partial derivative within an element */
+	static final int DPDA = 0, DPDV = 1, DQDA = 2, DQDV = 3, ESIZE = 4;
+
+	protected LinkNet _adj;
+	/** diagonal elements (4 values per bus) */
+	protected float[] _diag;
+	/** off-diagonal elements for row < column (4 values per branch) */
+	protected float[] _upper;
+	/** off-diagonal elements for row > column (4 values per branch) */
+	protected float[] _lower;
+
+	/**
+	 * Create a new Jacobian matrix using the given adjacencies
+	 * @param adj branch adjacencies
+	 */
+	public SpSymJacobianMatrix(LinkNet adj)
+	{
+		_adj = adj;
+		int nbus = adj.getMaxBusNdx(), nbr = adj.getBranchCount();
+		_diag = new float[nbus * ESIZE];
+		_upper = new float[nbr * ESIZE];
+		_lower = new float[nbr * ESIZE];
+	}
+
+	/** Set all the elements to 0 */
+	public void reset()
+	{
+		Arrays.fill(_diag, 0f);
+		Arrays.fill(_upper, 0f);
+		Arrays.fill(_lower, 0f);
+	}
+
+	/**
+	 * Find the array and offset backing the given location
+	 * @return offset of the element within the array returned in arr[0]
+	 */
+	int locate(int row, int column, float[][] arr)
+	{
+		if (row == column)
+		{
+			arr[0] = _diag;
+			return row * ESIZE;
+		}
+		int br = _adj.findBranch(row, column);
+		if (br == -1)
+			throw new IllegalArgumentException(String.format(
+				"No element at row %d column %d", row, column));
+		arr[0] = (row < column) ? _upper : _lower;
+		return br * ESIZE;
+	}
+
+	float get(int row, int column, int ofs)
+	{
+		float[][] a = new float[1][];
+		int x = locate(row, column, a);
+		return a[0][x + ofs];
+	}
+
+	void set(int row, int column, int ofs, float v)
+	{
+		float[][] a = new float[1][];
+		int x = locate(row, column, a);
+		a[0][x + ofs] = v;
+	}
+
+	void inc(int row, int column, int ofs, float v)
+	{
+		float[][] a = new float[1][];
+		int x = locate(row, column, a);
+		a[0][x + ofs] += v;
+	}
+
+	@Override
+	public int getRowCount() {return _adj.getMaxBusNdx();}
+	@Override
+	public int getColumnCount() {return _adj.getMaxBusNdx();}
+
+	@Override
+	public void setValue(int row, int column, JacobianElement value)
+	{
+		float[][] a = new float[1][];
+		int x = locate(row, column, a);
+		float[] v = a[0];
+		v[x + DPDA] = value.getDpda();
+		v[x + DPDV] = value.getDpdv();
+		v[x + DQDA] = value.getDqda();
+		v[x + DQDV] = value.getDqdv();
+	}
+
+	@Override
+	public JacobianElement getValue(int row, int column)
+	{
+		return new JacobianMatrix.Element(this, row, column);
+	}
+
+	@Override
+	public void addValue(int row, int column, JacobianElement e)
+	{
+		float[][] a = new float[1][];
+		int x = locate(row, column, a);
+		float[] v = a[0];
+		v[x + DPDA] += e.getDpda();
+		v[x + DPDV] += e.getDpdv();
+		v[x + DQDA] += e.getDqda();
+		v[x + DQDV] += e.getDqdv();
+	}
+
+	@Override
+	public void subValue(int row, int column, JacobianElement e)
+	{
+		float[][] a = new float[1][];
+		int x = locate(row, column, a);
+		float[] v = a[0];
+		v[x + DPDA] -= e.getDpda();
+		v[x + DPDV] -= e.getDpdv();
+		v[x + DQDA] -= e.getDqda();
+		v[x + DQDV] -= e.getDqdv();
+	}
+
+	@Override
+	public float getDpda(int row, int column) {return get(row, column, DPDA);}
+	@Override
+	public float getDpdv(int row, int column) {return get(row, column, DPDV);}
+	@Override
+	public float getDqda(int row, int column) {return get(row, column, DQDA);}
+	@Override
+	public float getDqdv(int row, int column) {return get(row, column, DQDV);}
+	@Override
+	public void setDpda(int row, int column, float v) {set(row, column, DPDA, v);}
+	@Override
+	public void setDpdv(int row, int column, float v) {set(row, column, DPDV, v);}
+	@Override
+	public void setDqda(int row, int column, float v) {set(row, column, DQDA, v);}
+	@Override
+	public void setDqdv(int row, int column, float v) {set(row, column, DQDV, v);}
+	@Override
+	public void incDpda(int row, int column, float v) {inc(row, column, DPDA, v);}
+	@Override
+	public void incDpdv(int row, int column, float v) {inc(row, column, DPDV, v);}
+	@Override
+	public void incDqda(int row, int column, float v) {inc(row, column, DQDA, v);}
+	@Override
+	public void incDqdv(int row, int column, float v) {inc(row, column, DQDV, v);}
+
+	/**
+	 * Replace the reactive power equation of a bus with a fixed voltage
+	 * magnitude (dV = 0). Used for PV buses.
+	 *
+	 * @param bus
+	 *            bus index
+	 */
+	public void fixVoltage(int bus)
+	{
+		int dx = bus * ESIZE;
+		_diag[dx + DPDV] = 0f;
+		_diag[dx + DQDA] = 0f;
+		_diag[dx + DQDV] = 1f;
+		for (int br : _adj.findBranches(bus))
+		{
+			int[] nd = _adj.getBusesForBranch(br);
+			int far = (nd[0] == bus) ? nd[1] : nd[0];
+			int bx = br * ESIZE;
+			/* row of the PV bus */
+			float[] r = (bus < far) ? _upper : _lower;
+			r[bx + DQDA] = 0f;
+			r[bx + DQDV] = 0f;
+			/* column of the PV bus */
+			float[] c = (bus < far) ? _lower : _upper;
+			c[bx + DPDV] = 0f;
+			c[bx + DQDV] = 0f;
+		}
+	}
+
+	/**
+	 * Factorize the Jacobian using a saved elimination pattern. Neither the
+	 * pattern nor the values in this matrix are modified.
+	 *
+	 * @param pat
+	 *            Elimination pattern (typically shared with B' and B'')
+	 * @return factorized Jacobian
+	 */
+	public FactorizedJacobianMatrix factorize(SpSymMtrxFactPattern pat)
+	{
+		int nbr = Math.max(_adj.getBranchCount(), pat.getEdgeCapacity());
+		float[] d = _diag.clone();
+		float[] up = Arrays.copyOf(_upper, nbr * ESIZE);
+		float[] lo = Arrays.copyOf(_lower, nbr * ESIZE);
+
+		int nelim = pat.getElimNdCount(), nedge = pat.getElimEdgeCount();
+		float[] dinv = new float[d.length];
+		float[] l = new float[nedge * ESIZE], u = new float[nedge * ESIZE];
+		int[] q = new int[nedge], nstart = new int[nelim + 1];
+		int[] elimnd = Arrays.copyOf(pat.getElimNdOrder(), nelim);
+		float[] tl = new float[0];
+
+		int[] pnstart = pat.getElimEdgeStart(), ptstart = pat.getFilledInStart();
+		int[] cbus = pat.getElimToNode(), cbr = pat.getElimEdgeOrder(),
+				tbr = pat.getFilledInEdges();
+		int k = 0, ind = 0;
+		for (int n = 0; n < nelim; ++n)
+		{
+			int p = elimnd[n], e0 = pnstart[n];
+			int nmut = pnstart[n+1] - e0;
+			int px = p * ESIZE;
+			invert(d, px, dinv, px);
+			if (tl.length < nmut * ESIZE) tl = new float[nmut * ESIZE];
+			nstart[ind++] = k;
+			for (int i = 0; i < nmut; ++i)
+			{
+				int ci = cbus[e0+i], bx = cbr[e0+i] * ESIZE, kx = k * ESIZE;
+				/* A(ci, p) and A(p, ci) */
+				float[] aip = (ci < p) ? up : lo, api = (p < ci) ? up : lo;
+				mult(aip, bx, dinv, px, tl, i * ESIZE);
+				System.arraycopy(tl, i * ESIZE, l, kx, ESIZE);
+				System.arraycopy(api, bx, u, kx, ESIZE);
+				q[k++] = ci;
+				multSub(tl, i * ESIZE, api, bx, d, ci * ESIZE);
+			}
+			int imut = ptstart[n];
+			for (int i = 0; i < nmut; ++i)
+			{
+				int ci = cbus[e0+i];
+				for (int j = i + 1; j < nmut; ++j)
+				{
+					int tb = tbr[imut++];
+					if (tb == -1) continue;
+					int cj = cbus[e0+j], tx = tb * ESIZE;
+					float[] apj = (p < cj) ? up : lo, api = (p < ci) ? up : lo;
+					/* A(ci, cj) -= L(ci) * A(p, cj) */
+					multSub(tl, i * ESIZE, apj, cbr[e0+j] * ESIZE,
+						(ci < cj) ? up : lo, tx);
+					/* A(cj, ci) -= L(cj) * A(p, ci) */
+					multSub(tl, j * ESIZE, api, cbr[e0+i] * ESIZE,
+						(cj < ci) ? up : lo, tx);
+				}
+			}
+		}
+		nstart[ind] = k;
+		return new FactorizedJacobianMatrix(dinv, l, u, q, nstart, elimnd);
+	}
+
+	/**
+	 * Invert a 2x2 element. A singular element results in a zero inverse so
+	 * that the corresponding corrections are left at 0.
+	 */
+	static void invert(float[] s, int sx, float[] r, int rx)
+	{
+		float a = s[sx + DPDA], b = s[sx + DPDV], c = s[sx + DQDA], d = s[sx + DQDV];
+		float det = a * d - b * c;
+		if (det == 0f || !Float.isFinite(det))
+		{
+			Arrays.fill(r, rx, rx + ESIZE, 0f);
+			return;
+		}
+		r[rx + DPDA] = d / det;
+		r[rx + DPDV] = -b / det;
+		r[rx + DQDA] = -c / det;
+		r[rx + DQDV] = a / det;
+	}
+
+	/** r = a * b for 2x2 elements */
+	static void mult(float[] a, int ax, float[] b, int bx, float[] r, int rx)
+	{
+		float a0 = a[ax], a1 = a[ax + 1], a2 = a[ax + 2], a3 = a[ax + 3];
+		float b0 = b[bx], b1 = b[bx + 1], b2 = b[bx + 2], b3 = b[bx + 3];
+		r[rx] = a0 * b0 + a1 * b2;
+		r[rx + 1] = a0 * b1 + a1 * b3;
+		r[rx + 2] = a2 * b0 + a3 * b2;
+		r[rx + 3] = a2 * b1 + a3 * b3;
+	}
+
+	/** r -= a * b for 2x2 elements */
+	static void multSub(float[] a, int ax, float[] b, int bx, float[] r, int rx)
+	{
+		float a0 = a[ax], a1 = a[ax + 1], a2 = a[ax + 2], a3 = a[ax + 3];
+		float b0 = b[bx], b1 = b[bx + 1], b2 = b[bx + 2], b3 = b[bx + 3];
+		r[rx] -= a0 * b0 + a1 * b2;
+		r[rx + 1] -= a0 * b1 + a1 * b3;
+		r[rx + 2] -= a2 * b0 + a3 * b2;
+		r[rx + 3] -= a2 * b1 + a3 * b3;
+	}
+}
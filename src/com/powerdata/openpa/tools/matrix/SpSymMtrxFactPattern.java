@@ -8,9 +8,10 @@ import com.powerdata.openpa.tools.LinkNet;
  * Symmetric (Sparse) Matrix factorization pattern. Perform elimination and keep
  * the pattern around for re-use.
  * 
- * @author chris@powerdata.com
+ * The connections of each eliminated node are kept in flat arrays indexed by
+ * offsets, so elimination does not allocate for each node.
  * 
- * TODO:  Assess memory footprint of save elimination info and resolve if needed
+ * @author chris@powerdata.com
  * 
  */
 
@@ -45,27 +46,32 @@ public class SpSymMtrxFactPattern extends SpSymMtrxFactorizer
 		 * @return Index of the node within the original order used by the matrix
 		 */
 		public int getElimNodeNdx() {return _elimndorder[_ndx];}
-		/**
-		 * 
-		 * @return
-		 */
 		/** 
 		 * Get the set of nodes connected to the eliminated node
 		 * @return Set of nodes connected to the eliminated node
 		 */
-		public int[] getRemainingNodes() {return _n[_ndx];}
+		public int[] getRemainingNodes()
+		{
+			return Arrays.copyOfRange(_eq, _nstart[_ndx], _nstart[_ndx+1]);
+		}
 		/**
 		 * Get the set of eliminated edges
 		 * @return Set of eliminated edges same order as getRemainingNodes()
 		 */
-		public int[] getElimEdges() {return _bfr[_ndx];}
+		public int[] getElimEdges()
+		{
+			return Arrays.copyOfRange(_elimbrorder, _nstart[_ndx], _nstart[_ndx+1]);
+		}
 		/**
 		 * Get the filled-in edges. The order of edges is formed by traversing
 		 * the rows of the upper triangle in the "mutual" submatrix
 		 * 
 		 * @return filled-in edges
 		 */
-		public int[] getFilledInEdges() {return _btr[_ndx];}
+		public int[] getFilledInEdges()
+		{
+			return Arrays.copyOfRange(_tbr, _tstart[_ndx], _tstart[_ndx+1]);
+		}
 
 		@Override
 		public String toString()
@@ -78,46 +84,133 @@ public class SpSymMtrxFactPattern extends SpSymMtrxFactorizer
 		}
 	}
 
-	int[][] _n;
-	int[][] _bfr,_btr;
-	int[] _tbr;
-	int _itbr;
+	/**
+	 * Offset of the first eliminated edge of each eliminated node, by
+	 * elimination position, with an entry for the end. The edges of each
+	 * node are stored together in _ep, _eq and _elimbrorder.
+	 */
+	int[] _nstart = new int[1];
+	/** offset of the first mutual target edge of each eliminated node, with an entry for the end */
+	int[] _tstart = new int[1];
+	/** mutual target edges of all eliminated nodes (-1 if no edge) */
+	int[] _tbr = new int[0];
+	int _itbr, _iedge;
 
 	@Override
 	protected void setup(LinkNet matrix)
 	{
 		int nbus = matrix.getMaxBusNdx();
-		_n = new int[nbus][];
-		_btr = new int[nbus][];
-		_bfr = new int[nbus][];
+		if (_nstart.length <= nbus)
+		{
+			_nstart = new int[nbus+1];
+			_tstart = new int[nbus+1];
+		}
+		_nstart[0] = 0;
+		_tstart[0] = 0;
+		_itbr = 0;
+		_iedge = 0;
 	}
 
 	@Override
 	protected void finish()
 	{
-		_n = Arrays.copyOf(_n, _iord);
+		// do nothing
 	}
 
 	public EliminatedNodeList getEliminatedBuses()
 	{
 		return new EliminatedNodeList();
 	}
+
+	/**
+	 * Get the offset of the first eliminated edge of each eliminated node in
+	 * getElimToNode() and getElimEdgeOrder(), by elimination position. The
+	 * entry following the last node marks the end.
+	 * 
+	 * @return eliminated edge offsets
+	 */
+	public int[] getElimEdgeStart() {return _nstart;}
+
+	/**
+	 * Get the offset of the first filled-in edge of each eliminated node in
+	 * getFilledInEdges(), by elimination position. The entry following the
+	 * last node marks the end.
+	 * 
+	 * @return filled-in edge offsets
+	 */
+	public int[] getFilledInStart() {return _tstart;}
+
+	/**
+	 * Get the filled-in edges of all eliminated nodes. The edges of each node
+	 * are formed by traversing the rows of the upper triangle in its "mutual"
+	 * submatrix, -1 where no edge is needed.
+	 * 
+	 * @return filled-in edges
+	 */
+	public int[] getFilledInEdges() {return _tbr;}
+
+	/**
+	 * Get the number of edge entries needed to factorize with this pattern,
+	 * one more than the largest eliminated or filled-in edge index
+	 * 
+	 * @return edge capacity
+	 */
+	public int getEdgeCapacity()
+	{
+		int nbr = 0;
+		for(int i=0; i < _elimbrcnt; ++i)
+			nbr = Math.max(nbr, _elimbrorder[i] + 1);
+		int ntbr = _tstart[_iord];
+		for(int i=0; i < ntbr; ++i)
+			nbr = Math.max(nbr, _tbr[i] + 1);
+		return nbr;
+	}
+
+	/**
+	 * Get the elimination tree. The parent of an eliminated node is the first
+	 * node eliminated after it among its remaining connections. Nodes in
+	 * different subtrees share no eliminated edges, and can be reduced and
+	 * substituted independently.
+	 * 
+	 * @return parent position in elimination order for each eliminated node,
+	 *         -1 at the root
+	 */
+	public int[] getElimTree()
+	{
+		int[] pos = new int[_elimndorder.length];
+		Arrays.fill(pos, -1);
+		for(int i=0; i < _iord; ++i)
+			pos[_elimndorder[i]] = i;
+		int[] parent = new int[_iord];
+		for(int i=0; i < _iord; ++i)
+		{
+			int par = -1;
+			for(int e=_nstart[i]; e < _nstart[i+1]; ++e)
+			{
+				int np = pos[_eq[e]];
+				if (np != -1 && (par == -1 || np < par)) par = np;
+			}
+			parent[i] = par;
+		}
+		return parent;
+	}
 	
 	@Override
-	protected void elimStart(int elimbus, int[] cbus, int[] cbr)
+	protected void elimStart(int elimbus, int[] cbus, int[] cbr, int nbus)
 	{
-		_n[_iord] = cbus;
-		_bfr[_iord] = cbr;
-		_itbr = 0;
-		int nbus = cbus.length;
-		_tbr = new int[nbus*(nbus-1)/2];
+		_nstart[_iord] = _iedge;
+		_tstart[_iord] = _itbr;
+		_iedge += nbus;
+		int ntbr = _itbr + nbus*(nbus-1)/2;
+		if (_tbr.length < ntbr)
+			_tbr = Arrays.copyOf(_tbr, Math.max(ntbr, 2*_tbr.length));
 	}
 	
 	@Override
 	protected void elimStop()
 	{
-		_btr[_iord] = (_tbr.length == _itbr) ? _tbr :
-			Arrays.copyOf(_tbr, _itbr);
+		_nstart[_iord+1] = _iedge;
+		_tstart[_iord+1] = _itbr;
 	}
 
 	@Override
@@ -1,7 +1,6 @@
 package com.powerdata.openpa.tools.matrix;
 
 import java.util.Arrays;
-import com.powerdata.openpa.tools.BusConnectionsPriQ;
 import com.powerdata.openpa.tools.LinkNet;
 
 /**
@@ -15,6 +14,28 @@ public abstract class SpSymMtrxFactorizer
 	protected int[]	/** eliminated node order */_elimndorder	= new int[0], _ep = new int[0],
 			_eq = new int[0], _elimbrorder = new int[0];
 	protected int	_elimbrcnt		= 0, _iord=0;
+	/** select the order of elimination */
+	protected EliminationOrdering _ordering = new MinDegreeOrdering();
+	/** number of edges added by elimination */
+	protected int _nfill = 0;
+	/** multiply-add operations to factorize */
+	protected long _nops = 0L;
+	/** adjacencies modified during elimination, reused between eliminations */
+	LinkNet _work = new LinkNet();
+	/** connected nodes, edges and count changes of the node being eliminated */
+	int[] _cbus = new int[0], _cbr = new int[0], _incc = new int[0];
+
+	/**
+	 * Set the ordering used by the next elimination.  Defaults to minimum
+	 * degree.
+	 * 
+	 * @param o
+	 *            elimination ordering
+	 */
+	public void setOrdering(EliminationOrdering o) {_ordering = o;}
+
+	/** @return ordering used for elimination */
+	public EliminationOrdering getOrdering() {return _ordering;}
 
 	/**
 	 * Called during elimination when a new node is being eliminated. Subclass
@@ -26,8 +47,11 @@ public abstract class SpSymMtrxFactorizer
 	 *            connected node indexes
 	 * @param cedge
 	 * 		      connected edge indexes
+	 * @param ncnd
+	 *            number of connected nodes, the arrays are reused and may
+	 *            be longer
 	 */
-	protected abstract void elimStart(int elimnode, int[] cnd, int[] cedge);
+	protected abstract void elimStart(int elimnode, int[] cnd, int[] cedge, int ncnd);
 	/**
 	 * Called during elimination to post processing
 	 */
@@ -77,7 +101,8 @@ public abstract class SpSymMtrxFactorizer
 	 */
 	public void eliminate(LinkNet mtrx, int[] ref)
 	{
-		LinkNet matrix = new LinkNet(mtrx);
+		LinkNet matrix = _work;
+		matrix.copyFrom(mtrx);
 		setup(matrix);
 		int nmbr = matrix.getBranchCount();
 		int cap = nmbr*3;
@@ -85,32 +110,42 @@ public abstract class SpSymMtrxFactorizer
 		ensureCapacity(cap);
 		int[] ccnt = matrix.getConnectionCounts();
 		for(int r : ref) ccnt[r] = 0;
-		int[] last = new int[(matrix.getMaxBusNdx()+1)/2];
-		int nlast = 0;
-		BusConnectionsPriQ bcq = new BusConnectionsPriQ(ccnt);
-		int elimbus = bcq.peek();
+		EliminationOrdering ord = _ordering;
+		ord.start(matrix, ccnt);
+		_nfill = 0;
+		_nops = 0L;
+		_iord = 0;
+		int elimbus = ord.next();
 		int[] elimndorder = new int[matrix.getMaxBusNdx()];
 		Arrays.fill(elimndorder, -1);
 		int brord=0;
 		while (elimbus != -1)
 		{
-			int[][] cinfo = matrix.findConnections(elimbus);
+			int nbus = matrix.getConnectionCount(elimbus);
+			if (_cbus.length < nbus)
+			{
+				int n = Math.max(nbus, 2 * _cbus.length);
+				_cbus = new int[n];
+				_cbr = new int[n];
+				_incc = new int[n];
+			}
 			/** connected buses (to elimbus) */
-			int[] cbus = cinfo[0];
+			int[] cbus = _cbus;
 			/** connected branches in same order as cbus */
-			int[] cbr = cinfo[1];
-			/** number of connected buses */
-			int nbus = cbus.length;
+			int[] cbr = _cbr;
+			matrix.findConnections(elimbus, cbus, cbr);
+			/* scale each connection, then update the mutuals among them */
+			_nops += nbus + nbus * (nbus + 1L) / 2L;
 			/*
 			 * allow subclass to start elimination of a bus
 			 */
-			elimStart(elimbus, cbus, cbr);
+			elimStart(elimbus, cbus, cbr, nbus);
 			/** keep a counter for each connected bus of adds and removes */
-			int[] incc = new int[nbus];
+			int[] incc = _incc;
+			Arrays.fill(incc, 0, nbus, 0);
 			for (int i = 0; i < nbus; ++i)
 			{
 				int busi = cbus[i];
-				bcq.dec(elimbus);
 				--incc[i];
 				matrix.eliminateBranch(cbr[i]);
 				_elimbrorder[brord] = cbr[i];
@@ -127,6 +162,7 @@ public abstract class SpSymMtrxFactorizer
 						{
 							br = matrix.addBranch(busi, busj);
 							ensureCapacity(++nmbr);
+							++_nfill;
 							++incc[i];
 							++incc[j];
 						}
@@ -135,23 +171,10 @@ public abstract class SpSymMtrxFactorizer
 				}
 			}
 			/* adjust counts */
-			for (int i = 0; i < nbus; ++i)
-			{
-				int n = cbus[i], c = incc[i];
-				while (c < 0)
-				{
-					if (bcq.dec(n)) last[nlast++] = n;
-					++c;
-				}
-				while (c > 0)
-				{
-					bcq.inc(n);
-					--c;
-				}
-			}
+			ord.eliminated(elimbus, cbus, incc, nbus);
 			elimStop();
 			elimndorder[_iord++] = elimbus;
-			elimbus = bcq.peek();
+			elimbus = ord.next();
 		}
 		_elimndorder = elimndorder;
 		finish();
@@ -192,6 +215,38 @@ public abstract class SpSymMtrxFactorizer
 		return _elimbrcnt;
 	}
 
+	/**
+	 * Get the number of edges added (filled in) by the last elimination
+	 * @return number of fill-in edges
+	 */
+	public int getFillCount()
+	{
+		return _nfill;
+	}
+
+	/**
+	 * Get the number of multiply-add operations needed to factorize with the
+	 * last elimination.  Eliminating a node with d remaining connections
+	 * takes d operations to scale the connections and d(d+1)/2 to update the
+	 * remaining diagonals and mutuals.
+	 * 
+	 * @return factorization operations
+	 */
+	public long getFactorOpCount()
+	{
+		return _nops;
+	}
+
+	/**
+	 * Get the number of multiply-add operations for one forward and backward
+	 * substitution with the last elimination
+	 * @return solve operations
+	 */
+	public long getSolveOpCount()
+	{
+		return 2L * _elimbrcnt + _iord;
+	}
+
 	/**
 	 * Get the from-side nodes of eliminated edges
 	 * @return From-side nodes of eliminated edges